@@ -0,0 +1,136 @@
+package com.unyaunya.minic.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.ListTokenSource;
+import org.antlr.v4.runtime.Token;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.backend.Casl2Emitter;
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.parser.MiniCParser.ProgramContext;
+import com.unyaunya.minic.preprocess.Preprocessor;
+import com.unyaunya.minic.semantics.SemanticAnalyzer;
+import com.unyaunya.minic.semantics.SemanticInfo;
+
+/**
+ * Measures every compiler phase in isolation and the whole pipeline end to end.
+ *
+ * Each phase benchmark consumes the output of the previous phase, prepared once
+ * in {@link #setUp()}, so a regression shows up in exactly one benchmark.
+ * Inputs are the programs in app/sample plus generated programs
+ * ({@code synthetic-N} has N functions).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.AverageTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CompilerPhaseBenchmark {
+    private static final int STACK_SIZE = 1024;
+
+    @Param({"fib.c", "atoi.c", "str.c", "muldiv.c", "io.c", "synthetic-100", "synthetic-1000"})
+    public String input;
+
+    private Path tempDir;
+    private Path source;
+    private Preprocessor.Result preprocessed;
+    private List<? extends Token> tokens;
+    private ProgramContext tree;
+    private Program ast;
+    private SemanticInfo semanticInfo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        source = resolveInput();
+        preprocessed = new Preprocessor().preprocess(source);
+        tokens = lex();
+        tree = parse();
+        ast = buildAst();
+        semanticInfo = analyze();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        if (tempDir != null) {
+            try (var files = Files.list(tempDir)) {
+                for (Path p : files.toList()) {
+                    Files.delete(p);
+                }
+            }
+            Files.delete(tempDir);
+        }
+    }
+
+    private Path resolveInput() throws IOException {
+        if (input.startsWith("synthetic-")) {
+            int functions = Integer.parseInt(input.substring("synthetic-".length()));
+            tempDir = Files.createTempDirectory("minic-jmh");
+            Path p = tempDir.resolve(input + ".c");
+            Files.writeString(p, SyntheticPrograms.generate(functions));
+            return p;
+        }
+        String sampleDir = System.getProperty("minic.sample.dir", "app/sample");
+        return Paths.get(sampleDir, input);
+    }
+
+    @Benchmark
+    public Preprocessor.Result preprocess() {
+        return new Preprocessor().preprocess(source);
+    }
+
+    @Benchmark
+    public List<? extends Token> lex() {
+        MiniCLexer lexer = new MiniCLexer(preprocessed.getCharStream());
+        return lexer.getAllTokens();
+    }
+
+    @Benchmark
+    public ProgramContext parse() {
+        MiniCParser parser = new MiniCParser(new CommonTokenStream(new ListTokenSource(tokens)));
+        return parser.program();
+    }
+
+    @Benchmark
+    public Program buildAst() {
+        return (Program) new AstBuilder(preprocessed).visit(tree);
+    }
+
+    @Benchmark
+    public SemanticInfo analyze() {
+        return new SemanticAnalyzer().analyze(ast);
+    }
+
+    @Benchmark
+    public String emit() {
+        return new Casl2Emitter().emit(ast, semanticInfo, STACK_SIZE);
+    }
+
+    @Benchmark
+    public String endToEnd() {
+        return new CompilerMain().compile(source);
+    }
+}
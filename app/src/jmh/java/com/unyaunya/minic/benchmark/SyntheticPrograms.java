@@ -0,0 +1,71 @@
+package com.unyaunya.minic.benchmark;
+
+/**
+ * Generates large, semantically valid MiniC programs for benchmarking.
+ * The shape mimics student submissions: globals, loops, nested if/else,
+ * pointer arithmetic, string literals and a call chain between functions.
+ */
+final class SyntheticPrograms {
+    private SyntheticPrograms() {
+    }
+
+    static String generate(int functions) {
+        StringBuilder sb = new StringBuilder();
+        sb.append("int olen;\n");
+        sb.append("int obuf[256];\n\n");
+        sb.append("void puts(int* s) {\n");
+        sb.append("    int n = 0;\n");
+        sb.append("    while (s[n] != '\\0') {\n");
+        sb.append("        obuf[n] = s[n];\n");
+        sb.append("        n = n + 1;\n");
+        sb.append("    }\n");
+        sb.append("    olen = n;\n");
+        sb.append("    _out();\n");
+        sb.append("}\n\n");
+        for (int i = 0; i < functions; i++) {
+            appendFunction(sb, i);
+        }
+        sb.append("void main() {\n");
+        sb.append("    int r;\n");
+        sb.append("    r = f").append(functions - 1).append("(10, 3);\n");
+        sb.append("    puts(\"done\");\n");
+        sb.append("}\n");
+        return sb.toString();
+    }
+
+    private static void appendFunction(StringBuilder sb, int i) {
+        sb.append("/*\n * generated function ").append(i).append("\n */\n");
+        sb.append("int f").append(i).append("(int a, int b) {\n");
+        sb.append("    int i;\n");
+        sb.append("    int s;\n");
+        sb.append("    int buf[8];\n");
+        sb.append("    int* p = buf;\n");
+        sb.append("    s = 0; // accumulator\n");
+        sb.append("    for (i = 0; i < a; i = i + 1) {\n");
+        sb.append("        if (s > b && !(i == 3)) {\n");
+        sb.append("            s = s - b;\n");
+        sb.append("        } else if (s < -b || i >= 7) {\n");
+        sb.append("            s = s + i - (a - 1);\n");
+        sb.append("        } else {\n");
+        sb.append("            s = s + i + i;\n");
+        sb.append("        }\n");
+        sb.append("        if (i < 8) {\n");
+        sb.append("            buf[i] = s;\n");
+        sb.append("        }\n");
+        sb.append("    }\n");
+        sb.append("    *(p + 1) = s;\n");
+        sb.append("    while (s > 100) {\n");
+        sb.append("        s = s - 3;\n");
+        sb.append("    }\n");
+        if (i > 0) {
+            sb.append("    if (a <= 0) {\n");
+            sb.append("        puts(\"f").append(i).append(" underflow\");\n");
+            sb.append("        return b;\n");
+            sb.append("    }\n");
+            sb.append("    return f").append(i - 1).append("(a - 1, s) + *p;\n");
+        } else {
+            sb.append("    return s + buf[1];\n");
+        }
+        sb.append("}\n\n");
+    }
+}
@@ -37,10 +37,15 @@ block
     ;
 
 statement
+    : ifStmt
+    | simpleStatement
+    ;
+
+// every statement but if, so that 'else if' can be read only one way
+simpleStatement
     : varDecl ';'
     | assignment ';'
     | expr ';'          // 関数呼び出しや式文
-    | ifStmt
     | whileStmt
     | forStmt
     | block
@@ -91,7 +96,12 @@ lvalue
 // Control flow
 // ----------------------
 ifStmt
-    : 'if' '(' expr ')' statement ('else' statement)?
+    : 'if' '(' expr ')' statement elseIf* ('else' simpleStatement)?
+    ;
+
+// 'else if' is a loop rather than a nested ifStmt, so long chains don't nest
+elseIf
+    : 'else' 'if' '(' expr ')' statement
     ;
 
 whileStmt
@@ -0,0 +1,190 @@
+package com.unyaunya.minic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import com.unyaunya.minic.stats.CompileStats;
+import com.unyaunya.minic.stats.Phase;
+
+import lombok.Value;
+
+/**
+ * Compiles many source files concurrently in one JVM.
+ *
+ * Every file gets its own pipeline (Preprocessor, AstBuilder,
+ * SemanticAnalyzer, Casl2Emitter), so tasks share nothing mutable except the
+ * ANTLR prediction caches and the {@link com.unyaunya.minic.preprocess.IncludeCache},
+ * which are thread safe. A failing file is reported
+ * in its {@link Result} and does not stop the batch.
+ *
+ * Optionally a {@link Dependencies .d file} is written next to each output,
+ * and outputs newer than every file in their .d file are not compiled again.
+ * Programs don't depend on each other's output, so all targets are
+ * independent and only the up-to-date check orders anything.
+ */
+public class BatchCompiler {
+    public static final String OUTPUT_EXTENSION = ".cas";
+
+    @Value
+    public static class Result {
+        Path source;
+        Path output;
+        Throwable error;
+        CompileStats stats;
+        boolean upToDate; // not compiled, as the output was newer than its dependencies
+        List<Path> dependencies; // the files it was compiled from, empty if it failed
+        Map<Path, List<Path>> includes; // see Preprocessor.Result#getIncludes
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    private final CompilerMain compiler;
+    private final int jobs;
+    private final boolean collectStats;
+    private final boolean writeDependencies;
+    private final boolean skipUpToDate;
+    private final boolean collectIncludes; // also of up-to-date targets
+
+    public BatchCompiler(int jobs, boolean collectStats) {
+        this(new CompilerMain(), jobs, collectStats);
+    }
+
+    public BatchCompiler(CompilerMain compiler, int jobs, boolean collectStats) {
+        this.compiler = compiler;
+        this.jobs = Math.max(1, jobs);
+        this.collectStats = collectStats;
+        this.writeDependencies = false;
+        this.skipUpToDate = false;
+        this.collectIncludes = false;
+    }
+
+    /**
+     * @param options supplies the number of jobs, --stats, and whether to
+     *        write .d files, skip up-to-date targets and write a manifest,
+     *        which needs the include graph of up-to-date targets as well
+     */
+    public BatchCompiler(CompilerMain compiler, CompilerOptions options) {
+        this.compiler = compiler;
+        this.jobs = Math.max(1, options.getJobs());
+        this.collectStats = options.isStats();
+        this.writeDependencies = options.isDependencies() || options.isMake();
+        this.skipUpToDate = options.isMake();
+        this.collectIncludes = options.getManifest() != null;
+    }
+
+    /**
+     * Compiles every source to its output path.
+     * @param targets source -> output, results are returned in the same order
+     */
+    public List<Result> compile(Map<Path, Path> targets) {
+        List<Future<Result>> futures = new ArrayList<>();
+        try (ExecutorService pool = Executors.newFixedThreadPool(Math.min(jobs, Math.max(1, targets.size())))) {
+            for (Map.Entry<Path, Path> t : targets.entrySet()) {
+                futures.add(pool.submit(() -> compileOne(t.getKey(), t.getValue())));
+            }
+            List<Result> results = new ArrayList<>(futures.size());
+            for (Future<Result> f : futures) {
+                results.add(f.get());
+            }
+            return results;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MinicException("Batch compilation interrupted");
+        } catch (ExecutionException e) {
+            // compileOne catches everything it can report
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private Result compileOne(Path source, Path output) {
+        CompileStats stats = new CompileStats(source.toString(), collectStats);
+        try {
+            if (skipUpToDate && Dependencies.isUpToDate(output)) {
+                List<Path> dependencies = Dependencies.read(output);
+                Map<Path, List<Path>> includes = collectIncludes ? compiler.includes(source) : Map.of();
+                return new Result(source, output, null, stats, true, dependencies, includes);
+            }
+            CompilerMain.Output code = compiler.generateOutput(source, null, stats);
+            stats.measure(Phase.WRITE, () -> {
+                try {
+                    Path parent = output.toAbsolutePath().getParent();
+                    if (parent != null) {
+                        Files.createDirectories(parent);
+                    }
+                    code.writeTo(output);
+                    if (writeDependencies) { // only once the output is in place
+                        Dependencies.write(output, code.getFiles());
+                    }
+                } catch (IOException e) {
+                    throw new MinicException("Error writing file: %s (%s)", output, e.getMessage());
+                }
+            });
+            return new Result(source, output, null, stats, false, code.getFiles(), code.getIncludes());
+        } catch (IOException e) {
+            return new Result(source, output, new MinicException("Error reading file: %s (%s)", Dependencies.depFile(output), e.getMessage()),
+                    stats, false, List.of(), Map.of());
+        } catch (RuntimeException | StackOverflowError e) {
+            return new Result(source, output, e, stats, false, List.of(), Map.of());
+        }
+    }
+
+    /**
+     * Expands the given files and directories to source -> output pairs.
+     * Directories are searched recursively for *.c and *.mc files.
+     * @param outputDir directory to write into, or null to write next to each source
+     * @throws MinicException if two sources would be written to the same file,
+     *         e.g. a.c and a.mc, or x/main.c and y/main.c into one directory
+     */
+    public static Map<Path, Path> collectTargets(List<String> inputs, Path outputDir) throws MinicException {
+        Map<Path, Path> targets = new LinkedHashMap<>();
+        for (String input : inputs) {
+            Path p = Path.of(input.trim());
+            if (Files.isDirectory(p)) {
+                try (Stream<Path> files = Files.walk(p)) {
+                    for (Path f : files.filter(Files::isRegularFile).filter(BatchCompiler::isSource).sorted().toList()) {
+                        Path out = (outputDir == null) ? f : outputDir.resolve(p.relativize(f));
+                        targets.putIfAbsent(f, withOutputExtension(out));
+                    }
+                } catch (IOException e) {
+                    throw new MinicException("Error reading directory: %s", p);
+                }
+            } else {
+                Path out = (outputDir == null) ? p : outputDir.resolve(p.getFileName());
+                targets.putIfAbsent(p, withOutputExtension(out));
+            }
+        }
+        Map<Path, Path> sources = new HashMap<>(); // by output
+        for (Map.Entry<Path, Path> target : targets.entrySet()) {
+            Path other = sources.putIfAbsent(target.getValue().toAbsolutePath().normalize(), target.getKey());
+            if (other != null) {
+                throw new MinicException("%s and %s would both be written to %s", other, target.getKey(), target.getValue());
+            }
+        }
+        return targets;
+    }
+
+    public static boolean isSource(Path p) {
+        String name = p.getFileName().toString();
+        return name.endsWith(".c") || name.endsWith(".mc");
+    }
+
+    private static Path withOutputExtension(Path p) {
+        String name = p.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        String base = (dot > 0) ? name.substring(0, dot) : name;
+        return p.resolveSibling(base + OUTPUT_EXTENSION);
+    }
+}
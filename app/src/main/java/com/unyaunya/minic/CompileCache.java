@@ -0,0 +1,320 @@
+package com.unyaunya.minic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+import java.util.stream.Stream;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.unyaunya.minic.Diagnostic.Severity;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+import lombok.Value;
+
+/**
+ * Persistent cache of compilation results in a directory, like ccache: the
+ * key is a hash of the preprocessed source with the files its lines came
+ * from, the compiler build and the options that affect the result, and the
+ * value is the program text and the diagnostics. A hit skips parsing,
+ * analysis and emission.
+ *
+ * Several JVMs may share a directory. Entries are written to a temporary
+ * file and renamed into place, so readers see whole entries or none, and a
+ * hit touches its entry so eviction can drop the least recently used ones.
+ * Eviction holds a lock on the file {@code lock} in the directory while it
+ * scans. The size limit is checked against the bytes this JVM has written
+ * since the last scan, so other JVMs can push the directory somewhat above
+ * it until the next eviction.
+ */
+public class CompileCache {
+    public static final long DEFAULT_MAX_BYTES = 256L << 20;
+
+    private static final int FORMAT = 0x4d430001; // "MC", format 1
+    private static final String LOCK_FILE = "lock";
+    private static final String TEMP_SUFFIX = ".tmp";
+    /** Temporary files older than this are left over by a JVM that died while writing. */
+    private static final long STALE_TEMP_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final String COMPILER_VERSION = compilerVersion();
+
+    /**
+     * The result of a compilation as cached.
+     */
+    @Value
+    public static class Entry {
+        String output; // null if there were errors
+        List<Diagnostic> diagnostics;
+        boolean limitReached;
+    }
+
+    private record CachedFile(Path path, long modified, long size) {
+    }
+
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong size = new AtomicLong(-1); // bytes in the directory as of the last scan plus written since, -1 before the first scan
+
+    public CompileCache(Path dir) {
+        this(dir, DEFAULT_MAX_BYTES);
+    }
+
+    /**
+     * @param maxBytes size above which the least recently used entries are evicted
+     */
+    public CompileCache(Path dir, long maxBytes) {
+        this.dir = dir.toAbsolutePath().normalize();
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * @param options the options that affect the output or the diagnostics
+     */
+    public HashCode key(Preprocessor.Result res, String options) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        hasher.putUnencodedChars(COMPILER_VERSION).putInt(-1);
+        hasher.putUnencodedChars(options).putInt(-1);
+        res.hashTo(hasher);
+        return hasher.hash();
+    }
+
+    /**
+     * @return the cached result, or null if there is none or it can't be read
+     */
+    public Entry get(HashCode key) {
+        Path file = path(key);
+        byte[] bytes;
+        try {
+            bytes = Files.readAllBytes(file);
+        } catch (NoSuchFileException e) {
+            return null;
+        } catch (IOException e) {
+            logger.warning(() -> "Cannot read " + file + ": " + e.getMessage());
+            return null;
+        }
+        try {
+            Entry entry = decode(bytes);
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            return entry;
+        } catch (NoSuchFileException e) {
+            return null; // evicted meanwhile, but what was read is complete
+        } catch (IOException e) {
+            logger.warning(() -> "Dropping unreadable cache entry " + file + ": " + e.getMessage());
+            delete(file);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the result under {@code key}, replacing any entry another JVM
+     * stored meanwhile, and evicts old entries if the cache got too large.
+     * Failures to write are logged and otherwise ignored.
+     */
+    public void put(HashCode key, Entry entry) {
+        Path file = path(key);
+        byte[] bytes = encode(entry);
+        try {
+            Files.createDirectories(file.getParent());
+            Path temp = Files.createTempFile(file.getParent(), file.getFileName().toString(), TEMP_SUFFIX);
+            try {
+                Files.write(temp, bytes);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        } catch (IOException e) {
+            logger.warning(() -> "Cannot write " + file + ": " + e.getMessage());
+            return;
+        }
+        if (size.get() < 0 || size.addAndGet(bytes.length) > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is within its
+     * size limit, and temporary files left over by crashed writers.
+     */
+    public synchronized void evict() {
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                    FileLock lock = channel.lock()) {
+                size.set(evictLocked());
+            }
+        } catch (OverlappingFileLockException e) {
+            // another instance in this JVM is evicting
+        } catch (IOException | UncheckedIOException e) {
+            logger.warning(() -> "Cannot evict from " + dir + ": " + e.getMessage());
+        }
+    }
+
+    private long evictLocked() throws IOException {
+        List<CachedFile> files = new ArrayList<>();
+        long staleBefore = System.currentTimeMillis() - STALE_TEMP_MILLIS;
+        try (Stream<Path> paths = Files.walk(dir, 2)) {
+            for (Path p : paths.toList()) {
+                BasicFileAttributes attrs;
+                try {
+                    attrs = Files.readAttributes(p, BasicFileAttributes.class);
+                } catch (NoSuchFileException e) {
+                    continue;
+                }
+                if (!attrs.isRegularFile() || p.getParent().equals(dir)) {
+                    continue; // the lock file
+                }
+                long modified = attrs.lastModifiedTime().toMillis();
+                if (p.getFileName().toString().endsWith(TEMP_SUFFIX)) {
+                    if (modified < staleBefore) {
+                        delete(p);
+                    }
+                    continue;
+                }
+                files.add(new CachedFile(p, modified, attrs.size()));
+            }
+        }
+        long total = files.stream().mapToLong(CachedFile::size).sum();
+        if (total <= maxBytes) {
+            return total;
+        }
+        // evict to 90% so that not every put has to scan again
+        long target = maxBytes - maxBytes / 10;
+        files.sort(Comparator.comparingLong(CachedFile::modified));
+        for (CachedFile f : files) {
+            if (total <= target) {
+                break;
+            }
+            if (delete(f.path())) {
+                total -= f.size();
+            }
+        }
+        return total;
+    }
+
+    private Path path(HashCode key) {
+        String hex = key.toString();
+        return dir.resolve(hex.substring(0, 2)).resolve(hex.substring(2));
+    }
+
+    private boolean delete(Path file) {
+        try {
+            return Files.deleteIfExists(file);
+        } catch (IOException e) {
+            return false; // e.g. still open on Windows; the next eviction tries again
+        }
+    }
+
+    private static byte[] encode(Entry entry) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(FORMAT);
+            writeString(out, entry.getOutput());
+            out.writeBoolean(entry.isLimitReached());
+            out.writeInt(entry.getDiagnostics().size());
+            for (Diagnostic d : entry.getDiagnostics()) {
+                out.writeByte(d.getSeverity().ordinal());
+                Location location = d.getLocation();
+                out.writeBoolean(location != null);
+                if (location != null) {
+                    writeString(out, location.getFilename());
+                    out.writeInt(location.getLineNumber());
+                }
+                writeString(out, d.getMessage());
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // ByteArrayOutputStream doesn't throw
+        }
+        return bytes.toByteArray();
+    }
+
+    private static Entry decode(byte[] bytes) throws IOException {
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (in.readInt() != FORMAT) {
+            throw new IOException("unknown format");
+        }
+        String output = readString(in);
+        boolean limitReached = in.readBoolean();
+        int n = in.readInt();
+        List<Diagnostic> diagnostics = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            int severity = in.readByte();
+            if (severity < 0 || severity >= Severity.values().length) {
+                throw new IOException("bad severity " + severity);
+            }
+            Location location = in.readBoolean() ? new Location(readString(in), in.readInt()) : null;
+            diagnostics.add(new Diagnostic(Severity.values()[severity], location, readString(in)));
+        }
+        if (in.read() >= 0) {
+            throw new IOException("trailing data");
+        }
+        return new Entry(output, List.copyOf(diagnostics), limitReached);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        if (s == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(utf8.length);
+        out.write(utf8);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        if (length > in.available()) {
+            throw new IOException("truncated");
+        }
+        return new String(in.readNBytes(length), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Identifies the compiler build: the version from the jar manifest and the
+     * size and time of the jar, or of the newest class when run from classes.
+     */
+    private static String compilerVersion() {
+        String version = String.valueOf(CompileCache.class.getPackage().getImplementationVersion());
+        try {
+            Path code = Path.of(CompileCache.class.getProtectionDomain().getCodeSource().getLocation().toURI());
+            if (Files.isRegularFile(code)) {
+                return version + "/" + Files.size(code) + "/" + Files.getLastModifiedTime(code).toMillis();
+            }
+            try (Stream<Path> classes = Files.walk(code)) {
+                long newest = classes.filter(Files::isRegularFile).mapToLong(p -> {
+                    try {
+                        return Files.getLastModifiedTime(p).toMillis();
+                    } catch (IOException e) {
+                        return 0;
+                    }
+                }).max().orElse(0);
+                return version + "/" + newest;
+            }
+        } catch (Exception e) {
+            return version; // the code source is not a file, e.g. in an image
+        }
+    }
+}
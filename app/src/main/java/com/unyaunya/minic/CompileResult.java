@@ -0,0 +1,27 @@
+package com.unyaunya.minic;
+
+import java.util.List;
+
+import lombok.Value;
+
+/**
+ * Outcome of {@link CompilerMain#compileWithDiagnostics}: the program, if
+ * there were no errors, and every error and warning that was reported.
+ */
+@Value
+public class CompileResult {
+    String output; // null if there were errors
+    List<Diagnostic> diagnostics;
+
+    public boolean isSuccess() {
+        return output != null;
+    }
+
+    public List<Diagnostic> getErrors() {
+        return diagnostics.stream().filter(Diagnostic::isError).toList();
+    }
+
+    public List<Diagnostic> getWarnings() {
+        return diagnostics.stream().filter(d -> !d.isError()).toList();
+    }
+}
@@ -3,76 +3,530 @@
  */
 package com.unyaunya.minic;
 
-import java.io.FileWriter;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
 import java.util.logging.Logger;
 
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.BailErrorStrategy;
 import org.antlr.v4.runtime.CharStream;
-import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
+import org.antlr.v4.runtime.DefaultErrorStrategy;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.atn.PredictionMode;
+import org.antlr.v4.runtime.misc.ParseCancellationException;
 
+import com.google.common.hash.HashCode;
+import com.unyaunya.minic.ast.FunctionDecl;
 import com.unyaunya.minic.ast.Program;
 import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.backend.Casl2Builder;
 import com.unyaunya.minic.backend.Casl2Emitter;
+import com.unyaunya.minic.backend.CommentLevel;
+import com.unyaunya.minic.backend.FunctionCache;
+import com.unyaunya.minic.backend.FunctionCode;
+import com.unyaunya.minic.backend.FunctionKey;
+import com.unyaunya.minic.frontend.MiniCScanner;
+import com.unyaunya.minic.frontend.ParserProfile;
+import com.unyaunya.minic.frontend.StreamingFrontEnd;
+import com.unyaunya.minic.frontend.SyntaxErrorListener;
 import com.unyaunya.minic.parser.MiniCLexer;
 import com.unyaunya.minic.parser.MiniCParser;
 import com.unyaunya.minic.parser.MiniCParser.ProgramContext;
+import com.unyaunya.minic.preprocess.IncludeCache;
 import com.unyaunya.minic.preprocess.Preprocessor;
+import com.unyaunya.minic.preprocess.SourceProvider;
 import com.unyaunya.minic.semantics.SemanticAnalyzer;
 import com.unyaunya.minic.semantics.SemanticInfo;
+import com.unyaunya.minic.server.CompileServer;
+import com.unyaunya.minic.stats.CompileStats;
+import com.unyaunya.minic.stats.Phase;
 
 public class CompilerMain {
     private Logger logger = Logger.getLogger(getClass().getName());    
-    
+    /**
+     * Programs with at least this many functions are analyzed and emitted
+     * function by function in parallel; for fewer it doesn't pay.
+     */
+    static final int PARALLEL_FUNCTIONS = 32;
+
+    private final List<Path> includePath;
+    private final Map<String, String> defines;
+    private final CommentLevel commentLevel;
+    private final boolean compact;
+    private final boolean streamingFrontEnd;
+    private final boolean scanner;
+    private final int maxErrors;
+    private final FunctionCache functionCache; // null unless incremental
+    private final CompileCache compileCache; // null unless a cache directory is given
+    private final String cacheOptions; // options that change the result, part of the cache key
+    private final SourceProvider sources;
+
+    public CompilerMain() {
+        this(new CompilerOptions());
+    }
+
+    /**
+     * @param options supplies the include path, macros and output format; other options are only used by {@link #run}
+     */
+    public CompilerMain(CompilerOptions options) {
+        this(options, IncludeCache.shared());
+    }
+
+    /**
+     * @param sources where sources and includes are read from instead of the file system
+     */
+    public CompilerMain(CompilerOptions options, SourceProvider sources) {
+        this.sources = sources;
+        this.includePath = List.copyOf(options.getIncludePath());
+        this.defines = Map.copyOf(options.getDefines());
+        this.commentLevel = options.getCommentLevel();
+        this.compact = options.isCompact();
+        this.streamingFrontEnd = options.isStreamingFrontEnd();
+        this.scanner = options.isScanner();
+        this.maxErrors = options.getMaxErrors();
+        this.functionCache = options.isIncremental() ? FunctionCache.shared() : null;
+        this.compileCache = (options.getCacheDir() != null) ? new CompileCache(options.getCacheDir(), options.getCacheSize()) : null;
+        this.cacheOptions = String.format("comments=%s compact=%b max-errors=%d", commentLevel, compact, maxErrors);
+    }
+
     public String compile(String path) throws MinicException {
         return compile(Paths.get(path.trim()));
     }
 
     public String compile(Path path) throws MinicException {
-        // Preprocess includes so we can map combined line numbers back to filenames
-        Preprocessor pre = new Preprocessor();
-        Preprocessor.Result res = pre.preprocess(path);
+        return compile(path, new CompileStats(path.toString(), false));
+    }
 
-        CharStream input = CharStreams.fromString(res.content);
-        MiniCLexer lexer = new MiniCLexer(input);
-        CommonTokenStream tokens = new CommonTokenStream(lexer);
-        tokens.fill();
-        MiniCParser parser = new MiniCParser(tokens);
+    public String compile(Path path, CompileStats stats) throws MinicException {
+        return compile(path, null, stats);
+    }
 
-        ProgramContext tree = parser.program(); // entry rule
+    /**
+     * Compiles {@code source} as if it were the content of {@code path}.
+     * @param source source text, or null to read {@code path}
+     * @throws MinicException with every error, one per line, if there were any
+     */
+    public String compile(Path path, String source, CompileStats stats) throws MinicException {
+        Output output = generateOutput(path, source, stats);
+        return stats.measure(Phase.EMIT, output::build);
+    }
 
-        AstBuilder builder = new AstBuilder(res);
-        Program ast = (Program) builder.visit(tree);
+    /**
+     * Compiles {@code source} as if it were the content of {@code path} and
+     * returns the program together with all errors and warnings, up to the
+     * error limit, instead of throwing.
+     * @param source source text, or null to read {@code path}
+     */
+    public CompileResult compileWithDiagnostics(Path path, String source, CompileStats stats) {
+        Diagnostics diagnostics = new Diagnostics(maxErrors);
+        Output code = generateOutput(path, source, stats, diagnostics);
+        String output = null;
+        if (code.isSuccess()) {
+            try {
+                output = stats.measure(Phase.EMIT, code::build);
+            } catch (MinicException e) {
+                diagnostics.abort(e);
+            }
+        }
+        return new CompileResult(output, diagnostics.getDiagnostics());
+    }
+
+    /**
+     * Compiles {@code source} up to the generated code, which the caller can
+     * stream with {@link Casl2Builder#writeTo} instead of building a string.
+     * This bypasses the compile cache, as a cached program has no builder.
+     * @param source source text, or null to read {@code path}
+     * @throws MinicException with every error, one per line, if there were any
+     */
+    public Casl2Builder generate(Path path, String source, CompileStats stats) throws MinicException {
+        Diagnostics diagnostics = new Diagnostics(maxErrors);
+        Casl2Builder code = generate(preprocess(path, source, stats), stats, diagnostics);
+        diagnostics.throwIfErrors();
+        return code;
+    }
+
+    /**
+     * The generated program: a builder that is rendered when written, or the
+     * text taken from or put into the compile cache. Neither if there were
+     * errors, but the files read are known even then.
+     */
+    static final class Output {
+        private final Casl2Builder code;
+        private final String text;
+        private final List<Path> files;
+        private final Map<Path, List<Path>> includes;
 
-        SemanticAnalyzer sema = new SemanticAnalyzer();
-        SemanticInfo semanticInfo = sema.analyze(ast); // throws on error
+        private Output(Casl2Builder code, String text, List<Path> files, Map<Path, List<Path>> includes) {
+            this.code = code;
+            this.text = text;
+            this.files = files;
+            this.includes = includes;
+        }
+
+        boolean isSuccess() {
+            return code != null || text != null;
+        }
 
-        Casl2Emitter emitter = new Casl2Emitter();
-        return emitter.emit(ast, semanticInfo, 1024);
+        /**
+         * @return the source and the files it included, or only the source if
+         *         preprocessing failed
+         */
+        List<Path> getFiles() {
+            return files;
+        }
+
+        /**
+         * @see Preprocessor.Result#getIncludes
+         */
+        Map<Path, List<Path>> getIncludes() {
+            return includes;
+        }
+
+        String build() {
+            return (text != null) ? text : code.build();
+        }
+
+        void writeTo(Appendable out) throws IOException {
+            if (text != null) {
+                out.append(text);
+            } else {
+                code.writeTo(out);
+            }
+        }
+
+        /**
+         * Writes the program to a temporary file next to {@code file} and
+         * renames it into place, so that a failure while rendering or writing
+         * leaves the previous file instead of a truncated one, which would look
+         * up to date to --make.
+         */
+        void writeTo(Path file) throws IOException {
+            Path temp = file.resolveSibling(String.format(".%s.%d.%d.tmp", file.getFileName(),
+                    ProcessHandle.current().pid(), Thread.currentThread().threadId()));
+            try {
+                try (Writer writer = Files.newBufferedWriter(temp)) {
+                    writeTo(writer);
+                }
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } finally {
+                Files.deleteIfExists(temp);
+            }
+        }
+    }
+
+    /**
+     * Like {@link #generate(Path, String, CompileStats)}, but uses the compile cache.
+     */
+    Output generateOutput(Path path, String source, CompileStats stats) throws MinicException {
+        Diagnostics diagnostics = new Diagnostics(maxErrors);
+        Output output = generateOutput(path, source, stats, diagnostics);
+        diagnostics.throwIfErrors();
+        return output;
+    }
+
+    /**
+     * Reports every problem to {@code diagnostics}, replaying them from the
+     * compile cache on a hit.
+     */
+    private Output generateOutput(Path path, String source, CompileStats stats, Diagnostics diagnostics) {
+        Preprocessor.Result res;
+        try {
+            res = preprocess(path, source, stats);
+        } catch (MinicException e) {
+            diagnostics.abort(e);
+            return new Output(null, null, List.of(sources.normalize(path)), Map.of());
+        }
+        List<Path> files = res.getFiles();
+        Map<Path, List<Path>> includes = res.getIncludes();
+        try {
+            if (compileCache == null) {
+                return new Output(generate(res, stats, diagnostics), null, files, includes);
+            }
+            HashCode key = stats.measure(Phase.CACHE, () -> compileCache.key(res, cacheOptions));
+            CompileCache.Entry hit = stats.measure(Phase.CACHE, () -> compileCache.get(key));
+            if (hit != null) {
+                diagnostics.addAll(hit.getDiagnostics(), hit.isLimitReached());
+                return new Output(null, hit.getOutput(), files, includes);
+            }
+            Casl2Builder code = generate(res, stats, diagnostics);
+            String text = (code != null) ? stats.measure(Phase.EMIT, code::build) : null;
+            CompileCache.Entry entry = new CompileCache.Entry(text, List.copyOf(diagnostics.getDiagnostics()), diagnostics.isLimitReached());
+            stats.measure(Phase.CACHE, () -> compileCache.put(key, entry));
+            return new Output(null, text, files, includes);
+        } catch (MinicException e) {
+            diagnostics.abort(e);
+            return new Output(null, null, files, includes);
+        }
+    }
+
+    /**
+     * Preprocesses {@code source} only, e.g. to report the includes of a
+     * program that is up to date.
+     * @see Preprocessor.Result#getIncludes
+     */
+    Map<Path, List<Path>> includes(Path source) throws MinicException {
+        return preprocess(source, null, new CompileStats(source.toString(), false)).getIncludes();
+    }
+
+    /**
+     * Expands includes, keeping track of the file each line came from.
+     */
+    private Preprocessor.Result preprocess(Path path, String source, CompileStats stats) throws MinicException {
+        Preprocessor pre = new Preprocessor(includePath, sources, defines);
+        return stats.measure(Phase.PREPROCESS, () -> pre.preprocess(path, source));
+    }
+
+    /**
+     * Reports every problem to {@code diagnostics}. Syntax errors stop the
+     * compilation after parsing, semantic errors after the analysis.
+     * @return the generated code, or null if there were errors
+     */
+    private Casl2Builder generate(Preprocessor.Result res, CompileStats stats, Diagnostics diagnostics) {
+        try {
+            ANTLRErrorListener errorListener = new SyntaxErrorListener(res, diagnostics);
+
+            // the streaming front end lexes, parses and builds the AST in one pass
+            Program ast = streamingFrontEnd
+                    ? stats.measure(Phase.PARSE, () -> StreamingFrontEnd.parse(res, lexer(res.getCharStream(), errorListener), errorListener))
+                    : buildTree(res, stats, errorListener, diagnostics);
+            if (diagnostics.hasErrors()) {
+                return null;
+            }
+
+            // functions whose code is cached are neither analyzed nor emitted again
+            Map<FunctionDecl, HashCode> keys = (functionCache != null) ? FunctionKey.of(ast, commentLevel) : Map.of();
+            Map<FunctionDecl, FunctionCode> cached = (functionCache != null) ? functionCache.getAll(keys) : Map.of();
+            boolean parallel = ast.getFunctions().size() - cached.size() >= PARALLEL_FUNCTIONS
+                    && ForkJoinPool.getCommonPoolParallelism() > 1;
+
+            SemanticInfo semanticInfo = stats.measure(Phase.SEMANTICS, () -> {
+                SemanticAnalyzer sema = new SemanticAnalyzer(diagnostics, parallel);
+                return sema.analyze(ast, f -> !cached.containsKey(f));
+            });
+            if (diagnostics.hasErrors()) {
+                return null;
+            }
+
+            return stats.measure(Phase.EMIT, () -> {
+                Casl2Emitter emitter = new Casl2Emitter(commentLevel, compact, parallel);
+                Casl2Builder code = emitter.generate(ast, semanticInfo, 1024, cached);
+                if (functionCache != null) {
+                    functionCache.putAll(keys, emitter.getEmittedFunctions());
+                }
+                return code;
+            });
+        } catch (MinicException e) {
+            diagnostics.abort(e);
+            return null;
+        }
+    }
+
+    /**
+     * Lexes the whole input, parses it into a parse tree and converts that to the AST.
+     */
+    private Program buildTree(Preprocessor.Result res, CompileStats stats, ANTLRErrorListener errorListener,
+            Diagnostics diagnostics) throws MinicException {
+        CommonTokenStream tokens = stats.measure(Phase.LEX, () -> {
+            CommonTokenStream ts = new CommonTokenStream(lexer(res.getCharStream(), errorListener));
+            ts.fill();
+            return ts;
+        });
+
+        ProgramContext tree = stats.measure(Phase.PARSE, () -> parse(tokens, stats, errorListener));
+        if (diagnostics.hasErrors()) {
+            return null; // the tree may have gaps the AST can't be built from
+        }
+
+        return stats.measure(Phase.AST, () -> {
+            AstBuilder builder = new AstBuilder(res);
+            return (Program) builder.visit(tree);
+        });
+    }
+
+    private TokenSource lexer(CharStream input, ANTLRErrorListener errorListener) {
+        if (scanner) {
+            MiniCScanner lexer = new MiniCScanner(input);
+            lexer.removeErrorListeners();
+            lexer.addErrorListener(errorListener);
+            return lexer;
+        }
+        MiniCLexer lexer = new MiniCLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(errorListener);
+        return lexer;
+    }
+
+    /**
+     * Parses in two stages: SLL prediction without error recovery is enough
+     * for almost every valid program, and only when it bails out is the input
+     * parsed again with full LL prediction and the default error recovery,
+     * which reports every syntax error to {@code errorListener}.
+     */
+    private ProgramContext parse(CommonTokenStream tokens, CompileStats stats, ANTLRErrorListener errorListener) {
+        MiniCParser parser = new MiniCParser(tokens);
+        if (stats.isProfileParser()) {
+            parser.removeErrorListeners();
+            parser.addErrorListener(errorListener);
+            parser.setProfile(true);
+            ProgramContext tree = parser.program();
+            stats.setParserProfile(ParserProfile.report(parser));
+            return tree;
+        }
+        parser.getInterpreter().setPredictionMode(PredictionMode.SLL);
+        parser.removeErrorListeners();
+        parser.setErrorHandler(new BailErrorStrategy());
+        try {
+            return parser.program(); // entry rule
+        } catch (ParseCancellationException e) {
+            tokens.seek(0);
+            parser.reset();
+            parser.addErrorListener(errorListener);
+            parser.setErrorHandler(new DefaultErrorStrategy());
+            parser.getInterpreter().setPredictionMode(PredictionMode.LL);
+            return parser.program();
+        }
     }
 
      public void run(String[] args) throws MinicException {
-        System.out.println(System.getProperty("user.dir"));
-        if (args.length < 1) {
-            logger.severe("Usage: minic <source.mc>");
+        CompilerOptions options = CompilerOptions.parse(args);
+        new CompilerMain(options).run(options);
+    }
+
+    private void run(CompilerOptions options) throws MinicException {
+        if (options.isServer()) {
+            runServer(options);
+            return;
+        }
+        logger.fine(() -> "Working directory: " + System.getProperty("user.dir"));
+        if (options.getSource() == null) {
+            logger.severe(CompilerOptions.USAGE);
+            System.exit(1);
+        }
+        if (options.isWatch() && options.isBatch()) {
+            throw new MinicException("--watch takes a single source file");
+        }
+        if (options.isBatch()) {
+            if (!runBatch(options)) {
+                System.exit(1);
+            }
+            return;
+        }
+        if (options.isWatch()) {
+            runWatch(options);
+            return;
+        }
+        if (!runOnce(options).isSuccess()) {
             System.exit(1);
         }
-        String asm = this.compile(args[0].trim());
-        if (args.length > 1) {
-            String filePath = args[1];
-            try (FileWriter writer = new FileWriter(filePath)) {
-                writer.write(asm);
+    }
+
+    /**
+     * Compiles the single source of the command line, printing the
+     * diagnostics and writing the program to the output file or stdout.
+     */
+    Output runOnce(CompilerOptions options) throws MinicException {
+        CompileStats stats = new CompileStats(options.getSource(), options.isStats());
+        stats.setProfileParser(options.isProfileParser());
+        Diagnostics diagnostics = new Diagnostics(maxErrors);
+        Output code = generateOutput(Paths.get(options.getSource()), null, stats, diagnostics);
+        for (Diagnostic d : diagnostics.getDiagnostics()) {
+            System.err.println(d);
+        }
+        if (!code.isSuccess()) {
+            System.err.println(diagnostics.getErrorCount() + " error(s)" + (diagnostics.isLimitReached() ? ", stopped at the limit" : ""));
+            return code;
+        }
+        String filePath = options.getOutput();
+        stats.measure(Phase.WRITE, () -> write(code, filePath));
+        if (stats.isEnabled() || stats.isProfileParser()) {
+            System.err.print(stats.report());
+        }
+        return code;
+    }
+
+    private void runWatch(CompilerOptions options) throws MinicException {
+        try {
+            new Watcher(this, options).run();
+        } catch (IOException e) {
+            throw new MinicException("Cannot watch %s: %s", options.getSource(), e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Streams the program to the file, or to stdout if {@code filePath} is null.
+     */
+    private void write(Output code, String filePath) throws MinicException {
+        try {
+            if (filePath != null) {
+                code.writeTo(Path.of(filePath));
+            } else {
+                Writer writer = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+                code.writeTo(writer);
+                writer.flush();
+            }
+        } catch (IOException e) {
+            throw new MinicException("Error writing file: %s (%s)", (filePath != null) ? filePath : "stdout", e.getMessage());
+        }
+    }
+
+    private void runServer(CompilerOptions options) throws MinicException {
+        CompileServer server = new CompileServer(this);
+        try {
+            if (options.getSocket() != null) {
+                server.serveSocket(options.getSocket());
+            } else {
+                server.serveStdio();
+            }
+        } catch (IOException e) {
+            throw new MinicException("Compile server stopped: %s", e.getMessage());
+        }
+    }
+
+    private boolean runBatch(CompilerOptions options) throws MinicException {
+        Map<Path, Path> targets = (options.getOutput() != null)
+                ? Map.of(Path.of(options.getSource()), Path.of(options.getOutput()))
+                : BatchCompiler.collectTargets(options.getInputs(), options.getOutputDir());
+        List<BatchCompiler.Result> results = new BatchCompiler(this, options).compile(targets);
+        if (options.getManifest() != null) {
+            try {
+                Files.writeString(options.getManifest(), Dependencies.manifest(results));
             } catch (IOException e) {
-                e.printStackTrace();
+                throw new MinicException("Error writing file: %s (%s)", options.getManifest(), e.getMessage());
+            }
+        }
+        int failed = 0;
+        int upToDate = 0;
+        for (BatchCompiler.Result r : results) {
+            if (r.isUpToDate()) {
+                upToDate++;
+            } else if (r.isSuccess()) {
+                if (options.isStats()) {
+                    System.err.print(r.getStats().report());
+                }
+            } else {
+                failed++;
+                logger.severe(String.format("%s: %s", r.getSource(), r.getError().getMessage()));
             }
-        } else {
-            logger.info(asm);
         }
+        logger.info(String.format("Compiled %d file(s), %d failed, %d up to date", results.size() - failed - upToDate, failed, upToDate));
+        return failed == 0;
     }
 
     public static void main(String[] args) throws MinicException {
+        Prewarm.start();
         new CompilerMain().run(args);
     }
 }
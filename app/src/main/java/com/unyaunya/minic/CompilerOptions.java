@@ -0,0 +1,195 @@
+package com.unyaunya.minic;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.unyaunya.minic.backend.CommentLevel;
+
+import lombok.Getter;
+
+/**
+ * Command line options of {@link CompilerMain}.
+ *
+ * Positional arguments are either a source file and an optional output file,
+ * or any number of source files and directories to compile as a batch.
+ */
+@Getter
+public class CompilerOptions {
+    public static final String USAGE = String.join(System.lineSeparator(),
+            "Usage: minic [options] <source.mc> [output]",
+            "       minic [options] [-d <dir>] [-j <n>] <source.mc|dir>...",
+            "       minic --server | --socket <path>",
+            "Options:",
+            "  --stats            print time and allocation of each phase",
+            "  --profile-parser   print ANTLR prediction statistics per grammar decision",
+            "  -I <dir>           add <dir> to the include search path",
+            "  -D <name>[=<v>]    define a macro, 1 if no value is given",
+            "  --compact          separate fields by tabs instead of aligning columns",
+            "  --comments <level> comments in the output: none, source or full (default)",
+            "  --frontend <mode>  tree (default) or stream: build the AST while parsing",
+            "  --lexer <lexer>    antlr (default) or scanner: the hand-written lexer",
+            "  --max-errors <n>   stop after n errors (default 20, 0 for no limit)",
+            "  --incremental      reuse the code of functions unchanged since an earlier compilation",
+            "  --cache-dir <dir>  cache compilation results in <dir>, shared by concurrent runs",
+            "  --cache-size <mb>  size the cache is kept under (default 256)",
+            "  --watch            compile again whenever the source or an included file changes",
+            "  --deps             write a make-style .d file next to each output",
+            "  --make             compile only sources whose output is older than a file in its .d file",
+            "  --manifest <file>  write the dependencies and include graph of every source as JSON",
+            "  -d, --output-dir   write one .cas per source into <dir>",
+            "  -j, --jobs         number of files compiled in parallel",
+            "  --server           serve compile requests on stdin/stdout",
+            "  --socket           serve compile requests on a Unix-domain socket");
+
+    private final List<String> positionals = new ArrayList<>();
+    private boolean stats;
+    private boolean profileParser;
+    private final List<Path> includePath = new ArrayList<>();
+    private final Map<String, String> defines = new LinkedHashMap<>();
+    private CommentLevel commentLevel = CommentLevel.FULL;
+    private boolean compact;
+    private boolean streamingFrontEnd;
+    private boolean scanner;
+    private int maxErrors = Diagnostics.DEFAULT_ERROR_LIMIT;
+    private boolean incremental;
+    private Path cacheDir;
+    private long cacheSize = CompileCache.DEFAULT_MAX_BYTES;
+    private boolean watch;
+    private boolean dependencies;
+    private boolean make;
+    private Path manifest;
+    private Path outputDir;
+    private int jobs = Runtime.getRuntime().availableProcessors();
+    private boolean server;
+    private Path socket;
+
+    public static CompilerOptions parse(String[] args) throws MinicException {
+        CompilerOptions options = new CompilerOptions();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            switch (arg) {
+                case "--stats" -> options.stats = true;
+                case "--profile-parser" -> options.profileParser = true;
+                case "-I" -> options.includePath.add(Path.of(value(args, ++i, arg)));
+                case "-D" -> options.define(value(args, ++i, arg));
+                case "--compact" -> options.compact = true;
+                case "--comments" -> options.commentLevel = commentLevel(value(args, ++i, arg));
+                case "--frontend" -> options.streamingFrontEnd = streamingFrontEnd(value(args, ++i, arg));
+                case "--lexer" -> options.scanner = scanner(value(args, ++i, arg));
+                case "--max-errors" -> options.maxErrors = intValue(args, ++i, arg);
+                case "--incremental" -> options.incremental = true;
+                case "--cache-dir" -> options.cacheDir = Path.of(value(args, ++i, arg));
+                case "--cache-size" -> options.cacheSize = (long) intValue(args, ++i, arg) << 20;
+                case "--watch" -> options.watch = true;
+                case "--deps" -> options.dependencies = true;
+                case "--make" -> options.make = true;
+                case "--manifest" -> options.manifest = Path.of(value(args, ++i, arg));
+                case "-d", "--output-dir" -> options.outputDir = Path.of(value(args, ++i, arg));
+                case "-j", "--jobs" -> options.jobs = intValue(args, ++i, arg);
+                case "--server" -> options.server = true;
+                case "--socket" -> {
+                    options.server = true;
+                    options.socket = Path.of(value(args, ++i, arg));
+                }
+                default -> {
+                    if (arg.startsWith("-I")) {
+                        options.includePath.add(Path.of(arg.substring(2)));
+                    } else if (arg.startsWith("-D")) {
+                        options.define(arg.substring(2));
+                    } else if (arg.startsWith("-") && arg.length() > 1) {
+                        throw new MinicException("Unknown option: %s%n%s", arg, USAGE);
+                    } else {
+                        options.positionals.add(arg);
+                    }
+                }
+            }
+        }
+        return options;
+    }
+
+    private void define(String definition) {
+        int eq = definition.indexOf('=');
+        if (eq < 0) {
+            defines.put(definition, "1");
+        } else {
+            defines.put(definition.substring(0, eq), definition.substring(eq + 1));
+        }
+    }
+
+    private static String value(String[] args, int i, String option) throws MinicException {
+        if (i >= args.length) {
+            throw new MinicException("Missing value for %s%n%s", option, USAGE);
+        }
+        return args[i];
+    }
+
+    private static CommentLevel commentLevel(String v) throws MinicException {
+        try {
+            return CommentLevel.valueOf(v.toUpperCase());
+        } catch (IllegalArgumentException e) {
+            throw new MinicException("Illegal value for --comments: %s", v);
+        }
+    }
+
+    private static boolean streamingFrontEnd(String v) throws MinicException {
+        return switch (v) {
+            case "tree" -> false;
+            case "stream" -> true;
+            default -> throw new MinicException("Illegal value for --frontend: %s", v);
+        };
+    }
+
+    private static boolean scanner(String v) throws MinicException {
+        return switch (v) {
+            case "antlr" -> false;
+            case "scanner" -> true;
+            default -> throw new MinicException("Illegal value for --lexer: %s", v);
+        };
+    }
+
+    private static int intValue(String[] args, int i, String option) throws MinicException {
+        String v = value(args, i, option);
+        try {
+            return Integer.parseInt(v);
+        } catch (NumberFormatException e) {
+            throw new MinicException("Illegal value for %s: %s", option, v);
+        }
+    }
+
+    /**
+     * True for the legacy form {@code minic <source> <output>}.
+     */
+    private boolean hasOutputPositional() {
+        if (positionals.size() != 2 || outputDir != null) {
+            return false;
+        }
+        Path second = Path.of(positionals.get(1));
+        return !BatchCompiler.isSource(second) && !Files.isDirectory(second);
+    }
+
+    public List<String> getInputs() {
+        return hasOutputPositional() ? positionals.subList(0, 1) : positionals;
+    }
+
+    /**
+     * True if several files are compiled, or one the way a build of many
+     * is, with dependency files or up-to-date checks.
+     */
+    public boolean isBatch() {
+        List<String> inputs = getInputs();
+        return outputDir != null || inputs.size() > 1 || dependencies || make || manifest != null
+                || inputs.stream().anyMatch(p -> Files.isDirectory(Path.of(p.trim())));
+    }
+
+    public String getSource() {
+        return positionals.isEmpty() ? null : positionals.get(0).trim();
+    }
+
+    public String getOutput() {
+        return hasOutputPositional() ? positionals.get(1) : null;
+    }
+}
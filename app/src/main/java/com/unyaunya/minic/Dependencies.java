@@ -0,0 +1,183 @@
+package com.unyaunya.minic;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Dependency files of compiled programs: a Make-style {@code .d} file next
+ * to each output, listing the files the program was compiled from like
+ * {@code gcc -MD -MP} does, and a JSON manifest of a whole build with the
+ * include graph of every program.
+ */
+public final class Dependencies {
+    public static final String EXTENSION = ".d";
+
+    private Dependencies() {
+    }
+
+    /**
+     * @return the .d file of {@code output}, e.g. fib.d for fib.cas
+     */
+    public static Path depFile(Path output) {
+        String name = output.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return output.resolveSibling(((dot > 0) ? name.substring(0, dot) : name) + EXTENSION);
+    }
+
+    /**
+     * Writes the .d file of {@code output}: a rule making it depend on
+     * {@code files}, and an empty rule for each file but the first, so make
+     * doesn't fail once an include is deleted.
+     */
+    public static void write(Path output, List<Path> files) throws IOException {
+        StringBuilder sb = new StringBuilder();
+        sb.append(escape(output.toString())).append(':');
+        for (Path f : files) {
+            sb.append(" \\\n ").append(escape(f.toString()));
+        }
+        sb.append('\n');
+        for (Path f : files.subList(Math.min(1, files.size()), files.size())) {
+            sb.append('\n').append(escape(f.toString())).append(":\n");
+        }
+        Files.writeString(depFile(output), sb);
+    }
+
+    /**
+     * @return the prerequisites of the first rule of the .d file of {@code output}
+     * @throws NoSuchFileException if there is none
+     */
+    public static List<Path> read(Path output) throws IOException {
+        String text = Files.readString(depFile(output));
+        List<Path> files = new ArrayList<>();
+        StringBuilder word = new StringBuilder();
+        boolean inRule = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            char next = (i + 1 < text.length()) ? text.charAt(i + 1) : 0;
+            if (c == '\\' && (next == ' ' || next == '#')) {
+                word.append(next);
+                i++;
+            } else if (c == '\\' && (next == '\n' || next == '\r')) {
+                i++; // line continuation
+            } else if (c == '$' && next == '$') {
+                word.append('$');
+                i++;
+            } else if (!inRule && c == ':' && (next == ' ' || next == '\n' || next == '\r' || next == 0)) {
+                inRule = true; // end of the target
+                word.setLength(0);
+            } else if (c == ' ' || c == '\t' || c == '\n' || c == '\r') {
+                if (inRule && word.length() > 0) {
+                    files.add(Path.of(word.toString()));
+                }
+                word.setLength(0);
+                if (inRule && c == '\n') {
+                    break; // end of the first rule
+                }
+            } else {
+                word.append(c);
+            }
+        }
+        if (inRule && word.length() > 0) {
+            files.add(Path.of(word.toString()));
+        }
+        return files;
+    }
+
+    /**
+     * Tells whether {@code output} is newer than every file recorded in its
+     * .d file, as make would decide. Missing files, including the .d file,
+     * make it out of date.
+     */
+    public static boolean isUpToDate(Path output) {
+        try {
+            FileTime built = Files.getLastModifiedTime(output);
+            List<Path> files = read(output);
+            if (files.isEmpty()) {
+                return false;
+            }
+            for (Path f : files) {
+                if (Files.getLastModifiedTime(f).compareTo(built) > 0) {
+                    return false;
+                }
+            }
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private static String escape(String path) {
+        StringBuilder sb = new StringBuilder(path.length());
+        for (int i = 0; i < path.length(); i++) {
+            char c = path.charAt(i);
+            switch (c) {
+                case ' ', '#' -> sb.append('\\').append(c);
+                case '$' -> sb.append("$$");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return the JSON manifest of a build: per target its source, output,
+     *         status, the files it was compiled from and the include graph
+     */
+    public static String manifest(List<BatchCompiler.Result> results) {
+        StringBuilder sb = new StringBuilder("{\n  \"targets\": [");
+        String sep = "\n";
+        for (BatchCompiler.Result r : results) {
+            sb.append(sep).append("    {\n");
+            sb.append("      \"source\": ").append(json(r.getSource())).append(",\n");
+            sb.append("      \"output\": ").append(json(r.getOutput())).append(",\n");
+            String status = !r.isSuccess() ? "failed" : r.isUpToDate() ? "up-to-date" : "compiled";
+            sb.append("      \"status\": ").append(json(status)).append(",\n");
+            sb.append("      \"dependencies\": ").append(jsonArray(r.getDependencies())).append(",\n");
+            sb.append("      \"includes\": {");
+            String entrySep = "\n";
+            for (Map.Entry<Path, List<Path>> e : r.getIncludes().entrySet()) {
+                sb.append(entrySep).append("        ").append(json(e.getKey())).append(": ").append(jsonArray(e.getValue()));
+                entrySep = ",\n";
+            }
+            sb.append(r.getIncludes().isEmpty() ? "}\n" : "\n      }\n");
+            sb.append("    }");
+            sep = ",\n";
+        }
+        sb.append(results.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+        return sb.toString();
+    }
+
+    private static String jsonArray(List<Path> paths) {
+        List<String> items = paths.stream().map(Dependencies::json).toList();
+        return "[" + String.join(", ", items) + "]";
+    }
+
+    private static String json(Object value) {
+        String s = value.toString();
+        StringBuilder sb = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+                case '"' -> sb.append("\\\"");
+                case '\\' -> sb.append("\\\\");
+                case '\n' -> sb.append("\\n");
+                case '\r' -> sb.append("\\r");
+                case '\t' -> sb.append("\\t");
+                default -> {
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+                }
+            }
+        }
+        return sb.append('"').toString();
+    }
+}
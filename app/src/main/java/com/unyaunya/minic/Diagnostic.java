@@ -0,0 +1,29 @@
+package com.unyaunya.minic;
+
+import lombok.Value;
+
+/**
+ * An error or warning reported by the compiler.
+ */
+@Value
+public class Diagnostic {
+    public enum Severity { ERROR, WARNING }
+
+    Severity severity;
+    Location location; // null if not tied to a source line
+    String message;
+
+    public boolean isError() {
+        return severity == Severity.ERROR;
+    }
+
+    /**
+     * Errors are formatted like {@link MinicException} messages,
+     * warnings carry a "warning: " prefix.
+     */
+    @Override
+    public String toString() {
+        String text = isError() ? message : "warning: " + message;
+        return (location != null) ? location + ": " + text : text;
+    }
+}
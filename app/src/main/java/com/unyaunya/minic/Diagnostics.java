@@ -0,0 +1,133 @@
+package com.unyaunya.minic;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.unyaunya.minic.Diagnostic.Severity;
+
+/**
+ * Collects the errors and warnings of one compilation, so that the parser
+ * and the semantic analyzer can report every problem in one pass.
+ *
+ * The error that reaches the limit is recorded and then thrown as a
+ * {@link MinicException}, which stops the compilation. A limit of 1 thus
+ * fails on the first error; 0 means no limit.
+ */
+public class Diagnostics {
+    public static final int DEFAULT_ERROR_LIMIT = 20;
+
+    private final int errorLimit;
+    private final List<Diagnostic> diagnostics = new ArrayList<>();
+    private int errorCount;
+    private MinicException stop; // thrown when the limit was reached
+
+    public Diagnostics() {
+        this(DEFAULT_ERROR_LIMIT);
+    }
+
+    /**
+     * @param errorLimit number of errors after which compilation stops, 0 for no limit
+     */
+    public Diagnostics(int errorLimit) {
+        this.errorLimit = errorLimit;
+    }
+
+    public void error(Location location, String message) throws MinicException {
+        diagnostics.add(new Diagnostic(Severity.ERROR, location, message));
+        errorCount++;
+        if (errorLimit > 0 && errorCount >= errorLimit) {
+            stop = new MinicException(message, location);
+            throw stop;
+        }
+    }
+
+    public void error(Location location, String fmt, Object... args) throws MinicException {
+        error(location, String.format(fmt, args));
+    }
+
+    public void warning(Location location, String message) {
+        diagnostics.add(new Diagnostic(Severity.WARNING, location, message));
+    }
+
+    /**
+     * Reports diagnostics collected elsewhere, e.g. on another thread, in
+     * order, applying the limit as if they had been reported here.
+     */
+    public void report(List<Diagnostic> collected) throws MinicException {
+        for (Diagnostic d : collected) {
+            if (d.isError()) {
+                error(d.getLocation(), d.getMessage());
+            } else {
+                diagnostics.add(d);
+            }
+        }
+    }
+
+    /**
+     * Records an exception that aborted the compilation, unless it is the
+     * one thrown by {@link #error} at the limit and thus already recorded.
+     */
+    public void abort(MinicException e) {
+        if (e != stop) {
+            diagnostics.add(new Diagnostic(Severity.ERROR, e.getLocation(), stripLocation(e)));
+            errorCount++;
+        }
+    }
+
+    /**
+     * Records the diagnostics of an earlier compilation of the same input,
+     * e.g. one taken from the {@link CompileCache}, without applying the limit again.
+     * @param limitReached whether that compilation stopped at the error limit
+     */
+    public void addAll(List<Diagnostic> earlier, boolean limitReached) {
+        for (Diagnostic d : earlier) {
+            diagnostics.add(d);
+            if (d.isError()) {
+                errorCount++;
+            }
+        }
+        if (limitReached && stop == null) {
+            stop = new MinicException("Error limit reached");
+        }
+    }
+
+    private static String stripLocation(MinicException e) {
+        String prefix = (e.getLocation() != null) ? e.getLocation() + ": " : "";
+        String message = e.getMessage();
+        return message.startsWith(prefix) ? message.substring(prefix.length()) : message;
+    }
+
+    public boolean hasErrors() {
+        return errorCount > 0;
+    }
+
+    public int getErrorCount() {
+        return errorCount;
+    }
+
+    public boolean isLimitReached() {
+        return stop != null;
+    }
+
+    /**
+     * @return errors and warnings in the order they were reported
+     */
+    public List<Diagnostic> getDiagnostics() {
+        return Collections.unmodifiableList(diagnostics);
+    }
+
+    /**
+     * Throws the errors as one {@link MinicException}, for callers that only
+     * want the output. A single error keeps its location.
+     */
+    public void throwIfErrors() throws MinicException {
+        List<Diagnostic> errors = diagnostics.stream().filter(Diagnostic::isError).toList();
+        if (errors.size() == 1) {
+            throw new MinicException(errors.get(0).getMessage(), errors.get(0).getLocation());
+        } else if (!errors.isEmpty()) {
+            throw new MinicException(errors.stream().map(Diagnostic::toString).collect(Collectors.joining("\n")));
+        }
+    }
+}
@@ -1,13 +1,32 @@
 package com.unyaunya.minic;
 
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import lombok.Value;
 
 /**
  * Represents the location of a source code element.
  * Used for error reporting.
+ *
+ * AST nodes store locations packed into a long, see {@link FileTable#pack}.
+ * File names are kept in a {@link FileTable} per compilation rather than
+ * for the whole process, so a long-running process doesn't accumulate the
+ * names of every file it ever compiled.
  */
 @Value
 public class Location {
+    /** Packed value of a node without location. */
+    public static final long UNKNOWN = 0L;
+
+    private static final int LINE_BITS = 24;
+    private static final int INDEX_BITS = 16;
+    private static final int TABLE_BITS = 64 - INDEX_BITS - LINE_BITS;
+
     String filename;
     int lineNumber;
 
@@ -16,6 +35,31 @@ public class Location {
         this.lineNumber = lineNumber;
     }
 
+    /**
+     * @return the packed location of a line whose file is unknown
+     */
+    public static long pack(int lineNumber) {
+        return lineNumber & 0xFFFFFFFFL;
+    }
+
+    /**
+     * @return the location, or null for {@link #UNKNOWN}
+     */
+    public static Location unpack(long packed) {
+        if (packed == UNKNOWN) {
+            return null;
+        }
+        int table = (int) (packed >>> (INDEX_BITS + LINE_BITS));
+        if (table == 0) {
+            return new Location(null, (int) packed);
+        }
+        int index = (int) (packed >>> LINE_BITS) & ((1 << INDEX_BITS) - 1);
+        int line = (int) packed & ((1 << LINE_BITS) - 1);
+        TableRef ref = FileTable.TABLES.get(table);
+        FileTable files = (ref != null) ? ref.get() : null;
+        return new Location((files != null) ? files.names[index] : null, line);
+    }
+
     @Override
     public String toString() {
         if (filename != null && !filename.isEmpty()) {
@@ -24,4 +68,62 @@ public class Location {
             return String.format("line %d", lineNumber);
         }
     }
+
+    private static final class TableRef extends WeakReference<FileTable> {
+        final int id;
+
+        TableRef(FileTable table, int id) {
+            super(table, FileTable.RELEASED);
+            this.id = id;
+        }
+    }
+
+    /**
+     * The names of the files of one compilation.
+     *
+     * Packed locations refer to the table by an id, which is looked up
+     * without locking. Tables are registered weakly: the id is valid as long
+     * as the table is reachable, which the {@code Preprocessor.Result} and the
+     * {@code Program} built from it see to, and is reused after that.
+     */
+    public static final class FileTable {
+        private static final Map<Integer, TableRef> TABLES = new ConcurrentHashMap<>();
+        private static final ReferenceQueue<FileTable> RELEASED = new ReferenceQueue<>();
+        private static final AtomicInteger NEXT_ID = new AtomicInteger();
+
+        private final int id;
+        private final String[] names;
+
+        /**
+         * @param names the file names, indexed by the file index passed to {@link #pack}
+         */
+        public FileTable(List<String> names) {
+            if (names.size() > 1 << INDEX_BITS) {
+                throw new MinicException("Too many files in one compilation: " + names.size());
+            }
+            this.names = names.toArray(new String[0]);
+            for (TableRef ref; (ref = (TableRef) RELEASED.poll()) != null; ) {
+                TABLES.remove(ref.id, ref);
+            }
+            int id;
+            do {
+                id = NEXT_ID.getAndIncrement() & ((1 << TABLE_BITS) - 1);
+            } while (id == 0 || TABLES.putIfAbsent(id, new TableRef(this, id)) != null);
+            this.id = id;
+        }
+
+        /**
+         * Packs a line of a file of this table into a long: the table id, the
+         * file index and the line number, from the most significant bits down.
+         *
+         * @param index the index of the file in this table
+         * @param lineNumber a line number below 2^24
+         */
+        public long pack(int index, int lineNumber) {
+            if (lineNumber >>> LINE_BITS != 0) {
+                throw new MinicException("Line number too large: %d in %s", lineNumber, names[index]);
+            }
+            return ((long) id << (INDEX_BITS + LINE_BITS)) | ((long) index << LINE_BITS) | lineNumber;
+        }
+    }
 }
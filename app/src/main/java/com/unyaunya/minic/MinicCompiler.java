@@ -0,0 +1,58 @@
+package com.unyaunya.minic;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import com.unyaunya.minic.preprocess.SourceProvider;
+import com.unyaunya.minic.stats.CompileStats;
+
+/**
+ * Entry point for embedding the compiler: compiles sources held in memory,
+ * or supplied by any other {@link SourceProvider}, without touching disk,
+ * and returns the program and the diagnostics as objects.
+ *
+ * <pre>
+ * CompileResult r = new MinicCompiler().compile(Map.of(
+ *         "main.c", "#include \"lib.h\"\nint main() { return twice(2); }\n",
+ *         "lib.h", "int twice(int a) { return a + a; }\n"), "main.c");
+ * </pre>
+ *
+ * An instance only holds the options and may be used by several threads.
+ */
+public class MinicCompiler {
+    private final CompilerOptions options;
+
+    public MinicCompiler() {
+        this(new CompilerOptions());
+    }
+
+    /**
+     * @param options supplies the include path, error limit and output format
+     */
+    public MinicCompiler(CompilerOptions options) {
+        this.options = options;
+    }
+
+    /**
+     * @param name name of the source to compile within {@code sources}
+     */
+    public CompileResult compile(SourceProvider sources, String name) {
+        CompilerMain compiler = new CompilerMain(options, sources);
+        return compiler.compileWithDiagnostics(Path.of(name), null, new CompileStats(name, false));
+    }
+
+    /**
+     * @param sources text of each source by relative name, e.g. {@code "lib/io.h"}
+     * @param name name of the source to compile
+     */
+    public CompileResult compile(Map<String, String> sources, String name) {
+        return compile(SourceProvider.of(sources), name);
+    }
+
+    /**
+     * Compiles a single source that has no includes.
+     */
+    public CompileResult compile(String name, String source) {
+        return compile(Map.of(name, source), name);
+    }
+}
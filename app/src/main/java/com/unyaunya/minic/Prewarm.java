@@ -0,0 +1,53 @@
+package com.unyaunya.minic;
+
+import java.nio.file.Path;
+
+import com.unyaunya.minic.stats.CompileStats;
+
+/**
+ * Loads and initializes the classes a compilation needs ahead of time.
+ *
+ * Compiling a small program deserializes the parser ATN and loads the AST,
+ * semantics and emitter classes. Run on a thread of its own at startup it
+ * overlaps with what the main thread does before it gets to parsing: option
+ * parsing, logging setup, reading and preprocessing the source. A class both
+ * threads need is initialized once, by whichever gets to it first, so the
+ * main thread never waits longer than it would have taken itself. With one
+ * CPU the threads would only take turns, so it isn't started then.
+ */
+public final class Prewarm {
+    private static final String SOURCE = String.join("\n",
+            "int g[4];",
+            "int f(int a, int* p) { if (a < 1 && !(a == 0)) { return -a; } else { return *p + g[a]; } }",
+            "void main() { int i; for (i = 0; i < 2; i = i + 1) { g[i] = f(i, &i); } while (i > 0) { i = i - 1; } }",
+            "");
+
+    private Prewarm() {
+    }
+
+    /**
+     * Compiles a small program with {@code compiler} and discards the result.
+     */
+    public static void compile(CompilerMain compiler) {
+        compiler.compile(Path.of("warmup.c"), SOURCE, new CompileStats("warmup.c", false));
+    }
+
+    /**
+     * Starts compiling a small program on a daemon thread, unless there is a
+     * single CPU.
+     */
+    static void start() {
+        if (Runtime.getRuntime().availableProcessors() < 2) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            try {
+                compile(new CompilerMain());
+            } catch (RuntimeException e) {
+                // only a warm-up; the real compilation reports its own errors
+            }
+        }, "minic-prewarm");
+        thread.setDaemon(true);
+        thread.start();
+    }
+}
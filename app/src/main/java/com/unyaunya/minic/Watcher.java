@@ -0,0 +1,168 @@
+package com.unyaunya.minic;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * Implements {@code --watch}: compiles the source, then waits until it or a
+ * file it included changes and compiles it again, in the same JVM, so each
+ * edit gets a compiler whose code is already JIT-compiled, whose parser DFA
+ * is already built and whose include files are cached.
+ *
+ * The directories of the files read by the last compilation are watched.
+ * Events are collected until none arrives for the debounce interval, as one
+ * save can produce several, and only a change of one of those files starts
+ * a compilation. After a failed compilation a change of any .c, .mc or .h
+ * file in the watched directories does, since a missing include file isn't
+ * known by name; other files, such as logs or editor backups, and the output
+ * don't, as they may change because of the compilation itself.
+ */
+public class Watcher {
+    public static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final CompilerMain compiler;
+    private final CompilerOptions options;
+    private final long debounceMillis;
+    private final Path output; // null for stdout
+    private final Map<Path, WatchKey> keys = new HashMap<>(); // by directory
+    private Set<Path> files = new LinkedHashSet<>();
+    private boolean failed;
+    private volatile int compilations;
+    private volatile WatchService service;
+
+    public Watcher(CompilerMain compiler, CompilerOptions options) {
+        this(compiler, options, DEFAULT_DEBOUNCE_MILLIS);
+    }
+
+    public Watcher(CompilerMain compiler, CompilerOptions options, long debounceMillis) {
+        this.compiler = compiler;
+        this.options = options;
+        this.debounceMillis = debounceMillis;
+        this.output = (options.getOutput() != null) ? Path.of(options.getOutput()).toAbsolutePath().normalize() : null;
+    }
+
+    /**
+     * Compiles and recompiles until {@link #stop} is called or the thread is interrupted.
+     */
+    public void run() throws IOException, InterruptedException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            service = watchService;
+            while (true) {
+                compile();
+                register();
+                System.err.printf("Watching %d file(s) for changes%n", files.size());
+                awaitChange();
+            }
+        } catch (ClosedWatchServiceException e) {
+            // stopped
+        }
+    }
+
+    public void stop() throws IOException {
+        WatchService s = service;
+        if (s != null) {
+            s.close();
+        }
+    }
+
+    /**
+     * @return the number of compilations started so far
+     */
+    int getCompilations() {
+        return compilations;
+    }
+
+    private void compile() {
+        compilations++;
+        try {
+            CompilerMain.Output output = compiler.runOnce(options);
+            failed = !output.isSuccess();
+            if (failed) {
+                files.addAll(output.getFiles()); // keep watching what the source included before
+            } else {
+                files = new LinkedHashSet<>(output.getFiles());
+            }
+        } catch (MinicException e) {
+            failed = true;
+            System.err.println(e.getMessage());
+        }
+    }
+
+    private void register() throws IOException {
+        Set<Path> dirs = new LinkedHashSet<>();
+        for (Path f : files) {
+            dirs.add(f.toAbsolutePath().getParent());
+        }
+        for (Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator(); it.hasNext();) {
+            Map.Entry<Path, WatchKey> entry = it.next();
+            if (!dirs.contains(entry.getKey()) || !entry.getValue().isValid()) {
+                entry.getValue().cancel();
+                it.remove();
+            }
+        }
+        for (Path dir : dirs) {
+            if (!keys.containsKey(dir)) {
+                try {
+                    keys.put(dir, dir.register(service, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE));
+                } catch (IOException e) {
+                    logger.warning(() -> "Cannot watch " + dir + ": " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    private void awaitChange() throws InterruptedException {
+        while (true) {
+            boolean changed = drain(service.take());
+            WatchKey key;
+            while ((key = service.poll(debounceMillis, TimeUnit.MILLISECONDS)) != null) {
+                changed |= drain(key);
+            }
+            if (changed) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return whether the events of {@code key} call for a compilation
+     */
+    private boolean drain(WatchKey key) {
+        Path dir = (Path) key.watchable();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == OVERFLOW) {
+                changed = true;
+            } else {
+                Path file = dir.resolve((Path) event.context());
+                changed |= files.contains(file) || (failed && mayBeSource(file));
+            }
+        }
+        key.reset();
+        return changed;
+    }
+
+    private boolean mayBeSource(Path file) {
+        String name = file.getFileName().toString();
+        return (BatchCompiler.isSource(file) || name.endsWith(".h"))
+                && !file.toAbsolutePath().normalize().equals(output);
+    }
+}
@@ -1,15 +1,23 @@
 package com.unyaunya.minic.ast;
+import com.unyaunya.minic.semantics.Symbol;
+
 import lombok.Getter;
+import lombok.Setter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class AddressOf extends ExprNode {
     String name;
+    @Setter
+    Symbol symbol; // bound by SemanticAnalyzer
 
-    public AddressOf(Location location, String name) {
+    public AddressOf(long location, String name) {
         super(location);
         this.name = name;
     }
-}
\ No newline at end of file
+
+    public String toString() {
+        return "&" + name;
+    }
+}
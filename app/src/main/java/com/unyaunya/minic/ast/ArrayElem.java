@@ -1,15 +1,19 @@
 package com.unyaunya.minic.ast;
+import com.unyaunya.minic.semantics.Symbol;
+
 import lombok.Getter;
+import lombok.Setter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class ArrayElem extends ExprNode {
     String name;
+    @Setter
+    Symbol symbol; // bound by SemanticAnalyzer
     Expr expr;
 
-    public ArrayElem(Location location, String name, Expr expr) {
+    public ArrayElem(long location, String name, Expr expr) {
         super(location);
         this.name = name;
         this.expr = expr;
@@ -1,7 +1,6 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
@@ -9,7 +8,7 @@ public class Assign extends StmtNode {
     LValue lvalue;
     Expr expr;
 
-    public Assign(Location location, LValue lvalue, Expr expr) {
+    public Assign(long location, LValue lvalue, Expr expr) {
         super(location);
         this.lvalue = lvalue;
         this.expr = expr;
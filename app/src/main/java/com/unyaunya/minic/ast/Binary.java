@@ -1,6 +1,8 @@
 package com.unyaunya.minic.ast;
 
-import com.unyaunya.minic.Location;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
 import lombok.Getter;
 
 
@@ -33,7 +35,7 @@ public class Binary extends ExprNode {
     Expr left;
     Expr right;
 
-    public Binary(Location location, Op op, Expr left, Expr right) {
+    public Binary(long location, Op op, Expr left, Expr right) {
         super(location);
         this.op = op;
         this.left = left;
@@ -41,6 +43,17 @@ public class Binary extends ExprNode {
     }
 
     public String toString() {
-        return String.format("%s%s%s", left.toString(), op.toString(), right.toString());
+        // left operands are collected in a loop; a+b+c+... nests to the left
+        Deque<Binary> chain = new ArrayDeque<>();
+        Expr e = this;
+        while (e instanceof Binary b) {
+            chain.push(b);
+            e = b.left;
+        }
+        StringBuilder sb = new StringBuilder(e.toString());
+        for (Binary b : chain) {
+            sb.append(b.op).append(b.right);
+        }
+        return sb.toString();
     }
 }
\ No newline at end of file
@@ -1,7 +1,7 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
+import lombok.Setter;
 
-import com.unyaunya.minic.Location;
 import java.util.List;
 
 
@@ -10,8 +10,10 @@ import java.util.List;
 public class Call extends ExprNode implements Stmt {
     String name;
     List<Expr> args;
+    @Setter
+    FunctionDecl function; // bound by SemanticAnalyzer
 
-    public Call(Location location, String name, List<Expr> args) {
+    public Call(long location, String name, List<Expr> args) {
         super(location);
         this.name = name;
         this.args = args;
@@ -1,7 +1,6 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
@@ -9,9 +8,13 @@ public class Cast extends ExprNode {
     TypeSpec type;
     Expr expr;
 
-    public Cast(Location location, TypeSpec type, Expr expr) {
+    public Cast(long location, TypeSpec type, Expr expr) {
         super(location);
         this.type = type;
         this.expr = expr;
     }
+
+    public String toString() {
+        return String.format("(%s)%s", type, expr);
+    }
 }
@@ -4,16 +4,22 @@ import com.unyaunya.minic.Location;
 
 /**
  * Base class for expression nodes that provides location tracking.
+ * The location is kept packed (see {@link Location.FileTable#pack}) and only decoded
+ * when asked for, which is normally just for error messages.
  */
 public abstract class ExprNode implements Expr {
-    protected final Location location;
+    protected final long location;
 
-    protected ExprNode(Location location) {
+    protected ExprNode(long location) {
         this.location = location;
     }
 
     @Override
     public Location getLocation() {
+        return Location.unpack(location);
+    }
+
+    public long getPackedLocation() {
         return location;
     }
 }
@@ -1,7 +1,6 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
@@ -11,7 +10,7 @@ public class ForStmt extends StmtNode {
     Stmt update; // may be null
     Block body;
 
-    public ForStmt(Location location, Stmt init, Expr cond, Stmt update, Block body) {
+    public ForStmt(long location, Stmt init, Expr cond, Stmt update, Block body) {
         super(location);
         this.init = init;
         this.cond = cond;
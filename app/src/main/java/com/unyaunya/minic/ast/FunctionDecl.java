@@ -2,14 +2,35 @@ package com.unyaunya.minic.ast;
 
 import java.util.List;
 
+import com.unyaunya.minic.Location;
+
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 
 @Value
 public class FunctionDecl implements Node {
+    @Getter(AccessLevel.NONE)
+    long location; // packed, see Location.FileTable#pack
     TypeSpec returnType;
     String name;
     List<Param> params;
     Block body;
+    String label; // the CASL2 label of the entry point
+
+    public FunctionDecl(long location, TypeSpec returnType, String name, List<Param> params, Block body) {
+        this.location = location;
+        this.returnType = returnType;
+        this.name = name;
+        this.params = params;
+        this.body = body;
+        this.label = name.toUpperCase();
+    }
+
+    @Override
+    public Location getLocation() {
+        return Location.unpack(location);
+    }
 
     public String toString() {
         return String.format("%s(%s)", name, String.join(", ", params.stream().map(Object::toString).toList()));
@@ -1,9 +1,20 @@
 package com.unyaunya.minic.ast;
 
+import com.unyaunya.minic.Location;
+
+import lombok.AccessLevel;
+import lombok.Getter;
 import lombok.Value;
 
 @Value
 public class GlobalDecl implements Node {
+    @Getter(AccessLevel.NONE)
+    long location; // packed, see Location.FileTable#pack
     TypeSpec type;
     String name;
-}
\ No newline at end of file
+
+    @Override
+    public Location getLocation() {
+        return Location.unpack(location);
+    }
+}
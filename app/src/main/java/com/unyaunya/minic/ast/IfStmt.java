@@ -1,7 +1,6 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
@@ -10,10 +9,21 @@ public class IfStmt extends StmtNode {
     Block thenBlock;
     Block elseBlock;
 
-    public IfStmt(Location location, Expr cond, Block thenBlock, Block elseBlock) {
+    public IfStmt(long location, Expr cond, Block thenBlock, Block elseBlock) {
         super(location);
         this.cond = cond;
         this.thenBlock = thenBlock;
         this.elseBlock = elseBlock;
     }
+
+    /**
+     * @return the if statement that is all of the else block, as in {@code else if}, or null
+     */
+    public IfStmt getElseIf() {
+        if (elseBlock != null && elseBlock.getStatements().size() == 1
+                && elseBlock.getStatements().get(0) instanceof IfStmt next) {
+            return next;
+        }
+        return null;
+    }
 }
@@ -1,14 +1,13 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class IntLit extends ExprNode {
     int value;
 
-    public IntLit(Location location, int value) {
+    public IntLit(long location, int value) {
         super(location);
         this.value = value;
     }
@@ -1,6 +1,5 @@
 package com.unyaunya.minic.ast;
 
-import com.unyaunya.minic.Location;
 import lombok.Getter;
 
 
@@ -8,7 +7,7 @@ import lombok.Getter;
 public class LogicalNot extends ExprNode {
     Expr expr;
 
-    public LogicalNot(Location location, Expr expr) {
+    public LogicalNot(long location, Expr expr) {
         super(location);
         this.expr = expr;
     }
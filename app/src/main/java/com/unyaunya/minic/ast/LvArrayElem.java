@@ -1,15 +1,19 @@
 package com.unyaunya.minic.ast;
+import com.unyaunya.minic.semantics.Symbol;
+
 import lombok.Getter;
+import lombok.Setter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class LvArrayElem extends ExprNode implements LValue {
     String name;
+    @Setter
+    Symbol symbol; // bound by SemanticAnalyzer
     Expr expr;
 
-    public LvArrayElem(Location location, String name, Expr expr) {
+    public LvArrayElem(long location, String name, Expr expr) {
         super(location);
         this.name = name;
         this.expr = expr;
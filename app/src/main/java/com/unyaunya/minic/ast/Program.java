@@ -2,10 +2,18 @@ package com.unyaunya.minic.ast;
 
 import java.util.*;
 
+import com.unyaunya.minic.Location;
+
+import lombok.EqualsAndHashCode;
+import lombok.ToString;
 import lombok.Value;
 
 @Value
 public class Program implements Node {
     List<GlobalDecl> globals = new ArrayList<>();    
     List<FunctionDecl> functions = new ArrayList<>();
+    // keeps the file names of the nodes' locations registered, see Location.FileTable
+    @ToString.Exclude
+    @EqualsAndHashCode.Exclude
+    Location.FileTable files;
 }
\ No newline at end of file
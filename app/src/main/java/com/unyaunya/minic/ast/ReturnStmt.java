@@ -1,14 +1,13 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class ReturnStmt extends StmtNode {
     Expr value; // may be null for void returns
 
-    public ReturnStmt(Location location, Expr value) {
+    public ReturnStmt(long location, Expr value) {
         super(location);
         this.value = value;
     }
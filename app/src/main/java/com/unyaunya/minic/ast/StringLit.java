@@ -1,14 +1,13 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class StringLit extends ExprNode {
     String value;
 
-    public StringLit(Location location, String value) {
+    public StringLit(long location, String value) {
         super(location);
         this.value = value;
     }
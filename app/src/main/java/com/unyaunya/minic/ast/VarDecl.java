@@ -1,15 +1,19 @@
 package com.unyaunya.minic.ast;
 
-import com.unyaunya.minic.Location;
+import com.unyaunya.minic.semantics.Symbol;
+
 import lombok.Getter;
+import lombok.Setter;
 
 @Getter
 public class VarDecl extends StmtNode {
     TypeSpec type;
     String name;
     Expr init; // init may be null
+    @Setter
+    Symbol symbol; // bound by SemanticAnalyzer
 
-    public VarDecl(Location location, TypeSpec type, String name, Expr init) {
+    public VarDecl(long location, TypeSpec type, String name, Expr init) {
         super(location);
         this.type = type;
         this.name = name;
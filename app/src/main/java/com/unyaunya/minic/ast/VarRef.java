@@ -1,14 +1,18 @@
 package com.unyaunya.minic.ast;
+import com.unyaunya.minic.semantics.Symbol;
+
 import lombok.Getter;
+import lombok.Setter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
 public class VarRef extends ExprNode {
     String name;
+    @Setter
+    Symbol symbol; // bound by SemanticAnalyzer
 
-    public VarRef(Location location, String name) {
+    public VarRef(long location, String name) {
         super(location);
         this.name = name;
     }
@@ -1,7 +1,6 @@
 package com.unyaunya.minic.ast;
 import lombok.Getter;
 
-import com.unyaunya.minic.Location;
 
 
 @Getter
@@ -9,7 +8,7 @@ public class WhileStmt extends StmtNode {
     Expr cond;
     Block body;
 
-    public WhileStmt(Location location, Expr cond, Block body) {
+    public WhileStmt(long location, Expr cond, Block body) {
         super(location);
         this.cond = cond;
         this.body = body;
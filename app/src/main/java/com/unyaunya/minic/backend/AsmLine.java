@@ -1,6 +1,8 @@
 
 package com.unyaunya.minic.backend;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.Collections;
 import java.util.List;
 
@@ -8,6 +10,8 @@ import lombok.Getter;
 
 @Getter
 class AsmLine {
+    private static final String NEWLINE = System.lineSeparator();
+
     private String label;    // up to 8 chars
     private String opcode;   // CASL2 mnemonic
     private List<String> operands; // 0, 1, or 2 operands
@@ -51,22 +55,59 @@ class AsmLine {
 
     @Override
     public String toString() {
-        String ops = String.join(",", operands);
+        StringBuilder sb = new StringBuilder(48);
+        try {
+            write(sb, false, label, opcode, String.join(",", operands), comment);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder doesn't throw
+        }
+        return sb.toString();
+    }
 
+    /**
+     * Formats one line; shared with {@link Casl2Builder}, which keeps no AsmLine objects.
+     * @param compact true to separate fields by a tab instead of padding them to columns
+     * @param label label or null
+     * @param opcode mnemonic, empty for a comment line
+     * @param operands operands joined by commas
+     * @param comment comment or null
+     */
+    static void write(Appendable out, boolean compact, String label, String opcode, CharSequence operands,
+            String comment) throws IOException {
         // Pure comment line: no opcode and no operands
-        if ((opcode.isEmpty()) && ops.isEmpty()) {
+        if (opcode.isEmpty() && operands.length() == 0) {
             if (comment != null) {
-                return String.format("; %s%n", comment);
-            } else {
-                return String.format("%n");
+                out.append("; ").append(comment);
+            }
+            out.append(NEWLINE);
+            return;
+        }
+        boolean hasComment = comment != null && !comment.isEmpty();
+        String lbl = (label != null) ? label : "";
+        if (compact) {
+            out.append(lbl).append('\t').append(opcode);
+            if (operands.length() > 0) {
+                out.append('\t').append(operands);
+            }
+            if (hasComment) {
+                out.append("\t; ").append(comment);
             }
         } else {
             // CASL2 columns: label(8), space, opcode(6), space, operands(24), comment
-            return String.format("%-8s %-6s %-24s%s%n",
-                    label != null ? label : "",
-                    opcode,
-                    ops,
-                    (comment != null && !comment.isEmpty()) ? "; " + comment : "");
+            pad(out.append(lbl), lbl.length(), 8).append(' ');
+            pad(out.append(opcode), opcode.length(), 6).append(' ');
+            pad(out.append(operands), operands.length(), 24);
+            if (hasComment) {
+                out.append("; ").append(comment);
+            }
+        }
+        out.append(NEWLINE);
+    }
+
+    private static Appendable pad(Appendable out, int length, int width) throws IOException {
+        for (int i = length; i < width; i++) {
+            out.append(' ');
         }
+        return out;
     }
 }
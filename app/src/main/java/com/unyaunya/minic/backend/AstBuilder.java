@@ -3,11 +3,9 @@ package com.unyaunya.minic.backend;
 
 import java.util.List;
 
-import com.unyaunya.minic.Location;
 import com.unyaunya.minic.ast.*;
 import com.unyaunya.minic.parser.*;
 import com.unyaunya.minic.parser.MiniCParser.ArraySizeContext;
-import com.unyaunya.minic.parser.MiniCParser.StatementContext;
 import com.unyaunya.minic.preprocess.Preprocessor;
 import org.antlr.v4.runtime.ParserRuleContext;
 import org.antlr.v4.runtime.tree.TerminalNode;
@@ -24,12 +22,12 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
     // ----------------------
     // Helper to extract location from ANTLR context
     // ----------------------
-    private Location getLocation(ParserRuleContext ctx) {
-        return this.preprocessed.getLocation(ctx.getStart().getLine());
+    private long getLocation(ParserRuleContext ctx) {
+        return this.preprocessed.getPackedLocation(ctx.getStart().getLine());
     }
 
-    private Location getLocation(TerminalNode node) {
-        return this.preprocessed.getLocation(node.getSymbol().getLine());
+    private long getLocation(TerminalNode node) {
+        return this.preprocessed.getPackedLocation(node.getSymbol().getLine());
     }
 
     // ----------------------
@@ -37,7 +35,7 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
     // ----------------------
     @Override
     public Node visitProgram(MiniCParser.ProgramContext ctx) {
-        Program p = new Program();
+        Program p = new Program(preprocessed.getFileTable());
         for (MiniCParser.FunctionDeclContext f : ctx.functionDecl()) {
             p.getFunctions().add((FunctionDecl) visit(f));
         }
@@ -81,7 +79,7 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
         ArraySizeContext asc = ctx.arraySize();
         Integer arraySize = (asc == null) ? null : toInt(asc.INTEGER());
         TypeSpec type = toTypeSpec(ctx.typeSpec(), arraySize);
-        return new GlobalDecl(type, name);
+        return new GlobalDecl(getLocation(ctx), type, name);
     }
 
     // ----------------------
@@ -100,7 +98,7 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
         }
 
         Block body = (Block) visit(ctx.block());
-        return new FunctionDecl(retType, name, params, body);
+        return new FunctionDecl(getLocation(ctx), retType, name, params, body);
     }
 
     private Param visitParamToAst(MiniCParser.ParamContext pc) {
@@ -123,9 +121,14 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
 
     @Override
     public Node visitStatement(MiniCParser.StatementContext ctx) {
+        if (ctx.ifStmt() != null)     return visit(ctx.ifStmt());
+        return visit(ctx.simpleStatement());
+    }
+
+    @Override
+    public Node visitSimpleStatement(MiniCParser.SimpleStatementContext ctx) {
         if (ctx.varDecl() != null)    return visit(ctx.varDecl());
         if (ctx.assignment() != null) return visit(ctx.assignment());
-        if (ctx.ifStmt() != null)     return visit(ctx.ifStmt());
         if (ctx.whileStmt() != null)  return visit(ctx.whileStmt());
         if (ctx.forStmt() != null)    return visit(ctx.forStmt());
         if (ctx.block() != null)      return visit(ctx.block());
@@ -136,11 +139,20 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
     }
 
     private Block toBlock(MiniCParser.StatementContext ctx) {
+        if (ctx.simpleStatement() != null) {
+            return toBlock(ctx.simpleStatement());
+        }
+        Block block = new Block();
+        block.getStatements().add((Stmt) visit(ctx.ifStmt()));
+        return block;
+    }
+
+    private Block toBlock(MiniCParser.SimpleStatementContext ctx) {
         if (ctx.block() != null) {
             return visitBlock(ctx.block());
         } else {
             Block block = new Block();
-            block.getStatements().add((Stmt) visitStatement(ctx));
+            block.getStatements().add((Stmt) visitSimpleStatement(ctx));
             return block;
         }
     }
@@ -169,14 +181,30 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
 
     @Override
     public Node visitIfStmt(MiniCParser.IfStmtContext ctx) {
-        Expr cond = (Expr) visit(ctx.expr());
-        List<StatementContext> statements = ctx.statement();
-        Block thenBlock = toBlock(statements.get(0));
-        Block elseBlock = null;
-        if (statements.size() > 1) {
-            elseBlock = toBlock(statements.get(1));
+        List<MiniCParser.ElseIfContext> elseIfs = ctx.elseIf();
+        long[] locations = new long[elseIfs.size() + 1];
+        Expr[] conds = new Expr[elseIfs.size() + 1];
+        Block[] thenBlocks = new Block[elseIfs.size() + 1];
+        locations[0] = getLocation(ctx);
+        conds[0] = (Expr) visit(ctx.expr());
+        thenBlocks[0] = toBlock(ctx.statement());
+        for (int k = 0; k < elseIfs.size(); k++) {
+            MiniCParser.ElseIfContext e = elseIfs.get(k);
+            locations[k + 1] = getLocation((TerminalNode) e.getChild(1)); // the 'if'
+            conds[k + 1] = (Expr) visit(e.expr());
+            thenBlocks[k + 1] = toBlock(e.statement());
+        }
+        Block elseBlock = (ctx.simpleStatement() == null) ? null : toBlock(ctx.simpleStatement());
+        // nest the chain from the last 'else if' outwards: else { if ... }
+        IfStmt stmt = null;
+        for (int k = conds.length - 1; k >= 0; k--) {
+            if (stmt != null) {
+                elseBlock = new Block();
+                elseBlock.getStatements().add(stmt);
+            }
+            stmt = new IfStmt(locations[k], conds[k], thenBlocks[k], elseBlock);
         }
-        return new IfStmt(getLocation(ctx), cond, thenBlock, elseBlock);
+        return stmt;
     }
 
     @Override
@@ -234,48 +262,69 @@ public class AstBuilder extends MiniCBaseVisitor<Node> {
     // ----------------------
     @Override
     public Node visitMulDiv(MiniCParser.MulDivContext ctx) {
-        Expr left = (Expr) visit(ctx.expr(0));
-        Expr right = (Expr) visit(ctx.expr(1));
-        Binary.Op op = ctx.op.getText().equals("*") ? Binary.Op.MUL : Binary.Op.DIV;
-        return new Binary(getLocation(ctx), op, left, right);
+        return visitBinary(ctx);
     }
 
     @Override
     public Node visitLogicalAnd(MiniCParser.LogicalAndContext ctx) {
-        Expr left = (Expr) visit(ctx.expr(0));
-        Expr right = (Expr) visit(ctx.expr(1));
-        return new Binary(getLocation(ctx), Binary.Op.AND, left, right);
+        return visitBinary(ctx);
     }
 
     @Override
     public Node visitLogicalOr(MiniCParser.LogicalOrContext ctx) {
-        Expr left = (Expr) visit(ctx.expr(0));
-        Expr right = (Expr) visit(ctx.expr(1));
-        return new Binary(getLocation(ctx), Binary.Op.OR, left, right);
+        return visitBinary(ctx);
     }
 
     @Override
     public Node visitAddSub(MiniCParser.AddSubContext ctx) {
-        Expr left = (Expr) visit(ctx.expr(0));
-        Expr right = (Expr) visit(ctx.expr(1));
-        Binary.Op op = ctx.op.getText().equals("+") ? Binary.Op.ADD : Binary.Op.SUB;
-        return new Binary(getLocation(ctx), op, left, right);
+        return visitBinary(ctx);
     }
 
     @Override
     public Node visitCompare(MiniCParser.CompareContext ctx) {
-        Expr left = (Expr) visit(ctx.expr(0));
-        Expr right = (Expr) visit(ctx.expr(1));
-        Binary.Op op = switch (ctx.op.getText()) {
-            case "<"  -> Binary.Op.LT;
-            case ">"  -> Binary.Op.GT;
-            case "<=" -> Binary.Op.LE;
-            case ">=" -> Binary.Op.GE;
-            case "==" -> Binary.Op.EQ;
-            case "!=" -> Binary.Op.NE;
-            default -> throw new IllegalArgumentException("Unknown compare op: " + ctx.op.getText());
+        return visitBinary(ctx);
+    }
+
+    /**
+     * Converts a chain of left-associative operators like a+b+c+... in a loop,
+     * since the parse tree nests one level per operator.
+     */
+    private Expr visitBinary(MiniCParser.ExprContext ctx) {
+        Deque<MiniCParser.ExprContext> chain = new ArrayDeque<>();
+        MiniCParser.ExprContext e = ctx;
+        while (binaryOp(e) != null) {
+            chain.push(e);
+            e = e.getRuleContext(MiniCParser.ExprContext.class, 0);
+        }
+        Expr left = (Expr) visit(e);
+        while (!chain.isEmpty()) {
+            MiniCParser.ExprContext b = chain.pop();
+            Expr right = (Expr) visit(b.getRuleContext(MiniCParser.ExprContext.class, 1));
+            left = new Binary(getLocation(b), binaryOp(b), left, right);
+        }
+        return left;
+    }
+
+    /**
+     * @return the operator of a binary expression, or null for other expressions
+     */
+    private static Binary.Op binaryOp(MiniCParser.ExprContext ctx) {
+        return switch (ctx) {
+            case MiniCParser.MulDivContext c -> c.op.getText().equals("*") ? Binary.Op.MUL : Binary.Op.DIV;
+            case MiniCParser.AddSubContext c -> c.op.getText().equals("+") ? Binary.Op.ADD : Binary.Op.SUB;
+            case MiniCParser.LogicalAndContext c -> Binary.Op.AND;
+            case MiniCParser.LogicalOrContext c -> Binary.Op.OR;
+            case MiniCParser.CompareContext c -> switch (c.op.getText()) {
+                case "<"  -> Binary.Op.LT;
+                case ">"  -> Binary.Op.GT;
+                case "<=" -> Binary.Op.LE;
+                case ">=" -> Binary.Op.GE;
+                case "==" -> Binary.Op.EQ;
+                case "!=" -> Binary.Op.NE;
+                default -> throw new IllegalArgumentException("Unknown compare op: " + c.op.getText());
+            };
+            default -> null;
         };
-        return new Binary(getLocation(ctx), op, left, right);
     }
 
     @Override
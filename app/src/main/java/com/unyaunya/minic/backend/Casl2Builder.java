@@ -1,11 +1,30 @@
-
 package com.unyaunya.minic.backend;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+import java.util.function.UnaryOperator;
 
 import com.unyaunya.minic.MinicException;
 
+/**
+ * Collects CASL2 lines and renders them with {@link #build()}.
+ *
+ * Comments are only kept if the {@link CommentLevel} asks for them, and text
+ * given as a {@link Supplier} or a format is not produced until build time.
+ * Whether a comment is kept never changes the instructions, so
+ * {@link #lastIsRet()} ignores comments the level drops.
+ *
+ * Lines are stored as parallel arrays instead of objects: an opcode, up to
+ * three operands encoded into longs (see {@link #operandKind}) and a label
+ * id. Labels and other symbolic operands are interned in a symbol table.
+ * Nothing is turned into text before rendering.
+ */
 public class Casl2Builder {
     public static final int MAX_LABEL_LEN = 8;
     public static final String GR0 = "GR0";
@@ -17,71 +36,232 @@ public class Casl2Builder {
     public static final String GR6 = "GR6";
     public static final String GR7 = "GR7";
 
-    private final List<AsmLine> lines = new ArrayList<>();
+    /** Operand kinds, in the upper half of an encoded operand. */
+    public static final int REGISTER = 0;
+    public static final int IMMEDIATE = 1;
+    public static final int LITERAL = 2;
+    public static final int SYMBOL = 3;
+
+    private static final int MAX_OPERANDS = 3;
+    private static final int NO_LABEL = -1;
+
+    private final CommentLevel commentLevel;
+    private final boolean compact;
+    private boolean lastIsRet;
+
+    private int size;
+    private byte[] ops = new byte[256];
+    private byte[] operandCounts = new byte[256];
+    private long[] operands = new long[256 * MAX_OPERANDS];
+    private int[] labels = new int[256];
+    private Object[] comments = new Object[256]; // String, Supplier<String> or null
+
+    private final List<String> symbols = new ArrayList<>();
+    private final Map<String, Integer> symbolIds = new HashMap<>();
+
+    public Casl2Builder() {
+        this(CommentLevel.FULL);
+    }
+
+    public Casl2Builder(CommentLevel commentLevel) {
+        this(commentLevel, false);
+    }
+
+    /**
+     * @param compact true to separate fields by a tab instead of aligning them in columns
+     */
+    public Casl2Builder(CommentLevel commentLevel, boolean compact) {
+        this.commentLevel = commentLevel;
+        this.compact = compact;
+    }
+
+    private int newLine(Casl2Op op, int operandCount) {
+        if (size == ops.length) {
+            int capacity = size * 2;
+            ops = Arrays.copyOf(ops, capacity);
+            operandCounts = Arrays.copyOf(operandCounts, capacity);
+            operands = Arrays.copyOf(operands, capacity * MAX_OPERANDS);
+            labels = Arrays.copyOf(labels, capacity);
+            comments = Arrays.copyOf(comments, capacity);
+        }
+        int i = size++;
+        ops[i] = (byte) op.ordinal();
+        operandCounts[i] = (byte) operandCount;
+        labels[i] = NO_LABEL;
+        comments[i] = null;
+        lastIsRet = op == Casl2Op.RET;
+        return i * MAX_OPERANDS;
+    }
 
-    private Casl2Builder addLine(String opcode, List<String> operands) {
-        lines.add(new AsmLine(null, opcode, operands, null));
+    private Casl2Builder addLine(Casl2Op op) {
+        newLine(op, 0);
+        return this;
+    }
+
+    private Casl2Builder addLine(Casl2Op op, long a) {
+        int o = newLine(op, 1);
+        operands[o] = a;
+        return this;
+    }
+
+    private Casl2Builder addLine(Casl2Op op, long a, long b) {
+        int o = newLine(op, 2);
+        operands[o] = a;
+        operands[o + 1] = b;
+        return this;
+    }
+
+    private Casl2Builder addLine(Casl2Op op, long a, long b, long c) {
+        int o = newLine(op, 3);
+        operands[o] = a;
+        operands[o + 1] = b;
+        operands[o + 2] = c;
+        return this;
+    }
+
+    private Casl2Builder addComment(CommentLevel level, Supplier<String> text) {
+        lastIsRet = false;
+        if (commentLevel.includes(level)) {
+            newLine(Casl2Op.COMMENT, 0);
+            comments[size - 1] = text;
+        }
         return this;
     }
 
+    // -------------------------------
+    // Operand encoding
+    // -------------------------------
+    private static long encode(int kind, int value) {
+        return ((long) kind << 32) | (value & 0xFFFFFFFFL);
+    }
+
+    public static int operandKind(long operand) {
+        return (int) (operand >>> 32);
+    }
+
+    public static int operandValue(long operand) {
+        return (int) operand;
+    }
+
+    private long reg(String r) {
+        return operand(r);
+    }
+
+    private static long imm(int n) {
+        return encode(IMMEDIATE, n);
+    }
+
+    private static long literal(int n) {
+        return encode(LITERAL, n);
+    }
+
+    /**
+     * Encodes an operand given as text. Numbers are only encoded as such if
+     * they render back to the same text, anything else becomes a symbol.
+     */
+    private long operand(String text) {
+        if (text.length() == 3 && text.startsWith("GR") && text.charAt(2) >= '0' && text.charAt(2) <= '7') {
+            return encode(REGISTER, text.charAt(2) - '0');
+        }
+        if (text.startsWith("=")) {
+            Integer n = parseInt(text, 1);
+            if (n != null) {
+                return literal(n);
+            }
+        } else {
+            Integer n = parseInt(text, 0);
+            if (n != null) {
+                return imm(n);
+            }
+        }
+        return encode(SYMBOL, symbolId(text));
+    }
+
+    private static Integer parseInt(String text, int from) {
+        int len = text.length() - from;
+        if (len == 0 || len > 11) {
+            return null;
+        }
+        try {
+            int n = Integer.parseInt(text, from, text.length(), 10);
+            String canonical = Integer.toString(n);
+            return (canonical.length() == len && text.regionMatches(from, canonical, 0, len)) ? n : null;
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
+    private int symbolId(String symbol) {
+        Integer id = symbolIds.get(symbol);
+        if (id == null) {
+            id = symbols.size();
+            symbols.add(symbol);
+            symbolIds.put(symbol, id);
+        }
+        return id;
+    }
+
     // -------------------------------
     // Assembler Instructions
     // -------------------------------
-    public Casl2Builder start() { return addLine("START", List.of()); }
-    public Casl2Builder start(String address) { return addLine("START", List.of(address)); }
-    public Casl2Builder end() { return addLine("END", List.of()); }
-    public Casl2Builder ds(int size) { return addLine("DS", List.of(String.valueOf(size))); }
-    public Casl2Builder dc(String value) { return addLine("DC", List.of(value)); }
-    public Casl2Builder comment(String text) { lines.add(new AsmLine(null, null, null, text)); return this; }
-    public Casl2Builder comment(String fmt, Object... args) { return comment(String.format(fmt, args));}
+    public Casl2Builder start() { return addLine(Casl2Op.START); }
+    public Casl2Builder start(String address) { return addLine(Casl2Op.START, operand(address)); }
+    public Casl2Builder end() { return addLine(Casl2Op.END); }
+    public Casl2Builder ds(int size) { return addLine(Casl2Op.DS, imm(size)); }
+    public Casl2Builder dc(String value) { return addLine(Casl2Op.DC, operand(value)); }
+    public Casl2Builder comment(String text) { return addComment(CommentLevel.FULL, () -> text); }
+    public Casl2Builder comment(String fmt, Object... args) { return addComment(CommentLevel.FULL, () -> String.format(fmt, args)); }
+    public Casl2Builder comment(Supplier<String> text) { return addComment(CommentLevel.FULL, text); }
+    // Comment showing the source of a function or statement
+    public Casl2Builder source(Supplier<String> text) { return addComment(CommentLevel.SOURCE, text); }
     // -------------------------------
     // Machine Instructions
     // -------------------------------
-    public Casl2Builder ld(String r1, String r2) { return addLine("LD", List.of(r1, r2)); }
-    public Casl2Builder ld(String r, String adr, String x) { return addLine("LD", List.of(r, adr, x)); }
-    public Casl2Builder ld(String r, int adr, String x) { return ld(r, Integer.toString(adr), x); }
-    public Casl2Builder lad(String r, String adr) { return addLine("LAD", List.of(r, adr)); }
-    public Casl2Builder lad(String r, String adr, String x) { return addLine("LAD", List.of(r, adr, x)); }
-    public Casl2Builder lad(String r, int adr) { return lad(r, String.valueOf(adr)); }
-    public Casl2Builder lad(String r, int adr, String x) { return lad(r, String.valueOf(adr), x); }
-    public Casl2Builder st(String r, String adr) { return addLine("ST", List.of(r, adr)); }
-    public Casl2Builder st(String r, String adr, String x) { return addLine("ST", List.of(r, adr, x)); }
-    public Casl2Builder st(String r, int adr, String x) { return st(r,  Integer.toString(adr), x); }
-    public Casl2Builder adda(String r1, String r2) { return addLine("ADDA", List.of(r1, r2)); }
-    public Casl2Builder adda(String r1, int n) { return addLine("ADDA", List.of(r1, literal(n))); }
-    public Casl2Builder addl(String r1, String r2) { return addLine("ADDL", List.of(r1, r2)); }
-    public Casl2Builder suba(String r1, String r2) { return addLine("SUBA", List.of(r1, r2)); }
-    public Casl2Builder suba(String r1, int n) { return addLine("SUBA", List.of(r1, literal(n))); }
-    public Casl2Builder subl(String r1, String r2) { return addLine("SUBL", List.of(r1, r2)); }
-    public Casl2Builder and(String r1, String r2) { return addLine("AND", List.of(r1, r2)); }
-    public Casl2Builder or(String r1, String r2) { return addLine("OR", List.of(r1, r2)); }
-    public Casl2Builder xor(String r1, String r2) { return addLine("XOR", List.of(r1, r2)); }
-    public Casl2Builder cpa(String r1, String r2) { return addLine("CPA", List.of(r1, r2)); }
-    public Casl2Builder cpl(String r1, String r2) { return addLine("CPL", List.of(r1, r2)); }
-    public Casl2Builder sla(String r, String count) { return addLine("SLA", List.of(r, count)); }
-    public Casl2Builder sll(String r, String count) { return addLine("SLL", List.of(r, count)); }
-    public Casl2Builder sra(String r, String count) { return addLine("SRA", List.of(r, count)); }
-    public Casl2Builder srl(String r, String count) { return addLine("SRL", List.of(r, count)); }
-    public Casl2Builder jov(String label) { return addLine("JOV", List.of(label)); }
-    public Casl2Builder jpl(String adr) { return addLine("JPL", List.of(adr)); }
-    public Casl2Builder jmi(String adr) { return addLine("JMI", List.of(adr)); }
-    public Casl2Builder jze(String adr) { return addLine("JZE", List.of(adr)); }
-    public Casl2Builder jnz(String adr) { return addLine("JNZ", List.of(adr)); }
-    public Casl2Builder jump(String adr) { return addLine("JUMP", List.of(adr)); }
-    public Casl2Builder push(String adr, String reg) { return addLine("PUSH", List.of(adr, reg)); }
-    public Casl2Builder pop(String reg) { return addLine("POP", List.of(reg)); }
-    public Casl2Builder call(String label) { return addLine("CALL", List.of(label)); }
-    public Casl2Builder ret() { return addLine("RET", List.of()); }
-    public Casl2Builder svc(String code) { return addLine("SVC", List.of(code)); }
-    public Casl2Builder nop() { return addLine("NOP", List.of()); }
+    public Casl2Builder ld(String r1, String r2) { return addLine(Casl2Op.LD, reg(r1), operand(r2)); }
+    public Casl2Builder ld(String r, String adr, String x) { return addLine(Casl2Op.LD, reg(r), operand(adr), reg(x)); }
+    public Casl2Builder ld(String r, int adr, String x) { return addLine(Casl2Op.LD, reg(r), imm(adr), reg(x)); }
+    public Casl2Builder lad(String r, String adr) { return addLine(Casl2Op.LAD, reg(r), operand(adr)); }
+    public Casl2Builder lad(String r, String adr, String x) { return addLine(Casl2Op.LAD, reg(r), operand(adr), reg(x)); }
+    public Casl2Builder lad(String r, int adr) { return addLine(Casl2Op.LAD, reg(r), imm(adr)); }
+    public Casl2Builder lad(String r, int adr, String x) { return addLine(Casl2Op.LAD, reg(r), imm(adr), reg(x)); }
+    public Casl2Builder st(String r, String adr) { return addLine(Casl2Op.ST, reg(r), operand(adr)); }
+    public Casl2Builder st(String r, String adr, String x) { return addLine(Casl2Op.ST, reg(r), operand(adr), reg(x)); }
+    public Casl2Builder st(String r, int adr, String x) { return addLine(Casl2Op.ST, reg(r), imm(adr), reg(x)); }
+    public Casl2Builder adda(String r1, String r2) { return addLine(Casl2Op.ADDA, reg(r1), operand(r2)); }
+    public Casl2Builder adda(String r1, int n) { return addLine(Casl2Op.ADDA, reg(r1), literal(n)); }
+    public Casl2Builder addl(String r1, String r2) { return addLine(Casl2Op.ADDL, reg(r1), operand(r2)); }
+    public Casl2Builder suba(String r1, String r2) { return addLine(Casl2Op.SUBA, reg(r1), operand(r2)); }
+    public Casl2Builder suba(String r1, int n) { return addLine(Casl2Op.SUBA, reg(r1), literal(n)); }
+    public Casl2Builder subl(String r1, String r2) { return addLine(Casl2Op.SUBL, reg(r1), operand(r2)); }
+    public Casl2Builder and(String r1, String r2) { return addLine(Casl2Op.AND, reg(r1), operand(r2)); }
+    public Casl2Builder or(String r1, String r2) { return addLine(Casl2Op.OR, reg(r1), operand(r2)); }
+    public Casl2Builder xor(String r1, String r2) { return addLine(Casl2Op.XOR, reg(r1), operand(r2)); }
+    public Casl2Builder cpa(String r1, String r2) { return addLine(Casl2Op.CPA, reg(r1), operand(r2)); }
+    public Casl2Builder cpl(String r1, String r2) { return addLine(Casl2Op.CPL, reg(r1), operand(r2)); }
+    public Casl2Builder sla(String r, String count) { return addLine(Casl2Op.SLA, reg(r), operand(count)); }
+    public Casl2Builder sll(String r, String count) { return addLine(Casl2Op.SLL, reg(r), operand(count)); }
+    public Casl2Builder sra(String r, String count) { return addLine(Casl2Op.SRA, reg(r), operand(count)); }
+    public Casl2Builder srl(String r, String count) { return addLine(Casl2Op.SRL, reg(r), operand(count)); }
+    public Casl2Builder jov(String label) { return addLine(Casl2Op.JOV, operand(label)); }
+    public Casl2Builder jpl(String adr) { return addLine(Casl2Op.JPL, operand(adr)); }
+    public Casl2Builder jmi(String adr) { return addLine(Casl2Op.JMI, operand(adr)); }
+    public Casl2Builder jze(String adr) { return addLine(Casl2Op.JZE, operand(adr)); }
+    public Casl2Builder jnz(String adr) { return addLine(Casl2Op.JNZ, operand(adr)); }
+    public Casl2Builder jump(String adr) { return addLine(Casl2Op.JUMP, operand(adr)); }
+    public Casl2Builder push(String adr, String reg) { return addLine(Casl2Op.PUSH, operand(adr), reg(reg)); }
+    public Casl2Builder pop(String reg) { return addLine(Casl2Op.POP, reg(reg)); }
+    public Casl2Builder call(String label) { return addLine(Casl2Op.CALL, operand(label)); }
+    public Casl2Builder ret() { return addLine(Casl2Op.RET); }
+    public Casl2Builder svc(String code) { return addLine(Casl2Op.SVC, operand(code)); }
+    public Casl2Builder nop() { return addLine(Casl2Op.NOP); }
 
     // -------------------------------
     // Macro Instructions
     // -------------------------------
-    public Casl2Builder in(String device, String len) { return addLine("IN", List.of(device, len)); }
-    public Casl2Builder out(String device, String len) { return addLine("OUT", List.of(device, len)); }
-    public Casl2Builder rpush() { return addLine("RPUSH", List.of()); }
-    public Casl2Builder rpop() { return addLine("RPOP", List.of()); }
+    public Casl2Builder in(String device, String len) { return addLine(Casl2Op.IN, operand(device), operand(len)); }
+    public Casl2Builder out(String device, String len) { return addLine(Casl2Op.OUT, operand(device), operand(len)); }
+    public Casl2Builder rpush() { return addLine(Casl2Op.RPUSH); }
+    public Casl2Builder rpop() { return addLine(Casl2Op.RPOP); }
 
     // -------------------------------
     // Utility
@@ -89,41 +269,162 @@ public class Casl2Builder {
 
     // Add Label
     public Casl2Builder l(String lbl) {
-        if (!lines.isEmpty()) {
-            AsmLine last = lines.get(lines.size() - 1);
-            last.setLabel(lbl);
+        if (size > 0) {
+            if (lbl == null || lbl.isEmpty()) {
+                labels[size - 1] = NO_LABEL;
+            } else {
+                String label = (lbl.length() > MAX_LABEL_LEN) ? lbl.substring(0, MAX_LABEL_LEN) : lbl;
+                labels[size - 1] = symbolId(label.toUpperCase());
+            }
         }
         return this;
     }
 
     // Add Comment
     public Casl2Builder c(String text) {
-        if (!lines.isEmpty()) {
-            AsmLine last = lines.get(lines.size() - 1);
-            last.setComment(text);
+        if (size > 0 && commentLevel == CommentLevel.FULL) {
+            comments[size - 1] = text;
+        }
+        return this;
+    }
+
+    public Casl2Builder c(Supplier<String> text) {
+        if (size > 0 && commentLevel == CommentLevel.FULL) {
+            comments[size - 1] = text;
+        }
+        return this;
+    }
+
+    /**
+     * Appends the lines of {@code other}, passing each of its symbols through
+     * {@code relocate}, e.g. to renumber the labels of separately emitted code.
+     */
+    public Casl2Builder append(Casl2Builder other, UnaryOperator<String> relocate) {
+        int[] ids = new int[other.symbols.size()];
+        for (int k = 0; k < ids.length; k++) {
+            ids[k] = symbolId(relocate.apply(other.symbols.get(k)));
+        }
+        for (int i = 0; i < other.size; i++) {
+            int o = newLine(Casl2Op.of(other.ops[i]), other.operandCounts[i]);
+            for (int j = 0; j < other.operandCounts[i]; j++) {
+                long operand = other.operands[i * MAX_OPERANDS + j];
+                operands[o + j] = (operandKind(operand) == SYMBOL) ? encode(SYMBOL, ids[operandValue(operand)]) : operand;
+            }
+            labels[size - 1] = (other.labels[i] == NO_LABEL) ? NO_LABEL : ids[other.labels[i]];
+            comments[size - 1] = other.comments[i];
+        }
+        if (other.size > 0) {
+            lastIsRet = other.lastIsRet;
         }
         return this;
     }
 
+    /**
+     * Produces the text of all comments now, so the builder no longer refers
+     * to the AST and can be shared by threads that only read it.
+     */
+    public void renderComments() {
+        for (int i = 0; i < size; i++) {
+            getComment(i);
+        }
+    }
+
     public String build() {
-        StringBuilder sb = new StringBuilder();
-        for (AsmLine line : lines) {
-            sb.append(line.toString());
+        StringBuilder sb = new StringBuilder(size * 48);
+        try {
+            writeTo(sb);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); // StringBuilder doesn't throw
         }
         return sb.toString();
     }
-    
-    public AsmLine getLastLine() {
-        return lines.isEmpty() ? null : lines.get(lines.size() - 1);
+
+    /**
+     * Renders the program line by line into {@code out}, which should be buffered.
+     */
+    public void writeTo(Appendable out) throws IOException {
+        StringBuilder operandText = new StringBuilder(32);
+        for (int i = 0; i < size; i++) {
+            operandText.setLength(0);
+            for (int j = 0; j < operandCounts[i]; j++) {
+                if (j > 0) {
+                    operandText.append(',');
+                }
+                appendOperand(operandText, operands[i * MAX_OPERANDS + j]);
+            }
+            AsmLine.write(out, compact, getLabel(i), getOp(i).getMnemonic(), operandText, getComment(i));
+        }
     }
 
-    public boolean lastIsRet() {
-        AsmLine last = getLastLine();
-        return last != null && "RET".equals(last.getOpcode());
+    private void appendOperand(StringBuilder sb, long operand) {
+        int value = operandValue(operand);
+        switch (operandKind(operand)) {
+            case REGISTER -> sb.append("GR").append(value);
+            case IMMEDIATE -> sb.append(value);
+            case LITERAL -> sb.append('=').append(value);
+            default -> sb.append(symbols.get(value));
+        }
+    }
+
+    // -------------------------------
+    // Read access for later passes
+    // -------------------------------
+    public int size() {
+        return size;
+    }
+
+    public Casl2Op getOp(int line) {
+        return Casl2Op.of(ops[line]);
     }
 
-    private String literal(int n) {
-        return String.format("=%d", n);
+    public int getOperandCount(int line) {
+        return operandCounts[line];
+    }
+
+    /**
+     * @return the encoded operand, see {@link #operandKind} and {@link #operandValue}
+     */
+    public long getOperand(int line, int index) {
+        return operands[line * MAX_OPERANDS + index];
+    }
+
+    /**
+     * @return the symbol of a {@link #SYMBOL} operand value or a label id
+     */
+    public String getSymbol(int id) {
+        return symbols.get(id);
+    }
+
+    public String getLabel(int line) {
+        return (labels[line] == NO_LABEL) ? null : symbols.get(labels[line]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private String getComment(int line) {
+        Object comment = comments[line];
+        if (comment instanceof Supplier<?> supplier) {
+            comment = ((Supplier<String>) supplier).get();
+            comments[line] = comment;
+        }
+        return (String) comment;
+    }
+
+    public AsmLine getLastLine() {
+        if (size == 0) {
+            return null;
+        }
+        int i = size - 1;
+        List<String> text = new ArrayList<>();
+        for (int j = 0; j < operandCounts[i]; j++) {
+            StringBuilder sb = new StringBuilder();
+            appendOperand(sb, getOperand(i, j));
+            text.add(sb.toString());
+        }
+        return new AsmLine(getLabel(i), getOp(i).getMnemonic(), text, getComment(i));
+    }
+
+    public boolean lastIsRet() {
+        return lastIsRet;
     }
 
     public static class Casl2LabelGenerator {
@@ -143,11 +444,47 @@ public class Casl2Builder {
 
         public String getNewLabel() throws MinicException {
             this.id += 1;
-            if (this.id >= this.limit) {
+            return getLabel(this.id);
+        }
+
+        /**
+         * @return the label that {@link #getNewLabel} returns as the {@code id}th
+         */
+        public String getLabel(int id) throws MinicException {
+            if (id >= this.limit) {
                 throw new MinicException(String.format("The number of labels for %s exceeds the limit of %d.", this.description, this.limit-1));
             }
-            String numPart = Integer.toString(this.limit + this.id).substring(1);
+            String numPart = Integer.toString(this.limit + id).substring(1);
             return this.prefix + numPart;
         }
+
+        /**
+         * @return the number of {@code label} if it has the form of this generator's labels, else 0
+         */
+        public int parse(String label) {
+            if (label.length() != MAX_LABEL_LEN || !label.startsWith(this.prefix)) {
+                return 0;
+            }
+            int n = 0;
+            for (int i = this.prefix.length(); i < MAX_LABEL_LEN; i++) {
+                char c = label.charAt(i);
+                if (c < '0' || c > '9') {
+                    return 0;
+                }
+                n = n * 10 + (c - '0');
+            }
+            return n;
+        }
+
+        /**
+         * @return the number of labels generated since the last {@link #reset}
+         */
+        public int getCount() {
+            return this.id;
+        }
+
+        public void reset() {
+            this.id = 0;
+        }
     }
 }
@@ -12,26 +12,103 @@ import com.unyaunya.minic.semantics.Symbol;
 
 import java.util.*;
 import java.util.Map.Entry;
-
+import java.util.function.Supplier;
+
+/**
+ * Emits CASL2 for an analyzed program.
+ * An instance holds per-program state (builder, label counters, string table),
+ * so create one per compilation; instances must not be shared between threads.
+ *
+ * Each function is emitted on its own as a {@link FunctionCode}, numbering
+ * its labels from 1 and referring to string literals by their value, and then
+ * linked into the program by renumbering its labels after those of the
+ * functions before it. The code of a function therefore depends only on the
+ * function, and code emitted by an earlier compilation can be linked in
+ * place of emitting it again. For the same reason the functions can be
+ * emitted in parallel on the common fork-join pool, each by an emitter of its
+ * own, and linked in source order afterwards, which gives the same program
+ * as emitting them one after the other.
+ */
 public class Casl2Emitter {
-    private final Casl2Builder builder = new Casl2Builder();
+    private static final char STRING_REF = '\0'; // prefix of the symbol that refers to a string literal in a FunctionCode
+    private static final int MAX_EXPR_COMMENT = 60; // longer expressions are cut in comments
+
+    private final CommentLevel commentLevel;
+    private final boolean compact;
+    private final boolean parallel;
+    private final Casl2Builder program;
+    private Casl2Builder builder; // of the function being emitted, or the program
     private SemanticInfo semanticInfo;
-    private FunctionDecl currentFunction;
-    private Casl2LabelGenerator lgCompareTrue = new Casl2LabelGenerator("CT", "True branch of a comparison");
-    private Casl2LabelGenerator lgCompareEnd = new Casl2LabelGenerator("CE", "End label of a comparison");
-    private Casl2LabelGenerator lgIfElse = new Casl2LabelGenerator("IFELS", "Else clause");
-    private Casl2LabelGenerator lgIfEnd = new Casl2LabelGenerator("ENDIF", "End of if statement");
-    private Casl2LabelGenerator lgWhile = new Casl2LabelGenerator("WHIL", "While statement");
-    private Casl2LabelGenerator lgWend = new Casl2LabelGenerator("WEND", "End of while statement");
-    private Casl2LabelGenerator lgFor = new Casl2LabelGenerator("FOR", "For statement");
-    private Casl2LabelGenerator lgNext = new Casl2LabelGenerator("NXT", "End of while statement");
-    private SortedMap<String, String> strings = new TreeMap<>();
+    private int localSize; // of the function being emitted
+    private final Casl2LabelGenerator lgCompareTrue = new Casl2LabelGenerator("CT", "True branch of a comparison");
+    private final Casl2LabelGenerator lgCompareEnd = new Casl2LabelGenerator("CE", "End label of a comparison");
+    private final Casl2LabelGenerator lgIfElse = new Casl2LabelGenerator("IFELS", "Else clause");
+    private final Casl2LabelGenerator lgIfEnd = new Casl2LabelGenerator("ENDIF", "End of if statement");
+    private final Casl2LabelGenerator lgWhile = new Casl2LabelGenerator("WHIL", "While statement");
+    private final Casl2LabelGenerator lgWend = new Casl2LabelGenerator("WEND", "End of while statement");
+    private final Casl2LabelGenerator lgFor = new Casl2LabelGenerator("FOR", "For statement");
+    private final Casl2LabelGenerator lgNext = new Casl2LabelGenerator("NXT", "End of while statement");
+    private final Casl2LabelGenerator[] labelGenerators = {
+        lgCompareTrue, lgCompareEnd, lgIfElse, lgIfEnd, lgWhile, lgWend, lgFor, lgNext
+    };
+    private final int[] labelOffsets = new int[labelGenerators.length]; // labels of the functions linked so far
+    private final SortedMap<String, String> strings = new TreeMap<>();
+    private SortedSet<String> functionStrings; // used by the function being emitted
+    private final Map<FunctionDecl, FunctionCode> emitted = new LinkedHashMap<>();
+
+    public Casl2Emitter() {
+        this(CommentLevel.FULL);
+    }
+
+    public Casl2Emitter(CommentLevel commentLevel) {
+        this(commentLevel, false);
+    }
+
+    public Casl2Emitter(CommentLevel commentLevel, boolean compact) {
+        this(commentLevel, compact, false);
+    }
+
+    /**
+     * @param parallel whether to emit the functions in parallel
+     */
+    public Casl2Emitter(CommentLevel commentLevel, boolean compact, boolean parallel) {
+        this.commentLevel = commentLevel;
+        this.compact = compact;
+        this.parallel = parallel;
+        this.program = new Casl2Builder(commentLevel, compact);
+        this.builder = program;
+    }
 
     public String emit(Program program, SemanticInfo semanticInfo, int stackSize) {
+        return generate(program, semanticInfo, stackSize).build();
+    }
+
+    /**
+     * Generates the program without rendering it, so it can be streamed with
+     * {@link Casl2Builder#writeTo}.
+     */
+    public Casl2Builder generate(Program program, SemanticInfo semanticInfo, int stackSize) {
+        return generate(program, semanticInfo, stackSize, Map.of());
+    }
+
+    /**
+     * Generates the program, linking the given code instead of emitting the
+     * functions it was emitted for. Those functions need not have been
+     * analyzed; the strings their code uses are added to the string table.
+     * The result is the same as if all functions had been emitted.
+     */
+    public Casl2Builder generate(Program program, SemanticInfo semanticInfo, int stackSize, Map<FunctionDecl, FunctionCode> compiled) {
+        if (this.semanticInfo != null) {
+            throw new IllegalStateException("Casl2Emitter can emit only one program");
+        }
         this.semanticInfo = semanticInfo;
         // prepare labels for string literals
+        SortedSet<String> allStrings = new TreeSet<>(this.semanticInfo.getStrings());
+        for (FunctionCode code : compiled.values()) {
+            allStrings.addAll(code.getStrings());
+        }
         Casl2LabelGenerator lgStr = new Casl2LabelGenerator("STR", "String literal");
-        for (String s : this.semanticInfo.getStrings()) {
+        for (String s : allStrings) {
             this.strings.put(s, lgStr.getNewLabel());
         }
         //
@@ -52,14 +129,54 @@ public class Casl2Emitter {
             builder.call("MAIN");
             builder.ret();
         } 
-        for (FunctionDecl f : program.getFunctions()) {
-            emitFunction(f);
+        List<FunctionDecl> functions = program.getFunctions();
+        boolean apart = parallel && functions.size() > 1;
+        List<FunctionCode> codes = (apart ? functions.parallelStream() : functions.stream())
+                .map(f -> compiled.containsKey(f) ? null : apart ? emitFunctionApart(f) : emitFunction(f))
+                .toList(); // null where compiled has the code
+        for (int i = 0; i < functions.size(); i++) {
+            FunctionCode code = codes.get(i);
+            if (code != null) {
+                emitted.put(functions.get(i), code);
+            } else {
+                code = compiled.get(functions.get(i));
+            }
+            link(code);
         }
         if (hasMain) {
             builder.ds(stackSize).l("STACK").c("Stack Area");
         }
         builder.end().c("Program end");
-        return builder.build();
+        return builder;
+    }
+
+    /**
+     * @return the code of the functions emitted by {@link #generate}, that is
+     *         of all functions but those it was given code for
+     */
+    public Map<FunctionDecl, FunctionCode> getEmittedFunctions() {
+        return Collections.unmodifiableMap(emitted);
+    }
+
+    private void link(FunctionCode code) {
+        int[] counts = code.getLabelCounts();
+        builder.append(code.getCode(), symbol -> relocate(symbol, counts));
+        for (int g = 0; g < labelGenerators.length; g++) {
+            labelOffsets[g] += counts[g];
+        }
+    }
+
+    private String relocate(String symbol, int[] counts) {
+        if (symbol.charAt(0) == STRING_REF) {
+            return strings.get(symbol.substring(1));
+        }
+        for (int g = 0; g < labelGenerators.length; g++) {
+            int n = labelGenerators[g].parse(symbol);
+            if (n > 0 && n <= counts[g]) {
+                return labelGenerators[g].getLabel(labelOffsets[g] + n);
+            }
+        }
+        return symbol;
     }
 
     private void emitGlobals(List<GlobalDecl> globals) {
@@ -74,14 +191,18 @@ public class Casl2Emitter {
         }
     }
 
-    private void emitFunction(FunctionDecl f) {
-        this.currentFunction = f;
-        builder.comment(f.toString());
+    private FunctionCode emitFunction(FunctionDecl f) {
+        builder = new Casl2Builder(commentLevel, compact);
+        functionStrings = new TreeSet<>();
+        for (Casl2LabelGenerator g : labelGenerators) {
+            g.reset();
+        }
+        this.localSize = this.semanticInfo.getLocalSize(f.getName());
+        builder.source(f::toString);
         builder.comment("Function entry");
-        builder.suba(GR7, 1).l(f.getName().toUpperCase());
+        builder.suba(GR7, 1).l(f.getLabel());
         builder.st(GR6, "0", GR7).c("Like push ebp");
         builder.ld(GR6, GR7).c("Like mov ebp, esp");
-        int localSize = this.semanticInfo.getLocalSize(f.getName());
         if (localSize > 0) {
             builder.suba(GR7, localSize).c("Secure local variables");
         }
@@ -89,11 +210,31 @@ public class Casl2Emitter {
         if (!builder.lastIsRet()) {
             emitReturn();
         }
-        this.currentFunction = null;
+        int[] counts = new int[labelGenerators.length];
+        for (int g = 0; g < labelGenerators.length; g++) {
+            counts[g] = labelGenerators[g].getCount();
+        }
+        FunctionCode code = new FunctionCode(builder, functionStrings, counts);
+        builder = program;
+        return code;
+    }
+
+    /**
+     * Emits {@code f} with an emitter of its own, so that functions can be
+     * emitted on several threads.
+     */
+    private FunctionCode emitFunctionApart(FunctionDecl f) {
+        Casl2Emitter emitter = new Casl2Emitter(commentLevel, compact);
+        emitter.semanticInfo = semanticInfo;
+        return emitter.emitFunction(f);
+    }
+
+    private String stringRef(String value) {
+        functionStrings.add(value);
+        return STRING_REF + value;
     }
 
     private void emitReturn() {
-        int localSize = this.semanticInfo.getLocalSize(this.currentFunction.getName());
         builder.comment("Function return");
         if (localSize > 0) {
             builder.adda(GR7, localSize);
@@ -105,16 +246,16 @@ public class Casl2Emitter {
     }
 
     private void emitCall(Call c) {
-        builder.comment("%s(%s);", c.getName(), String.join(",", c.getArgs().stream().map(Object::toString).toList()));
+        builder.comment(() -> ExprText.of(c.getName() + "(", c.getArgs(), ",", ");", MAX_EXPR_COMMENT));
         // Push arguments in reverse order
         for (Expr arg : c.getArgs().reversed()) {
-            builder.comment("Push %s", arg);
+            builder.comment(() -> ExprText.of("Push ", List.of(arg), "", "", MAX_EXPR_COMMENT));
             emitExpr(arg); // result in GR1
             builder.suba(GR7, 1).c("Decrement stack pointer");
             builder.st(GR1, "0", GR7);
         }
         // Call function
-        builder.call(c.getName().toUpperCase());
+        builder.call(c.getFunction().getLabel());
         // Release arguments
         if (!c.getArgs().isEmpty()) {
             builder.comment("Release arguments");
@@ -146,14 +287,16 @@ public class Casl2Emitter {
     }
 
     private void emitVarDecl(VarDecl v) {
-        builder.comment(v.toString());
+        builder.source(v::toString);
         if (v.getInit() != null) {
-            emitAssign(new LvVar(v.getLocation(), v.getName()), v.getInit());
+            LvVar lvalue = new LvVar(v.getPackedLocation(), v.getName());
+            lvalue.setSymbol(v.getSymbol());
+            emitAssign(lvalue, v.getInit());
         }
     }
 
     private void emitAssign(Assign a) {
-        builder.comment(a.toString());
+        builder.source(a::toString);
         emitAssign(a.getLvalue(), a.getExpr());
     }
 
@@ -163,7 +306,7 @@ public class Casl2Emitter {
         // evacuate the value to assign
         builder.push("0", GR1).c("Push rvalue");
 
-        builder.comment("%s=", lvalue.toString());
+        builder.comment(() -> ExprText.of("", List.of(lvalue), "", "=", MAX_EXPR_COMMENT));
         // calculate the address to store
         emitLValueAddress(lvalue);
         // put the value to assign in GR1
@@ -175,7 +318,7 @@ public class Casl2Emitter {
     private void emitLValueAddress(LValue lvalue) {
         switch (lvalue) {
             case LvVar v -> {
-                Symbol symbol = this.semanticInfo.getSymbol(this.currentFunction.getName(), v.getName());
+                Symbol symbol = v.getSymbol();
                 if (symbol.isArray()) {
                     throw new MinicException("Can't assign %s for it is not a variable.", v.getName());
                 }
@@ -189,8 +332,7 @@ public class Casl2Emitter {
                 // put the index of the array in GR1
                 emitExpr(lv.getExpr());
                 // put the start address of the array in GR5
-                Symbol symbol = this.semanticInfo.getSymbol(this.currentFunction.getName(), lv.getName());
-                emitSymbolValue(lv.getName(), symbol, GR5);
+                emitSymbolValue(lv.getName(), lv.getSymbol(), GR5);
                 // put the address of the target element in GR5
                 builder.adda(GR5, GR1);
             }
@@ -199,76 +341,56 @@ public class Casl2Emitter {
     }
 
     private void emitSymbolAddress(String name, Symbol symbol, String reg) {
-        String comment = String.format("Put Address of %s to %s", name, reg);
+        Supplier<String> comment = () -> String.format("Put Address of %s to %s", name, reg);
         switch (symbol.getStorageClass()) {
-        case StorageClass.GLOBAL -> builder.lad(reg, name.toUpperCase()).c(comment);
-        case StorageClass.LOCAL ->  builder.lad(reg, 65536 - symbol.getOffset(), GR6).c(comment);
-        case StorageClass.PARAM ->  builder.lad(reg, symbol.getOffset(), GR6).c(comment);
+        case StorageClass.GLOBAL -> builder.lad(reg, symbol.getLabel()).c(comment);
+        case StorageClass.LOCAL, StorageClass.PARAM -> builder.lad(reg, symbol.getDisplacement(), GR6).c(comment);
         }
     }
 
     private void emitSymbolValue(String name, Symbol symbol, String reg) {
-        String comment = String.format("Put Value of %s to %s", name, reg);
+        Supplier<String> comment = () -> String.format("Put Value of %s to %s", name, reg);
         if (symbol.isArray()) {
             switch (symbol.getStorageClass()) {
-            case StorageClass.GLOBAL -> builder.lad(reg, name.toUpperCase()).c(comment);
-            case StorageClass.LOCAL ->  builder.lad(reg, 65536 - symbol.getOffset(), GR6).c(comment);
-            case StorageClass.PARAM ->  builder.lad(reg, symbol.getOffset(), GR6).c(comment);
+            case StorageClass.GLOBAL -> builder.lad(reg, symbol.getLabel()).c(comment);
+            case StorageClass.LOCAL, StorageClass.PARAM -> builder.lad(reg, symbol.getDisplacement(), GR6).c(comment);
             }
         } else {
             switch (symbol.getStorageClass()) {
-            case StorageClass.GLOBAL -> builder.ld(reg, name.toUpperCase()).c(comment);
-            case StorageClass.LOCAL ->  builder.ld(reg, 65536 - symbol.getOffset(), GR6).c(comment);
-            case StorageClass.PARAM ->  builder.ld(reg, symbol.getOffset(), GR6).c(comment);
+            case StorageClass.GLOBAL -> builder.ld(reg, symbol.getLabel()).c(comment);
+            case StorageClass.LOCAL, StorageClass.PARAM -> builder.ld(reg, symbol.getDisplacement(), GR6).c(comment);
             }
         }
     }
 
-    private void emitVarRef(String reg, String name) {
-        Symbol symbol = this.semanticInfo.getSymbol(this.currentFunction.getName(), name);
-        emitSymbolValue(name, symbol, reg);
-    }
-
     private void emitPtrDeref(String reg, PtrDeref p) {
         emitExpr(p.getExpr());
         builder.ld(GR1, 0, GR1);
     }
 
     private void emitExpr(Expr e) {
-        builder.comment(e.toString());
+        builder.comment(() -> ExprText.of(e, MAX_EXPR_COMMENT));
         switch (e) {
             case IntLit lit -> builder.lad(GR1, lit.getValue()).c("Put the int lit to GR1");
-            case StringLit lit -> builder.lad(GR1, this.strings.get(lit.getValue())).c("Put the addr of string");
-            case VarRef v -> emitVarRef(GR1, v.getName());
+            case StringLit lit -> builder.lad(GR1, stringRef(lit.getValue())).c("Put the addr of string");
+            case VarRef v -> emitSymbolValue(v.getName(), v.getSymbol(), GR1);
             case PtrDeref p -> emitPtrDeref(GR1, p);
-            case AddressOf a -> {
-                Symbol symbol = this.semanticInfo.getSymbol(this.currentFunction.getName(), a.getName());
-                emitSymbolAddress(a.getName(), symbol, GR1);
-            }
+            case AddressOf a -> emitSymbolAddress(a.getName(), a.getSymbol(), GR1);
             case Cast c -> {
                 // NOP;
             }
             case ArrayElem v -> {
-                builder.comment("    Calculate %s[%s]", v.getName(), v.getExpr());
+                builder.comment(() -> ExprText.of("    Calculate " + v.getName() + "[", List.of(v.getExpr()), "", "]", MAX_EXPR_COMMENT));
                 // put the index of the array in GR1
                 emitExpr(v.getExpr());
                 // put the start address of the array in GR5
-                Symbol symbol = this.semanticInfo.getSymbol(this.currentFunction.getName(), v.getName());
-                emitSymbolValue(v.getName(), symbol, GR5);
+                emitSymbolValue(v.getName(), v.getSymbol(), GR5);
                 // put the address of the target element in GR5
                 builder.adda(GR5, GR1).c("Add index to the address");
                 // put the value of the target element in GR1
                 builder.ld(GR1, "0", GR5).c("Put val to GR1");
             }
-            case Binary bin -> {
-                if (bin.getOp() == Binary.Op.AND) {
-                    emitLogicalAnd(bin);
-                } else if (bin.getOp() == Binary.Op.OR) {
-                    emitLogicalOr(bin);
-                } else {
-                    emitBinaryDefault(bin);
-                }
-            }
+            case Binary bin -> emitBinary(bin);
             case UnaryNeg u -> {
                 emitExpr(u.getExpr());
                 builder.comment("-");
@@ -301,29 +423,77 @@ public class Casl2Emitter {
         builder.nop().l(endLabel);
     }
 
-    // Default binary operations: evaluate right then left so emitComparison works
-    private void emitBinaryDefault(Binary bin) {
-        emitExpr(bin.getRight());
-        builder.push("0", GR1);
-        emitExpr(bin.getLeft());
-        builder.comment(bin.getOp().toString());
-        builder.pop(GR2);
+    /**
+     * Emits a chain of left-associative operators like a+b+c+... in a loop:
+     * what precedes each left operand top-down, then what follows it
+     * bottom-up, in the same order as emitting each operator recursively.
+     * Only the whole chain gets a comment with its text, as one for every
+     * operator would take time and space quadratic in the length of the chain.
+     */
+    private void emitBinary(Binary top) {
+        List<Binary> chain = new ArrayList<>();
+        List<String[]> labels = new ArrayList<>();
+        Expr e = top;
+        while (e instanceof Binary bin) {
+            chain.add(bin);
+            labels.add(emitBinaryHead(bin));
+            e = bin.getLeft();
+        }
+        emitExpr(e);
+        for (int k = chain.size() - 1; k >= 0; k--) {
+            emitBinaryTail(chain.get(k), labels.get(k));
+        }
+    }
+
+    /**
+     * Emits the code before the left operand.
+     * @return the labels of a logical operator, or null
+     */
+    private String[] emitBinaryHead(Binary bin) {
+        switch (bin.getOp()) {
+        case AND -> {
+            String falseLbl = lgCompareEnd.getNewLabel();
+            String endLbl = lgCompareTrue.getNewLabel();
+            builder.comment("Logical AND");
+            return new String[] {falseLbl, endLbl};
+        }
+        case OR -> {
+            String trueLbl = lgCompareTrue.getNewLabel();
+            String endLbl = lgCompareEnd.getNewLabel();
+            builder.comment("Logical OR");
+            return new String[] {trueLbl, endLbl};
+        }
+        default -> {
+            // Default binary operations: evaluate right then left so emitComparison works
+            emitExpr(bin.getRight());
+            builder.push("0", GR1);
+            return null;
+        }
+        }
+    }
+
+    /**
+     * Emits the code after the left operand, which is in GR1.
+     */
+    private void emitBinaryTail(Binary bin, String[] labels) {
         switch (bin.getOp()) {
-        case ADD -> builder.adda(GR1, GR2);
-        case SUB -> builder.suba(GR1, GR2);
-        case MUL -> builder.comment("TODO: MULA not implemented");
-        case DIV -> builder.comment("TODO: DIVA not implemented");
-        default -> emitComparison(bin.getOp());
+        case AND -> emitLogicalAnd(bin.getRight(), labels[0], labels[1]);
+        case OR -> emitLogicalOr(bin.getRight(), labels[0], labels[1]);
+        default -> {
+            builder.comment(bin.getOp().toString());
+            builder.pop(GR2);
+            switch (bin.getOp()) {
+            case ADD -> builder.adda(GR1, GR2);
+            case SUB -> builder.suba(GR1, GR2);
+            case MUL -> builder.comment("TODO: MULA not implemented");
+            case DIV -> builder.comment("TODO: DIVA not implemented");
+            default -> emitComparison(bin.getOp());
+            }
+        }
         }
     }
 
-    private void emitLogicalAnd(Binary bin) {
-        Expr left = bin.getLeft();
-        Expr right = bin.getRight();
-        String falseLbl = lgCompareEnd.getNewLabel();
-        String endLbl = lgCompareTrue.getNewLabel();
-        builder.comment("Logical AND");
-        emitExpr(left); // GR1 = left
+    private void emitLogicalAnd(Expr right, String falseLbl, String endLbl) {
         builder.xor(GR0, GR0).c("GR0=0");
         builder.cpa(GR1, GR0).c("test GR1==0");
         builder.jze(falseLbl).c("False if left is false");
@@ -337,13 +507,7 @@ public class Casl2Emitter {
         builder.nop().l(endLbl);
     }
 
-    private void emitLogicalOr(Binary bin) {
-        Expr left = bin.getLeft();
-        Expr right = bin.getRight();
-        String trueLbl = lgCompareTrue.getNewLabel();
-        String endLbl = lgCompareEnd.getNewLabel();
-        builder.comment("Logical OR");
-        emitExpr(left); // GR1 = left
+    private void emitLogicalOr(Expr right, String trueLbl, String endLbl) {
         builder.xor(GR0, GR0).c("GR0=0");
         builder.cpa(GR1, GR0).c("test GR1==0");
         builder.jnz(trueLbl).c("True if left is true");
@@ -358,7 +522,7 @@ public class Casl2Emitter {
     }
 
     private void emitLogicalNot(LogicalNot n) {
-        builder.comment("!%s", n.getExpr().toString());
+        builder.comment(() -> ExprText.of("!", List.of(n.getExpr()), "", "", MAX_EXPR_COMMENT));
         emitExpr(n.getExpr());
         String trueLbl = lgCompareTrue.getNewLabel();
         String endLbl = lgCompareEnd.getNewLabel();
@@ -373,30 +537,43 @@ public class Casl2Emitter {
         builder.nop().l(endLbl);
     }
 
-    private void emitIf(IfStmt i) {
-        String elseLabel = lgIfElse.getNewLabel();
-        String endLabel = lgIfEnd.getNewLabel();
-        builder.comment("if(%s)", i.getCond().toString());
-        emitExpr(i.getCond());
-        if(i.getElseBlock() != null) {
-            builder.jze(elseLabel);
-            emitBlock(i.getThenBlock());
-            builder.jump(endLabel);
-            builder.comment("else");
-            builder.nop().l(elseLabel);
-            emitBlock(i.getElseBlock());
-        } else {
-            builder.jze(endLabel);
-            emitBlock(i.getThenBlock());
+    private void emitIf(IfStmt first) {
+        // an else-if chain is emitted in a loop; its end labels close innermost first
+        Deque<String> endLabels = new ArrayDeque<>();
+        IfStmt i = first;
+        while (i != null) {
+            String elseLabel = lgIfElse.getNewLabel();
+            String endLabel = lgIfEnd.getNewLabel();
+            endLabels.push(endLabel);
+            IfStmt current = i;
+            builder.source(() -> String.format("if(%s)", current.getCond()));
+            emitExpr(i.getCond());
+            i = null;
+            if(current.getElseBlock() != null) {
+                builder.jze(elseLabel);
+                emitBlock(current.getThenBlock());
+                builder.jump(endLabel);
+                builder.comment("else");
+                builder.nop().l(elseLabel);
+                i = current.getElseIf();
+                if (i == null) {
+                    emitBlock(current.getElseBlock());
+                }
+            } else {
+                builder.jze(endLabel);
+                emitBlock(current.getThenBlock());
+            }
+        }
+        while (!endLabels.isEmpty()) {
+            builder.nop().l(endLabels.pop());
+            builder.comment("end of if");
         }
-        builder.nop().l(endLabel);
-        builder.comment("end of if");
     }
 
     private void emitWhile(WhileStmt w) {
         String startLabel = lgWhile.getNewLabel();
         String endLabel = lgWend.getNewLabel();
-        builder.comment(w.toString());
+        builder.source(w::toString);
         builder.nop().l(startLabel);
         emitExpr(w.getCond());
         builder.comment("Test while condition");
@@ -411,7 +588,7 @@ public class Casl2Emitter {
     private void emitFor(ForStmt f) {
         String startLabel = lgFor.getNewLabel();
         String endLabel = lgNext.getNewLabel();
-        builder.comment(f.toString());
+        builder.source(f::toString);
         if (f.getInit() != null) emitStmt(f.getInit());
         builder.nop().l(startLabel);
         if (f.getCond() != null) {
@@ -426,7 +603,7 @@ public class Casl2Emitter {
     }
 
     private void emitReturn(ReturnStmt r) {
-        builder.comment(r.toString());      
+        builder.source(r::toString);
         if (r.getValue() != null) {
             emitExpr(r.getValue());
             builder.ld(GR0, GR1).c("Move return value to GR0");
@@ -435,7 +612,7 @@ public class Casl2Emitter {
     }
 
     private void emitMacro(MacroStmt m) {
-        builder.comment(m.toString());
+        builder.source(m::toString);
         if("_IN".equalsIgnoreCase(m.getOp())) {
             builder.in("IBUF", "ILEN");
         } else {
@@ -0,0 +1,36 @@
+package com.unyaunya.minic.backend;
+
+/**
+ * CASL2 mnemonics emitted by {@link Casl2Builder}; {@link #COMMENT} marks a
+ * line with no instruction.
+ */
+public enum Casl2Op {
+    COMMENT(""),
+    // assembler instructions
+    START, END, DS, DC,
+    // machine instructions
+    LD, LAD, ST, ADDA, ADDL, SUBA, SUBL, AND, OR, XOR, CPA, CPL, SLA, SLL, SRA, SRL,
+    JOV, JPL, JMI, JZE, JNZ, JUMP, PUSH, POP, CALL, RET, SVC, NOP,
+    // macro instructions
+    IN, OUT, RPUSH, RPOP;
+
+    private static final Casl2Op[] VALUES = values();
+
+    private final String mnemonic;
+
+    Casl2Op() {
+        this.mnemonic = name();
+    }
+
+    Casl2Op(String mnemonic) {
+        this.mnemonic = mnemonic;
+    }
+
+    public String getMnemonic() {
+        return mnemonic;
+    }
+
+    static Casl2Op of(int ordinal) {
+        return VALUES[ordinal];
+    }
+}
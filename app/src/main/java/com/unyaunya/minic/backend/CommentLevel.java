@@ -0,0 +1,17 @@
+package com.unyaunya.minic.backend;
+
+/**
+ * How much commentary {@link Casl2Builder} puts into the generated assembly.
+ */
+public enum CommentLevel {
+    /** Instructions only. */
+    NONE,
+    /** The source of each function and statement. */
+    SOURCE,
+    /** Also the operands, one comment per operator chain and cut to a line, and instruction notes. */
+    FULL;
+
+    public boolean includes(CommentLevel level) {
+        return compareTo(level) >= 0;
+    }
+}
@@ -0,0 +1,120 @@
+package com.unyaunya.minic.backend;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import com.unyaunya.minic.ast.*;
+
+/**
+ * Renders an expression like its toString() for a comment, but stops once
+ * the text is longer than the comment may be, so the cost of a comment
+ * doesn't depend on the size of the expression.
+ */
+final class ExprText {
+    private final StringBuilder sb = new StringBuilder();
+    private final int max;
+
+    private ExprText(int max) {
+        this.max = max;
+    }
+
+    /**
+     * @return the text of {@code e}, cut to {@code max} characters ending in "..." if it is longer
+     */
+    static String of(Expr e, int max) {
+        return of("", List.of(e), "", "", max);
+    }
+
+    /**
+     * @return the texts of {@code exprs} between {@code separator}s, enclosed
+     *         in {@code prefix} and {@code suffix} and cut like {@link #of(Expr, int)}
+     */
+    static String of(String prefix, List<? extends Expr> exprs, String separator, String suffix, int max) {
+        ExprText text = new ExprText(max);
+        text.append(prefix);
+        text.renderAll(exprs, separator);
+        text.append(suffix);
+        StringBuilder sb = text.sb;
+        if (sb.length() > max) {
+            sb.setLength(max - 3);
+            sb.append("...");
+        }
+        return sb.toString();
+    }
+
+    private boolean isFull() {
+        return sb.length() > max;
+    }
+
+    private void append(String s) {
+        int room = max + 1 - sb.length();
+        if (room > 0) {
+            sb.append(s, 0, Math.min(s.length(), room));
+        }
+    }
+
+    private void render(Expr e) {
+        if (isFull()) {
+            return;
+        }
+        switch (e) {
+            case IntLit lit -> append(Integer.toString(lit.getValue()));
+            case StringLit lit -> {
+                append("'");
+                append(lit.getValue());
+                append("'");
+            }
+            case VarRef v -> append(v.getName());
+            case LvVar v -> append(v.getName());
+            case AddressOf a -> append("&" + a.getName());
+            case PtrDeref p -> enclosed("(*", p.getExpr(), ")");
+            case LvPtrDeref p -> enclosed("(*", p.getExpr(), ")");
+            case Cast c -> enclosed("(" + c.getType() + ")", c.getExpr(), "");
+            case ArrayElem a -> enclosed(a.getName() + "[", a.getExpr(), "]");
+            case LvArrayElem a -> enclosed(a.getName() + "[", a.getExpr(), "]");
+            case LogicalNot n -> enclosed("!", n.getExpr(), "");
+            case UnaryNeg u -> enclosed("-", u.getExpr(), "");
+            case Call c -> {
+                append(c.getName() + "(");
+                renderAll(c.getArgs(), ", ");
+                append(")");
+            }
+            case Binary b -> renderChain(b);
+            default -> append(e.toString());
+        }
+    }
+
+    private void renderAll(List<? extends Expr> exprs, String separator) {
+        for (int i = 0; i < exprs.size() && !isFull(); i++) {
+            if (i > 0) {
+                append(separator);
+            }
+            render(exprs.get(i));
+        }
+    }
+
+    private void enclosed(String before, Expr e, String after) {
+        append(before);
+        render(e);
+        append(after);
+    }
+
+    // like Binary.toString(): a+b+c+... nests to the left
+    private void renderChain(Binary top) {
+        Deque<Binary> chain = new ArrayDeque<>();
+        Expr e = top;
+        while (e instanceof Binary b) {
+            chain.push(b);
+            e = b.getLeft();
+        }
+        render(e);
+        for (Binary b : chain) {
+            if (isFull()) {
+                return;
+            }
+            append(b.getOp().toString());
+            render(b.getRight());
+        }
+    }
+}
@@ -0,0 +1,69 @@
+package com.unyaunya.minic.backend;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.hash.HashCode;
+import com.unyaunya.minic.ast.FunctionDecl;
+
+/**
+ * Process-wide cache of emitted function code by {@link FunctionKey}, so a
+ * compile server or a batch recompiling an edited program analyzes and
+ * emits only the functions whose key changed, and links the cached code of
+ * the others.
+ *
+ * Only code of programs compiled without errors should be put, as the code
+ * of a function is emitted assuming its body passed semantic analysis.
+ */
+public class FunctionCache {
+    private static final FunctionCache SHARED = new FunctionCache(16384);
+
+    private final Cache<HashCode, FunctionCode> functions;
+
+    public FunctionCache(long maximumSize) {
+        this.functions = CacheBuilder.newBuilder().maximumSize(maximumSize).recordStats().build();
+    }
+
+    public static FunctionCache shared() {
+        return SHARED;
+    }
+
+    /**
+     * @return the cached code of the functions of {@code keys} that have one
+     */
+    public Map<FunctionDecl, FunctionCode> getAll(Map<FunctionDecl, HashCode> keys) {
+        Map<FunctionDecl, FunctionCode> found = new LinkedHashMap<>();
+        for (Map.Entry<FunctionDecl, HashCode> entry : keys.entrySet()) {
+            FunctionCode code = functions.getIfPresent(entry.getValue());
+            if (code != null) {
+                found.put(entry.getKey(), code);
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Caches the code of each function of {@code emitted} under its key.
+     * Comments are rendered first, so the cache doesn't keep the AST alive.
+     */
+    public void putAll(Map<FunctionDecl, HashCode> keys, Map<FunctionDecl, FunctionCode> emitted) {
+        for (Map.Entry<FunctionDecl, FunctionCode> entry : emitted.entrySet()) {
+            HashCode key = keys.get(entry.getKey());
+            if (key != null) {
+                entry.getValue().getCode().renderComments();
+                functions.put(key, entry.getValue());
+            }
+        }
+    }
+
+    public CacheStats stats() {
+        return functions.stats();
+    }
+
+    public void clear() {
+        functions.invalidateAll();
+    }
+}
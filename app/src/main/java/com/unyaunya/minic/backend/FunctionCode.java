@@ -0,0 +1,47 @@
+package com.unyaunya.minic.backend;
+
+import java.util.Collections;
+import java.util.SortedSet;
+
+/**
+ * Code of one function as {@link Casl2Emitter} emits it before linking:
+ * its labels are numbered from 1 per label generator, and string literals
+ * are referred to by their value, so the code does not depend on the rest
+ * of the program.
+ */
+public final class FunctionCode {
+    private final Casl2Builder code;
+    private final SortedSet<String> strings;
+    private final int[] labelCounts;
+
+    FunctionCode(Casl2Builder code, SortedSet<String> strings, int[] labelCounts) {
+        this.code = code;
+        this.strings = Collections.unmodifiableSortedSet(strings);
+        this.labelCounts = labelCounts;
+    }
+
+    Casl2Builder getCode() {
+        return code;
+    }
+
+    /**
+     * @return the string literals the code uses
+     */
+    public SortedSet<String> getStrings() {
+        return strings;
+    }
+
+    /**
+     * @return the number of labels taken from each label generator of the emitter
+     */
+    int[] getLabelCounts() {
+        return labelCounts;
+    }
+
+    /**
+     * @return the number of instructions and comment lines
+     */
+    public int size() {
+        return code.size();
+    }
+}
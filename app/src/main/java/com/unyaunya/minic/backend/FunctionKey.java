@@ -0,0 +1,204 @@
+package com.unyaunya.minic.backend;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.unyaunya.minic.ast.*;
+
+/**
+ * Content hash of a function for the {@link FunctionCache}.
+ *
+ * It covers everything the code of the function is emitted from: the whole
+ * body, the parameters, the comment level, and the declarations the body
+ * refers to by name, i.e. the types of the globals and the signatures of the
+ * called functions, or their absence. Source locations are not covered, so a
+ * function moved by an edit elsewhere in the file keeps its key.
+ *
+ * The AST is walked with an explicit stack, as expressions can be nested
+ * too deeply for recursion.
+ */
+public final class FunctionKey {
+    private static final Object NULL = new Object();
+    private static final Object END = new Object(); // closes the node whose children were pushed
+
+    private final Hasher hasher = Hashing.murmur3_128().newHasher();
+    private final SortedSet<String> names = new TreeSet<>();
+    private final SortedSet<String> callees = new TreeSet<>();
+
+    private FunctionKey() {
+    }
+
+    /**
+     * @return the key of each function of {@code program}, in declaration order
+     */
+    public static Map<FunctionDecl, HashCode> of(Program program, CommentLevel commentLevel) {
+        Map<String, GlobalDecl> globals = new HashMap<>();
+        for (GlobalDecl g : program.getGlobals()) {
+            globals.put(g.getName(), g);
+        }
+        Map<String, FunctionDecl> functions = new HashMap<>();
+        for (FunctionDecl f : program.getFunctions()) {
+            functions.put(f.getName(), f);
+        }
+        Map<FunctionDecl, HashCode> keys = new LinkedHashMap<>();
+        for (FunctionDecl f : program.getFunctions()) {
+            keys.put(f, new FunctionKey().hash(f, globals, functions, commentLevel));
+        }
+        return keys;
+    }
+
+    private HashCode hash(FunctionDecl f, Map<String, GlobalDecl> globals, Map<String, FunctionDecl> functions, CommentLevel commentLevel) {
+        hasher.putInt(commentLevel.ordinal());
+        signature(f);
+        walk(f.getBody());
+        for (String name : names) {
+            string(name);
+            GlobalDecl g = globals.get(name);
+            if (g == null) {
+                hasher.putByte((byte) 0);
+            } else {
+                hasher.putByte((byte) 1);
+                type(g.getType());
+            }
+        }
+        for (String name : callees) {
+            string(name);
+            FunctionDecl callee = functions.get(name);
+            if (callee == null) {
+                hasher.putByte((byte) 0);
+            } else {
+                hasher.putByte((byte) 1);
+                signature(callee);
+            }
+        }
+        return hasher.hash();
+    }
+
+    private void walk(Node root) {
+        Deque<Object> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            Object item = pending.pop();
+            if (item == NULL) {
+                hasher.putByte((byte) 0);
+                continue;
+            }
+            if (item == END) {
+                hasher.putByte((byte) 1);
+                continue;
+            }
+            hasher.putString(item.getClass().getSimpleName(), StandardCharsets.UTF_8);
+            // children are pushed last first, so they are hashed in order
+            pending.push(END);
+            switch (item) {
+                case Block b -> push(pending, b.getStatements());
+                case VarDecl v -> {
+                    type(v.getType());
+                    string(v.getName());
+                    push(pending, v.getInit());
+                }
+                case Assign a -> {
+                    push(pending, a.getExpr());
+                    push(pending, a.getLvalue());
+                }
+                case ExprStmt e -> push(pending, e.getExpr());
+                case IfStmt i -> {
+                    push(pending, i.getElseBlock());
+                    push(pending, i.getThenBlock());
+                    push(pending, i.getCond());
+                }
+                case WhileStmt w -> {
+                    push(pending, w.getBody());
+                    push(pending, w.getCond());
+                }
+                case ForStmt s -> {
+                    push(pending, s.getBody());
+                    push(pending, s.getUpdate());
+                    push(pending, s.getCond());
+                    push(pending, s.getInit());
+                }
+                case ReturnStmt r -> push(pending, r.getValue());
+                case MacroStmt m -> string(m.getOp());
+                case Call c -> {
+                    string(c.getName());
+                    callees.add(c.getName());
+                    push(pending, c.getArgs());
+                }
+                case Binary b -> {
+                    hasher.putInt(b.getOp().ordinal());
+                    push(pending, b.getRight());
+                    push(pending, b.getLeft());
+                }
+                case IntLit i -> hasher.putInt(i.getValue());
+                case StringLit s -> string(s.getValue());
+                case VarRef v -> name(v.getName());
+                case LvVar v -> name(v.getName());
+                case AddressOf a -> name(a.getName());
+                case ArrayElem a -> {
+                    name(a.getName());
+                    push(pending, a.getExpr());
+                }
+                case LvArrayElem a -> {
+                    name(a.getName());
+                    push(pending, a.getExpr());
+                }
+                case PtrDeref p -> push(pending, p.getExpr());
+                case LvPtrDeref p -> push(pending, p.getExpr());
+                case UnaryNeg u -> push(pending, u.getExpr());
+                case LogicalNot n -> push(pending, n.getExpr());
+                case Cast c -> {
+                    type(c.getType());
+                    push(pending, c.getExpr());
+                }
+                default -> throw new IllegalArgumentException("Unknown node: " + item.getClass().getName());
+            }
+        }
+    }
+
+    private static void push(Deque<Object> pending, Object node) {
+        pending.push((node == null) ? NULL : node);
+    }
+
+    private void push(Deque<Object> pending, List<? extends Node> nodes) {
+        hasher.putInt(nodes.size());
+        for (int i = nodes.size() - 1; i >= 0; i--) {
+            push(pending, nodes.get(i));
+        }
+    }
+
+    private void name(String name) {
+        string(name);
+        names.add(name);
+    }
+
+    private void signature(FunctionDecl f) {
+        string(f.getName());
+        type(f.getReturnType());
+        hasher.putInt(f.getParams().size());
+        for (Param p : f.getParams()) {
+            type(p.getType());
+            string(p.getName());
+        }
+    }
+
+    private void type(TypeSpec t) {
+        hasher.putInt(t.getBaseType().ordinal());
+        hasher.putInt(t.getPointerDepth());
+        hasher.putInt((t.getArraySize() == null) ? -1 : t.getArraySize());
+    }
+
+    private void string(String s) {
+        hasher.putInt(s.length());
+        hasher.putString(s, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,37 @@
+package com.unyaunya.minic.comet2;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * In-memory {@link Comet2Io}: input records are given up front and
+ * output records are collected for inspection.
+ */
+public class BufferedIo implements Comet2Io {
+    private final Deque<String> input;
+    private final List<String> output = new ArrayList<>();
+
+    public BufferedIo(String... input) {
+        this(List.of(input));
+    }
+
+    public BufferedIo(List<String> input) {
+        this.input = new ArrayDeque<>(input);
+    }
+
+    @Override
+    public String read() {
+        return input.pollFirst();
+    }
+
+    @Override
+    public void write(String record) {
+        output.add(record);
+    }
+
+    public List<String> getOutput() {
+        return output;
+    }
+}
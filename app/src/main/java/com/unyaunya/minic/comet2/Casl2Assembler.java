@@ -0,0 +1,376 @@
+package com.unyaunya.minic.comet2;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.unyaunya.minic.MinicException;
+
+/**
+ * Two-pass assembler for the CASL2 text produced by Casl2Builder.
+ *
+ * Supports the assembler instructions START/END/DS/DC, all COMET2 machine
+ * instructions, the IN/OUT/RPUSH/RPOP macros and literals (=n, =#hex, ='str').
+ * Literals are placed right after the last statement of the program.
+ */
+public class Casl2Assembler {
+    private static final Set<String> RR_CAPABLE = Set.of(
+            "LD", "ADDA", "SUBA", "ADDL", "SUBL", "AND", "OR", "XOR", "CPA", "CPL");
+    private static final Map<String, Integer> OPCODES = Map.ofEntries(
+            Map.entry("NOP", Opcodes.NOP),
+            Map.entry("LD", Opcodes.LD),
+            Map.entry("ST", Opcodes.ST),
+            Map.entry("LAD", Opcodes.LAD),
+            Map.entry("ADDA", Opcodes.ADDA),
+            Map.entry("SUBA", Opcodes.SUBA),
+            Map.entry("ADDL", Opcodes.ADDL),
+            Map.entry("SUBL", Opcodes.SUBL),
+            Map.entry("AND", Opcodes.AND),
+            Map.entry("OR", Opcodes.OR),
+            Map.entry("XOR", Opcodes.XOR),
+            Map.entry("CPA", Opcodes.CPA),
+            Map.entry("CPL", Opcodes.CPL),
+            Map.entry("SLA", Opcodes.SLA),
+            Map.entry("SRA", Opcodes.SRA),
+            Map.entry("SLL", Opcodes.SLL),
+            Map.entry("SRL", Opcodes.SRL),
+            Map.entry("JMI", Opcodes.JMI),
+            Map.entry("JNZ", Opcodes.JNZ),
+            Map.entry("JZE", Opcodes.JZE),
+            Map.entry("JUMP", Opcodes.JUMP),
+            Map.entry("JPL", Opcodes.JPL),
+            Map.entry("JOV", Opcodes.JOV),
+            Map.entry("PUSH", Opcodes.PUSH),
+            Map.entry("POP", Opcodes.POP),
+            Map.entry("CALL", Opcodes.CALL),
+            Map.entry("RET", Opcodes.RET),
+            Map.entry("SVC", Opcodes.SVC));
+
+    private static class Statement {
+        final int line;
+        final String label;
+        final String mnemonic;
+        final List<String> operands;
+        int address;
+
+        Statement(int line, String label, String mnemonic, List<String> operands) {
+            this.line = line;
+            this.label = label;
+            this.mnemonic = mnemonic;
+            this.operands = operands;
+        }
+    }
+
+    private final List<Statement> statements = new ArrayList<>();
+    private final Map<String, Integer> labels = new HashMap<>();
+    private final Map<String, Integer> literals = new LinkedHashMap<>();
+    private String entryLabel;
+
+    public Comet2Program assemble(String source) throws MinicException {
+        statements.clear();
+        labels.clear();
+        literals.clear();
+        entryLabel = null;
+
+        String[] lines = source.split("\r?\n");
+        for (int i = 0; i < lines.length; i++) {
+            parseLine(i + 1, lines[i]);
+        }
+
+        // Pass 1: addresses
+        int address = 0;
+        for (Statement s : statements) {
+            s.address = address;
+            if (s.label != null) {
+                if (labels.putIfAbsent(s.label, address) != null) {
+                    throw error(s, "Duplicate label: " + s.label);
+                }
+            }
+            address += sizeOf(s);
+        }
+        for (Map.Entry<String, Integer> lit : literals.entrySet()) {
+            lit.setValue(address);
+            address += constantSize(lit.getKey().substring(1));
+        }
+        if (address > 0x10000) {
+            throw new MinicException("Program does not fit in memory: %d words", address);
+        }
+
+        // Pass 2: object code
+        int[] words = new int[address];
+        for (Statement s : statements) {
+            encode(s, words);
+        }
+        for (Map.Entry<String, Integer> lit : literals.entrySet()) {
+            writeConstant(null, lit.getKey().substring(1), words, lit.getValue());
+        }
+
+        int entry = 0;
+        if (entryLabel != null) {
+            Integer adr = labels.get(entryLabel);
+            if (adr == null) {
+                throw new MinicException("Undefined entry label: %s", entryLabel);
+            }
+            entry = adr;
+        }
+        int stackBase = -1;
+        int stackTop = -1;
+        for (Statement s : statements) {
+            if ("STACK".equals(s.label) && "DS".equals(s.mnemonic)) {
+                stackBase = s.address;
+                stackTop = s.address + sizeOf(s);
+            }
+        }
+        return new Comet2Program(words, entry, new HashMap<>(labels), stackBase, stackTop);
+    }
+
+    // ----------------------
+    // Parsing
+    // ----------------------
+    private void parseLine(int lineNo, String line) {
+        String text = stripComment(line);
+        if (text.isBlank()) {
+            return;
+        }
+        String label = null;
+        int pos = 0;
+        if (!Character.isWhitespace(text.charAt(0))) {
+            while (pos < text.length() && !Character.isWhitespace(text.charAt(pos))) pos++;
+            label = text.substring(0, pos);
+        }
+        String rest = text.substring(pos).trim();
+        int sp = 0;
+        while (sp < rest.length() && !Character.isWhitespace(rest.charAt(sp))) sp++;
+        String mnemonic = rest.substring(0, sp);
+        if (mnemonic.isEmpty()) {
+            throw new MinicException("line %d: Missing instruction after label %s", lineNo, label);
+        }
+        List<String> operands = splitOperands(rest.substring(sp).trim());
+        for (String op : operands) {
+            if (op.startsWith("=")) {
+                literals.putIfAbsent(op, 0);
+            }
+        }
+        switch (mnemonic) {
+            case "START" -> {
+                if (!operands.isEmpty()) entryLabel = operands.get(0);
+                statements.add(new Statement(lineNo, label, mnemonic, operands));
+            }
+            case "IN", "OUT" -> {
+                expectOperands(lineNo, mnemonic, operands, 2);
+                String svc = "IN".equals(mnemonic) ? "1" : "2";
+                statements.add(new Statement(lineNo, label, "PUSH", List.of("0", "GR1")));
+                statements.add(new Statement(lineNo, null, "PUSH", List.of("0", "GR2")));
+                statements.add(new Statement(lineNo, null, "LAD", List.of("GR1", operands.get(0))));
+                statements.add(new Statement(lineNo, null, "LAD", List.of("GR2", operands.get(1))));
+                statements.add(new Statement(lineNo, null, "SVC", List.of(svc)));
+                statements.add(new Statement(lineNo, null, "POP", List.of("GR2")));
+                statements.add(new Statement(lineNo, null, "POP", List.of("GR1")));
+            }
+            case "RPUSH" -> {
+                for (int r = 1; r <= 7; r++) {
+                    statements.add(new Statement(lineNo, r == 1 ? label : null, "PUSH", List.of("0", "GR" + r)));
+                }
+            }
+            case "RPOP" -> {
+                for (int r = 7; r >= 1; r--) {
+                    statements.add(new Statement(lineNo, r == 7 ? label : null, "POP", List.of("GR" + r)));
+                }
+            }
+            default -> statements.add(new Statement(lineNo, label, mnemonic, operands));
+        }
+    }
+
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ';' && !quoted) {
+                return line.substring(0, i);
+            }
+        }
+        return line;
+    }
+
+    private static List<String> splitOperands(String field) {
+        List<String> operands = new ArrayList<>();
+        if (field.isEmpty()) {
+            return operands;
+        }
+        boolean quoted = false;
+        int start = 0;
+        for (int i = 0; i < field.length(); i++) {
+            char c = field.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == ',' && !quoted) {
+                operands.add(field.substring(start, i).trim());
+                start = i + 1;
+            }
+        }
+        operands.add(field.substring(start).trim());
+        return operands;
+    }
+
+    private static void expectOperands(int lineNo, String mnemonic, List<String> operands, int count) {
+        if (operands.size() != count) {
+            throw new MinicException("line %d: %s takes %d operands", lineNo, mnemonic, count);
+        }
+    }
+
+    // ----------------------
+    // Sizes
+    // ----------------------
+    private int sizeOf(Statement s) {
+        switch (s.mnemonic) {
+            case "START", "END":
+                return 0;
+            case "DS":
+                return parseNumber(s, s.operands.get(0));
+            case "DC": {
+                int size = 0;
+                for (String c : s.operands) size += constantSize(c);
+                return size;
+            }
+            case "NOP", "RET", "POP":
+                return 1;
+            default:
+                if (RR_CAPABLE.contains(s.mnemonic) && isRegisterPair(s.operands)) {
+                    return 1;
+                }
+                return 2;
+        }
+    }
+
+    private static int constantSize(String constant) {
+        if (constant.startsWith("'")) {
+            return decodeString(constant).length();
+        }
+        return 1;
+    }
+
+    private static boolean isRegisterPair(List<String> operands) {
+        return operands.size() == 2 && register(operands.get(0)) >= 0 && register(operands.get(1)) >= 0;
+    }
+
+    private static int register(String operand) {
+        if (operand.length() == 3 && operand.startsWith("GR")) {
+            char c = operand.charAt(2);
+            if (c >= '0' && c <= '7') {
+                return c - '0';
+            }
+        }
+        return -1;
+    }
+
+    // ----------------------
+    // Encoding
+    // ----------------------
+    private void encode(Statement s, int[] words) {
+        int adr = s.address;
+        List<String> ops = s.operands;
+        switch (s.mnemonic) {
+            case "START", "END", "DS" -> { }
+            case "DC" -> {
+                for (String c : ops) {
+                    adr = writeConstant(s, c, words, adr);
+                }
+            }
+            case "NOP", "RET" -> words[adr] = OPCODES.get(s.mnemonic) << 8;
+            case "POP" -> words[adr] = (Opcodes.POP << 8) | (reg(s, ops, 0) << 4);
+            case "JMI", "JNZ", "JZE", "JUMP", "JPL", "JOV", "PUSH", "CALL", "SVC" -> {
+                if (ops.isEmpty() || ops.size() > 2) throw error(s, "Illegal operands for " + s.mnemonic);
+                words[adr] = (OPCODES.get(s.mnemonic) << 8) | index(s, ops, 1);
+                words[adr + 1] = address(s, ops.get(0));
+            }
+            default -> {
+                Integer opcode = OPCODES.get(s.mnemonic);
+                if (opcode == null) throw error(s, "Unknown instruction: " + s.mnemonic);
+                if (ops.size() < 2 || ops.size() > 3) throw error(s, "Illegal operands for " + s.mnemonic);
+                int r = reg(s, ops, 0);
+                if (RR_CAPABLE.contains(s.mnemonic) && isRegisterPair(ops)) {
+                    // register-register form: opcode + 4
+                    int code = "LD".equals(s.mnemonic) ? Opcodes.LD_R : opcode + 4;
+                    words[adr] = (code << 8) | (r << 4) | register(ops.get(1));
+                } else {
+                    words[adr] = (opcode << 8) | (r << 4) | index(s, ops, 2);
+                    words[adr + 1] = address(s, ops.get(1));
+                }
+            }
+        }
+    }
+
+    private int reg(Statement s, List<String> ops, int i) {
+        int r = (i < ops.size()) ? register(ops.get(i)) : -1;
+        if (r < 0) {
+            throw error(s, "Register expected for " + s.mnemonic);
+        }
+        return r;
+    }
+
+    private int index(Statement s, List<String> ops, int i) {
+        if (i >= ops.size()) {
+            return 0;
+        }
+        int x = register(ops.get(i));
+        if (x <= 0) {
+            throw error(s, "GR1-GR7 expected as index register: " + ops.get(i));
+        }
+        return x;
+    }
+
+    private int address(Statement s, String operand) {
+        if (operand.startsWith("=")) {
+            return literals.get(operand);
+        }
+        if (operand.startsWith("#") || operand.startsWith("-") || Character.isDigit(operand.charAt(0))) {
+            return parseNumber(s, operand) & 0xFFFF;
+        }
+        Integer adr = labels.get(operand);
+        if (adr == null) {
+            throw error(s, "Undefined label: " + operand);
+        }
+        return adr;
+    }
+
+    private int writeConstant(Statement s, String constant, int[] words, int adr) {
+        if (constant.startsWith("'")) {
+            for (char c : decodeString(constant).toCharArray()) {
+                words[adr++] = c & 0xFFFF;
+            }
+            return adr;
+        }
+        words[adr] = address(s, constant);
+        return adr + 1;
+    }
+
+    private static String decodeString(String constant) {
+        if (constant.length() < 2 || !constant.endsWith("'")) {
+            throw new MinicException("Unterminated string constant: %s", constant);
+        }
+        return constant.substring(1, constant.length() - 1).replace("''", "'");
+    }
+
+    private static int parseNumber(Statement s, String text) {
+        try {
+            if (text.startsWith("#")) {
+                return Integer.parseInt(text.substring(1), 16);
+            }
+            return Integer.parseInt(text);
+        } catch (NumberFormatException e) {
+            throw error(s, "Illegal number: " + text);
+        }
+    }
+
+    private static MinicException error(Statement s, String msg) {
+        if (s == null) {
+            return new MinicException(msg);
+        }
+        return new MinicException("line %d: %s", s.line, msg);
+    }
+}
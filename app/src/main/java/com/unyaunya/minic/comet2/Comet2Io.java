@@ -0,0 +1,17 @@
+package com.unyaunya.minic.comet2;
+
+/**
+ * Character device behind the IN/OUT macros (SVC 1 and SVC 2).
+ */
+public interface Comet2Io {
+    /**
+     * Reads one input record for IN.
+     * @return the record without line terminator, or null at end of input
+     */
+    String read();
+
+    /**
+     * Writes one output record produced by OUT.
+     */
+    void write(String record);
+}
@@ -0,0 +1,296 @@
+package com.unyaunya.minic.comet2;
+
+import com.unyaunya.minic.MinicException;
+
+import lombok.Getter;
+
+/**
+ * In-process COMET2 simulator.
+ *
+ * The program is loaded at address 0 and started from its entry point with
+ * SP at 0, so the first PUSH/CALL uses the top of memory. Execution stops when
+ * the outermost RET returns to the (virtual) operating system.
+ *
+ * Counters:
+ * - instructionCount: instructions executed, a macro counts as its expansion
+ * - memoryReads/memoryWrites: data accesses, instruction fetches excluded
+ * - cycles: a simple cost model of one cycle per instruction word fetched
+ *   plus one per data access
+ * - maxStackDepth: deepest GR7 below the top of the STACK area, in words
+ * - maxCallDepth: deepest SP below its initial value, in words
+ */
+public class Comet2Machine {
+    public static final int MEMORY_SIZE = 0x10000;
+    public static final long DEFAULT_STEP_LIMIT = 100_000_000L;
+    private static final int MAX_RECORD = 256;
+
+    private final Comet2Program program;
+    private final Comet2Io io;
+    private final int[] memory = new int[MEMORY_SIZE];
+    private final int[] gr = new int[8];
+    @Getter private int pr;
+    @Getter private int sp;
+    @Getter private boolean overflowFlag;
+    @Getter private boolean signFlag;
+    @Getter private boolean zeroFlag;
+    @Getter private boolean halted;
+
+    @Getter private long instructionCount;
+    @Getter private long memoryReads;
+    @Getter private long memoryWrites;
+    @Getter private long cycles;
+    @Getter private int maxStackDepth;
+    @Getter private int maxCallDepth;
+
+    public Comet2Machine(Comet2Program program, Comet2Io io) {
+        this.program = program;
+        this.io = io;
+        System.arraycopy(program.getWords(), 0, memory, 0, program.size());
+        this.pr = program.getEntry();
+        this.sp = 0;
+    }
+
+    public int getRegister(int r) {
+        return gr[r];
+    }
+
+    public void setRegister(int r, int value) {
+        gr[r] = value & 0xFFFF;
+    }
+
+    public int peek(int address) {
+        return memory[address & 0xFFFF];
+    }
+
+    public void poke(int address, int value) {
+        memory[address & 0xFFFF] = value & 0xFFFF;
+    }
+
+    public void run() throws MinicException {
+        run(DEFAULT_STEP_LIMIT);
+    }
+
+    /**
+     * Runs until the program returns to the OS.
+     * @param stepLimit maximum number of instructions, to stop runaway programs
+     */
+    public void run(long stepLimit) throws MinicException {
+        long limit = instructionCount + stepLimit;
+        while (!halted) {
+            if (instructionCount >= limit) {
+                throw new MinicException("Step limit of %d instructions exceeded at PR=#%04X", stepLimit, pr);
+            }
+            step();
+        }
+    }
+
+    public void step() throws MinicException {
+        int start = pr;
+        int w = fetch();
+        int op = w >>> 8;
+        int r = (w >>> 4) & 0xF;
+        int x = w & 0xF;
+        instructionCount++;
+        if (r > 7 || x > 7) {
+            throw illegal(start, w);
+        }
+        switch (op) {
+            case Opcodes.NOP -> { }
+            case Opcodes.LD -> setLogical(r, read(effectiveAddress(x)));
+            case Opcodes.ST -> write(effectiveAddress(x), gr[r]);
+            case Opcodes.LAD -> gr[r] = effectiveAddress(x);
+            case Opcodes.LD_R -> setLogical(r, gr[x]);
+            case Opcodes.ADDA -> addArithmetic(r, read(effectiveAddress(x)));
+            case Opcodes.SUBA -> addArithmetic(r, -toSigned(read(effectiveAddress(x))));
+            case Opcodes.ADDL -> addLogical(r, read(effectiveAddress(x)));
+            case Opcodes.SUBL -> addLogical(r, -read(effectiveAddress(x)));
+            case Opcodes.ADDA_R -> addArithmetic(r, toSigned(gr[x]));
+            case Opcodes.SUBA_R -> addArithmetic(r, -toSigned(gr[x]));
+            case Opcodes.ADDL_R -> addLogical(r, gr[x]);
+            case Opcodes.SUBL_R -> addLogical(r, -gr[x]);
+            case Opcodes.AND -> setLogical(r, gr[r] & read(effectiveAddress(x)));
+            case Opcodes.OR -> setLogical(r, gr[r] | read(effectiveAddress(x)));
+            case Opcodes.XOR -> setLogical(r, gr[r] ^ read(effectiveAddress(x)));
+            case Opcodes.AND_R -> setLogical(r, gr[r] & gr[x]);
+            case Opcodes.OR_R -> setLogical(r, gr[r] | gr[x]);
+            case Opcodes.XOR_R -> setLogical(r, gr[r] ^ gr[x]);
+            case Opcodes.CPA -> compare(toSigned(gr[r]), toSigned(read(effectiveAddress(x))));
+            case Opcodes.CPL -> compare(gr[r], read(effectiveAddress(x)));
+            case Opcodes.CPA_R -> compare(toSigned(gr[r]), toSigned(gr[x]));
+            case Opcodes.CPL_R -> compare(gr[r], gr[x]);
+            case Opcodes.SLA, Opcodes.SRA, Opcodes.SLL, Opcodes.SRL -> shift(op, r, effectiveAddress(x));
+            case Opcodes.JMI -> jumpIf(signFlag, x);
+            case Opcodes.JNZ -> jumpIf(!zeroFlag, x);
+            case Opcodes.JZE -> jumpIf(zeroFlag, x);
+            case Opcodes.JUMP -> jumpIf(true, x);
+            case Opcodes.JPL -> jumpIf(!signFlag && !zeroFlag, x);
+            case Opcodes.JOV -> jumpIf(overflowFlag, x);
+            case Opcodes.PUSH -> push(effectiveAddress(x));
+            case Opcodes.POP -> gr[r] = pop();
+            case Opcodes.CALL -> {
+                int target = effectiveAddress(x);
+                push(pr);
+                pr = target;
+            }
+            case Opcodes.RET -> {
+                if (sp == 0) {
+                    halted = true;
+                } else {
+                    pr = pop();
+                }
+            }
+            case Opcodes.SVC -> supervisorCall(effectiveAddress(x));
+            default -> throw illegal(start, w);
+        }
+        trackStack();
+    }
+
+    // ----------------------
+    // Helpers
+    // ----------------------
+    private int fetch() {
+        int w = memory[pr];
+        pr = (pr + 1) & 0xFFFF;
+        cycles++;
+        return w;
+    }
+
+    private int effectiveAddress(int x) {
+        int adr = fetch();
+        return (x == 0) ? adr : (adr + gr[x]) & 0xFFFF;
+    }
+
+    private int read(int address) {
+        memoryReads++;
+        cycles++;
+        return memory[address];
+    }
+
+    private void write(int address, int value) {
+        memoryWrites++;
+        cycles++;
+        memory[address] = value & 0xFFFF;
+    }
+
+    private void push(int value) {
+        sp = (sp - 1) & 0xFFFF;
+        write(sp, value);
+    }
+
+    private int pop() {
+        int value = read(sp);
+        sp = (sp + 1) & 0xFFFF;
+        return value;
+    }
+
+    private void jumpIf(boolean condition, int x) {
+        int target = effectiveAddress(x);
+        if (condition) {
+            pr = target;
+        }
+    }
+
+    private static int toSigned(int w) {
+        return (short) w;
+    }
+
+    private void setLogical(int r, int value) {
+        gr[r] = value & 0xFFFF;
+        overflowFlag = false;
+        setSignAndZero(gr[r]);
+    }
+
+    private void setSignAndZero(int w) {
+        signFlag = (w & 0x8000) != 0;
+        zeroFlag = w == 0;
+    }
+
+    private void addArithmetic(int r, int operand) {
+        int result = toSigned(gr[r]) + operand;
+        overflowFlag = result < Short.MIN_VALUE || result > Short.MAX_VALUE;
+        gr[r] = result & 0xFFFF;
+        setSignAndZero(gr[r]);
+    }
+
+    private void addLogical(int r, int operand) {
+        int result = gr[r] + operand;
+        overflowFlag = result < 0 || result > 0xFFFF;
+        gr[r] = result & 0xFFFF;
+        setSignAndZero(gr[r]);
+    }
+
+    private void compare(int a, int b) {
+        overflowFlag = false;
+        signFlag = a < b;
+        zeroFlag = a == b;
+    }
+
+    private void shift(int op, int r, int count) {
+        int v = gr[r];
+        int sign = v & 0x8000;
+        boolean lastOut = false;
+        for (int i = 0; i < count && i < 16; i++) {
+            switch (op) {
+                case Opcodes.SLA -> {
+                    lastOut = (v & 0x4000) != 0;
+                    v = sign | ((v << 1) & 0x7FFF);
+                }
+                case Opcodes.SRA -> {
+                    lastOut = (v & 1) != 0;
+                    v = sign | (v >>> 1); // the sign fills the vacated bit
+                }
+                case Opcodes.SLL -> {
+                    lastOut = (v & 0x8000) != 0;
+                    v = (v << 1) & 0xFFFF;
+                }
+                default -> {
+                    lastOut = (v & 1) != 0;
+                    v = v >>> 1;
+                }
+            }
+        }
+        gr[r] = v;
+        overflowFlag = lastOut;
+        setSignAndZero(v);
+    }
+
+    private void supervisorCall(int code) throws MinicException {
+        switch (code) {
+            case Opcodes.SVC_IN -> {
+                String record = io.read();
+                if (record == null) {
+                    write(gr[2], 0xFFFF); // EOF: length -1
+                    return;
+                }
+                int len = Math.min(record.length(), MAX_RECORD);
+                for (int i = 0; i < len; i++) {
+                    write((gr[1] + i) & 0xFFFF, record.charAt(i));
+                }
+                write(gr[2], len);
+            }
+            case Opcodes.SVC_OUT -> {
+                int len = Math.min(toSigned(read(gr[2])), MAX_RECORD);
+                StringBuilder sb = new StringBuilder(Math.max(len, 0));
+                for (int i = 0; i < len; i++) {
+                    sb.append((char) read((gr[1] + i) & 0xFFFF));
+                }
+                io.write(sb.toString());
+            }
+            default -> throw new MinicException("Unsupported SVC %d at PR=#%04X", code, pr);
+        }
+    }
+
+    private void trackStack() {
+        if (sp != 0) {
+            maxCallDepth = Math.max(maxCallDepth, MEMORY_SIZE - sp);
+        }
+        int top = program.getStackTop();
+        if (top >= 0 && gr[7] >= program.getStackBase() && gr[7] <= top) {
+            maxStackDepth = Math.max(maxStackDepth, top - gr[7]);
+        }
+    }
+
+    private static MinicException illegal(int address, int word) {
+        return new MinicException("Illegal instruction #%04X at #%04X", word, address);
+    }
+}
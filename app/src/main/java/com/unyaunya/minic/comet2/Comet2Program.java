@@ -0,0 +1,35 @@
+package com.unyaunya.minic.comet2;
+
+import java.util.Collections;
+import java.util.Map;
+
+import lombok.Getter;
+
+/**
+ * Object code produced by {@link Casl2Assembler}, loaded at address 0.
+ */
+@Getter
+public class Comet2Program {
+    /** Memory image; each element holds one 16-bit word. */
+    private final int[] words;
+    /** Address execution starts from. */
+    private final int entry;
+    /** Label name -> address. */
+    private final Map<String, Integer> labels;
+    /** Address of the STACK area reserved by the emitter, or -1. */
+    private final int stackBase;
+    /** First address after the STACK area, or -1. */
+    private final int stackTop;
+
+    Comet2Program(int[] words, int entry, Map<String, Integer> labels, int stackBase, int stackTop) {
+        this.words = words;
+        this.entry = entry;
+        this.labels = Collections.unmodifiableMap(labels);
+        this.stackBase = stackBase;
+        this.stackTop = stackTop;
+    }
+
+    public int size() {
+        return words.length;
+    }
+}
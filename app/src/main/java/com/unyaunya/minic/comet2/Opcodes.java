@@ -0,0 +1,51 @@
+package com.unyaunya.minic.comet2;
+
+/**
+ * COMET2 operation codes (the upper byte of the first instruction word).
+ */
+final class Opcodes {
+    static final int NOP = 0x00;
+    static final int LD = 0x10;
+    static final int ST = 0x11;
+    static final int LAD = 0x12;
+    static final int LD_R = 0x14;
+    static final int ADDA = 0x20;
+    static final int SUBA = 0x21;
+    static final int ADDL = 0x22;
+    static final int SUBL = 0x23;
+    static final int ADDA_R = 0x24;
+    static final int SUBA_R = 0x25;
+    static final int ADDL_R = 0x26;
+    static final int SUBL_R = 0x27;
+    static final int AND = 0x30;
+    static final int OR = 0x31;
+    static final int XOR = 0x32;
+    static final int AND_R = 0x34;
+    static final int OR_R = 0x35;
+    static final int XOR_R = 0x36;
+    static final int CPA = 0x40;
+    static final int CPL = 0x41;
+    static final int CPA_R = 0x44;
+    static final int CPL_R = 0x45;
+    static final int SLA = 0x50;
+    static final int SRA = 0x51;
+    static final int SLL = 0x52;
+    static final int SRL = 0x53;
+    static final int JMI = 0x61;
+    static final int JNZ = 0x62;
+    static final int JZE = 0x63;
+    static final int JUMP = 0x64;
+    static final int JPL = 0x65;
+    static final int JOV = 0x66;
+    static final int PUSH = 0x70;
+    static final int POP = 0x71;
+    static final int CALL = 0x80;
+    static final int RET = 0x81;
+    static final int SVC = 0xF0;
+
+    static final int SVC_IN = 1;
+    static final int SVC_OUT = 2;
+
+    private Opcodes() {
+    }
+}
@@ -0,0 +1,356 @@
+package com.unyaunya.minic.frontend;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CommonTokenFactory;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenFactory;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.Vocabulary;
+import org.antlr.v4.runtime.misc.Interval;
+import org.antlr.v4.runtime.misc.Pair;
+
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.preprocess.SegmentedCharStream;
+
+/**
+ * Hand-written replacement for the generated {@link MiniCLexer}.
+ *
+ * It returns the same token types, positions and texts, and reports
+ * unrecognized input with the same messages, but scans a char array with
+ * plain branches instead of simulating the lexer ATN. Token types are taken
+ * from the generated vocabulary, so they follow the grammar. The vocabulary
+ * is read from {@link MiniCParser}, which has the same one, so that the
+ * lexer ATN is never deserialized.
+ *
+ * Like the generated lexer, a failed token skips everything scanned so far
+ * plus the char that could not be matched.
+ */
+public class MiniCScanner implements TokenSource {
+    private static final char[][] KEYWORDS;
+    private static final int[] KEYWORD_TYPES;
+    private static final int[] SINGLE = new int[128]; // token type of each one-char literal, 0 if none
+
+    private static final int LT_EQ = type("'<='");
+    private static final int GT_EQ = type("'>='");
+    private static final int EQ_EQ = type("'=='");
+    private static final int NOT_EQ = type("'!='");
+    private static final int AND = type("'&&'");
+    private static final int OR = type("'||'");
+
+    static {
+        Vocabulary vocabulary = MiniCParser.VOCABULARY;
+        List<String> keywords = new ArrayList<>();
+        List<Integer> types = new ArrayList<>();
+        for (int t = 1; t <= vocabulary.getMaxTokenType(); t++) {
+            String literal = vocabulary.getLiteralName(t);
+            if (literal == null) {
+                continue;
+            }
+            String text = literal.substring(1, literal.length() - 1);
+            if (Character.isLetter(text.charAt(0))) {
+                keywords.add(text);
+                types.add(t);
+            } else if (text.length() == 1) {
+                SINGLE[text.charAt(0)] = t;
+            }
+        }
+        KEYWORDS = keywords.stream().map(String::toCharArray).toArray(char[][]::new);
+        KEYWORD_TYPES = types.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static int type(String literal) {
+        Vocabulary vocabulary = MiniCParser.VOCABULARY;
+        for (int t = 1; t <= vocabulary.getMaxTokenType(); t++) {
+            if (literal.equals(vocabulary.getLiteralName(t))) {
+                return t;
+            }
+        }
+        throw new IllegalStateException("No token " + literal + " in MiniC.g4");
+    }
+
+    private final CharStream input;
+    private final Pair<TokenSource, CharStream> source;
+    private final char[] text;
+    private final List<ANTLRErrorListener> listeners = new ArrayList<>(List.of(ConsoleErrorListener.INSTANCE));
+    private TokenFactory<?> factory = CommonTokenFactory.DEFAULT;
+    private int p;
+    private int line = 1;
+    private int charPositionInLine;
+    // start of the token being scanned
+    private int tokenLine;
+    private int tokenCharPosition;
+    private int tokenType;
+
+    public MiniCScanner(CharStream input) {
+        this.input = input;
+        this.source = new Pair<>(this, input);
+        int size = input.size();
+        if (input instanceof SegmentedCharStream segmented) {
+            text = new char[size];
+            segmented.getChars(0, size, text, 0);
+        } else {
+            text = input.getText(Interval.of(0, size - 1)).toCharArray();
+        }
+    }
+
+    public void addErrorListener(ANTLRErrorListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeErrorListeners() {
+        listeners.clear();
+    }
+
+    @Override
+    public Token nextToken() {
+        char[] t = text;
+        int n = t.length;
+        while (true) {
+            // skip whitespace and comments
+            while (p < n) {
+                char c = t[p];
+                if (c == ' ' || c == '\t' || c == '\r' || c == '\n') {
+                    advance(p + 1);
+                } else if (c == '/' && p + 1 < n && t[p + 1] == '/') {
+                    int q = p + 2;
+                    while (q < n && t[q] != '\r' && t[q] != '\n') {
+                        q++;
+                    }
+                    advance(q);
+                } else if (c == '/' && p + 1 < n && t[p + 1] == '*') {
+                    int close = blockCommentEnd(p + 2);
+                    if (close < 0) {
+                        break; // unterminated: lexed as '/' like the generated lexer does
+                    }
+                    advance(close);
+                } else {
+                    break;
+                }
+            }
+            tokenLine = line;
+            tokenCharPosition = charPositionInLine;
+            int start = p;
+            if (start >= n) {
+                return factory.create(source, Token.EOF, null, Token.DEFAULT_CHANNEL, start, start - 1,
+                        line, charPositionInLine);
+            }
+            int end = scan(start); // > start: end of the token, < 0: ~index of the failing char
+            if (end < 0) {
+                fail(start, ~end);
+                continue;
+            }
+            int type = tokenType;
+            advance(end);
+            return factory.create(source, type, null, Token.DEFAULT_CHANNEL, start, end - 1,
+                    tokenLine, tokenCharPosition);
+        }
+    }
+
+    /**
+     * Scans one token at {@code start} and sets {@link #tokenType}.
+     * @return the index after the token, or the complement of the index of
+     *         the char where no token could be matched
+     */
+    private int scan(int start) {
+        char[] t = text;
+        int n = t.length;
+        char c = t[start];
+        int q = start + 1;
+        if (isDigit(c)) {
+            while (q < n && isDigit(t[q])) {
+                q++;
+            }
+            tokenType = MiniCLexer.INTEGER;
+            return q;
+        }
+        if (isLetter(c)) {
+            while (q < n && (isLetter(t[q]) || isDigit(t[q]))) {
+                q++;
+            }
+            tokenType = keywordType(start, q - start);
+            return q;
+        }
+        switch (c) {
+            case '_' -> {
+                if (q >= n || !isLetter(t[q])) {
+                    return ~q;
+                }
+                while (q < n && (isLetter(t[q]) || isDigit(t[q]))) {
+                    q++;
+                }
+                tokenType = MiniCLexer.MACRO;
+                return q;
+            }
+            case '"' -> {
+                while (q < n && t[q] != '"') {
+                    if (t[q] == '\\') {
+                        q++;
+                        if (q >= n) {
+                            return ~q;
+                        }
+                    } else if (t[q] == '\r' || t[q] == '\n') {
+                        return ~q;
+                    }
+                    q++;
+                }
+                if (q >= n) {
+                    return ~q;
+                }
+                tokenType = MiniCLexer.STRING;
+                return q + 1;
+            }
+            case '\'' -> {
+                if (q >= n || t[q] == '\'' || t[q] == '\r' || t[q] == '\n') {
+                    return ~q;
+                }
+                if (t[q] == '\\') {
+                    q++;
+                    if (q >= n) {
+                        return ~q;
+                    }
+                }
+                q++;
+                if (q >= n || t[q] != '\'') {
+                    return ~q;
+                }
+                tokenType = MiniCLexer.CHARACTER;
+                return q + 1;
+            }
+            case '<', '>', '=', '!' -> {
+                if (q < n && t[q] == '=') {
+                    tokenType = (c == '<') ? LT_EQ : (c == '>') ? GT_EQ : (c == '=') ? EQ_EQ : NOT_EQ;
+                    return q + 1;
+                }
+            }
+            case '&' -> {
+                if (q < n && t[q] == '&') {
+                    tokenType = AND;
+                    return q + 1;
+                }
+            }
+            case '|' -> {
+                if (q < n && t[q] == '|') {
+                    tokenType = OR;
+                    return q + 1;
+                }
+                return ~q;
+            }
+            default -> {
+            }
+        }
+        if (c < SINGLE.length && SINGLE[c] != 0) {
+            tokenType = SINGLE[c];
+            return q;
+        }
+        return ~start;
+    }
+
+    /**
+     * @return the index after the closing "*&#47;", or -1 if there is none
+     */
+    private int blockCommentEnd(int from) {
+        char[] t = text;
+        for (int q = from; q + 1 < t.length; q++) {
+            if (t[q] == '*' && t[q + 1] == '/') {
+                return q + 2;
+            }
+        }
+        return -1;
+    }
+
+    private int keywordType(int start, int length) {
+        for (int k = 0; k < KEYWORDS.length; k++) {
+            char[] keyword = KEYWORDS[k];
+            if (keyword.length == length && Arrays.equals(keyword, 0, length, text, start, start + length)) {
+                return KEYWORD_TYPES[k];
+            }
+        }
+        return MiniCLexer.IDENT;
+    }
+
+    /**
+     * Reports the text from {@code start} through the failing char and skips it.
+     */
+    private void fail(int start, int failed) {
+        int n = text.length;
+        String msg = "token recognition error at: '"
+                + errorDisplay(start, Math.min(failed + 1, n)) + "'";
+        for (ANTLRErrorListener listener : listeners) {
+            listener.syntaxError(null, null, tokenLine, tokenCharPosition, msg, null);
+        }
+        advance(Math.min(failed + 1, n));
+    }
+
+    private String errorDisplay(int from, int to) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = from; i < to; i++) {
+            char c = text[i];
+            switch (c) {
+                case '\n' -> sb.append("\\n");
+                case '\t' -> sb.append("\\t");
+                case '\r' -> sb.append("\\r");
+                default -> sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Moves to {@code to}, keeping the line and column up to date. */
+    private void advance(int to) {
+        char[] t = text;
+        for (int i = p; i < to; i++) {
+            if (t[i] == '\n') {
+                line++;
+                charPositionInLine = 0;
+            } else {
+                charPositionInLine++;
+            }
+        }
+        p = to;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    @Override
+    public int getLine() {
+        return line;
+    }
+
+    @Override
+    public int getCharPositionInLine() {
+        return charPositionInLine;
+    }
+
+    @Override
+    public CharStream getInputStream() {
+        return input;
+    }
+
+    @Override
+    public String getSourceName() {
+        return input.getSourceName();
+    }
+
+    @Override
+    public void setTokenFactory(TokenFactory<?> factory) {
+        this.factory = factory;
+    }
+
+    @Override
+    public TokenFactory<?> getTokenFactory() {
+        return factory;
+    }
+}
@@ -0,0 +1,45 @@
+package com.unyaunya.minic.frontend;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+import org.antlr.v4.runtime.Parser;
+import org.antlr.v4.runtime.atn.DecisionInfo;
+import org.antlr.v4.runtime.atn.DecisionState;
+import org.antlr.v4.runtime.atn.ParseInfo;
+
+/**
+ * Formats the per-decision statistics ANTLR gathers when a parser runs with
+ * {@code setProfile(true)}, most expensive decision first.
+ */
+public final class ParserProfile {
+    private ParserProfile() {
+    }
+
+    public static String report(Parser parser) {
+        ParseInfo info = parser.getParseInfo();
+        if (info == null) {
+            return "Parser profiling was not enabled\n";
+        }
+        DecisionInfo[] decisions = info.getDecisionInfo();
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-4s %-14s %9s %11s %8s %8s %8s %8s %6s %6s%n",
+                "dec", "rule", "invokes", "time(us)", "SLLlook", "SLLmax", "LLlook", "LLmax",
+                "LLfb", "ambig"));
+        Arrays.stream(decisions)
+                .filter(d -> d.invocations > 0)
+                .sorted(Comparator.comparingLong((DecisionInfo d) -> d.timeInPrediction).reversed())
+                .forEach(d -> {
+                    DecisionState state = parser.getATN().getDecisionState(d.decision);
+                    String rule = parser.getRuleNames()[state.ruleIndex];
+                    sb.append(String.format("%-4d %-14s %9d %11.1f %8d %8d %8d %8d %6d %6d%n",
+                            d.decision, rule, d.invocations,
+                            d.timeInPrediction / 1000.0, d.SLL_TotalLook, d.SLL_MaxLook,
+                            d.LL_TotalLook, d.LL_MaxLook, d.LL_Fallback, d.ambiguities.size()));
+                });
+        sb.append(String.format("total prediction time: %.1f us, SLL lookahead: %d, LL lookahead: %d%n",
+                info.getTotalTimeInPrediction() / 1000.0, info.getTotalSLLLookaheadOps(),
+                info.getTotalLLLookaheadOps()));
+        return sb.toString();
+    }
+}
@@ -0,0 +1,90 @@
+package com.unyaunya.minic.frontend;
+
+import java.util.List;
+
+import org.antlr.v4.runtime.ANTLRErrorListener;
+import org.antlr.v4.runtime.ConsoleErrorListener;
+import org.antlr.v4.runtime.ParserRuleContext;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.antlr.v4.runtime.UnbufferedTokenStream;
+import org.antlr.v4.runtime.tree.ParseTree;
+
+import com.unyaunya.minic.ast.FunctionDecl;
+import com.unyaunya.minic.ast.GlobalDecl;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.parser.MiniCBaseListener;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+/**
+ * Front end that turns each top-level declaration into AST as soon as the
+ * parser has finished it and then drops its parse tree.
+ *
+ * Tokens are pulled through an {@link UnbufferedTokenStream}, so only the
+ * lookahead window is kept, and the {@link AstBuilder} sees one function at a
+ * time. Memory therefore grows with the largest function rather than with
+ * the program. Without a buffered token stream the parse can't be retried,
+ * so it always uses full LL prediction. Once a syntax error was reported,
+ * the remaining declarations are parsed for errors only.
+ */
+public class StreamingFrontEnd extends MiniCBaseListener {
+    private final AstBuilder astBuilder;
+    private final MiniCParser parser;
+    private final Program program;
+
+    private StreamingFrontEnd(Preprocessor.Result preprocessed, MiniCParser parser) {
+        this.astBuilder = new AstBuilder(preprocessed);
+        this.parser = parser;
+        this.program = new Program(preprocessed.getFileTable());
+    }
+
+    /**
+     * @param lexer token source over {@code preprocessed}
+     */
+    public static Program parse(Preprocessor.Result preprocessed, TokenSource lexer) {
+        return parse(preprocessed, lexer, ConsoleErrorListener.INSTANCE);
+    }
+
+    /**
+     * @param lexer token source over {@code preprocessed}
+     * @param errorListener receives the syntax errors
+     * @return the program, which is incomplete if there were syntax errors
+     */
+    public static Program parse(Preprocessor.Result preprocessed, TokenSource lexer, ANTLRErrorListener errorListener) {
+        MiniCParser parser = new MiniCParser(new UnbufferedTokenStream<Token>(lexer));
+        parser.removeErrorListeners();
+        parser.addErrorListener(errorListener);
+        StreamingFrontEnd frontEnd = new StreamingFrontEnd(preprocessed, parser);
+        parser.addParseListener(frontEnd);
+        parser.program();
+        return frontEnd.program;
+    }
+
+    @Override
+    public void exitGlobalDecl(MiniCParser.GlobalDeclContext ctx) {
+        if (parser.getNumberOfSyntaxErrors() == 0) {
+            program.getGlobals().add((GlobalDecl) astBuilder.visit(ctx));
+        }
+        detach(ctx);
+    }
+
+    @Override
+    public void exitFunctionDecl(MiniCParser.FunctionDeclContext ctx) {
+        if (parser.getNumberOfSyntaxErrors() == 0) {
+            program.getFunctions().add((FunctionDecl) astBuilder.visit(ctx));
+        }
+        detach(ctx);
+    }
+
+    private static void detach(ParserRuleContext ctx) {
+        ParserRuleContext parent = ctx.getParent();
+        List<ParseTree> siblings = (parent == null) ? null : parent.children;
+        if (siblings != null && !siblings.isEmpty() && siblings.get(siblings.size() - 1) == ctx) {
+            parent.removeLastChild();
+        } else if (siblings != null) {
+            siblings.remove(ctx);
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.unyaunya.minic.frontend;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+
+import com.unyaunya.minic.Diagnostics;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+/**
+ * Reports lexer and parser errors to {@link Diagnostics} at their location
+ * in the original files, instead of printing them to the console.
+ */
+public class SyntaxErrorListener extends BaseErrorListener {
+    private final Preprocessor.Result preprocessed;
+    private final Diagnostics diagnostics;
+
+    public SyntaxErrorListener(Preprocessor.Result preprocessed, Diagnostics diagnostics) {
+        this.preprocessed = preprocessed;
+        this.diagnostics = diagnostics;
+    }
+
+    @Override
+    public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line, int charPositionInLine,
+            String msg, RecognitionException e) {
+        diagnostics.error(preprocessed.getLocation(line), msg);
+    }
+}
@@ -0,0 +1,62 @@
+package com.unyaunya.minic.preprocess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Sources packaged as class path resources below a base directory, e.g. a
+ * library shipped in the jar of the service that embeds the compiler.
+ * Resources don't change while the class loader lives, so each is decoded once.
+ */
+public class ClasspathSources implements SourceProvider {
+    private final ClassLoader loader;
+    private final String base;
+    private final Map<Path, char[]> texts = new ConcurrentHashMap<>();
+
+    /**
+     * @param base resource directory the names are relative to, e.g. {@code "minic/lib"}
+     */
+    public ClasspathSources(ClassLoader loader, String base) {
+        this.loader = loader;
+        this.base = base.endsWith("/") || base.isEmpty() ? base : base + "/";
+    }
+
+    @Override
+    public Path normalize(Path path) {
+        return path.normalize();
+    }
+
+    @Override
+    public Path resolve(Path includer, String name, boolean quoted, List<Path> searchPath) {
+        return MemorySources.lookup(includer, name, quoted, searchPath, this::exists);
+    }
+
+    private String resourceName(Path path) {
+        return base + path.toString().replace('\\', '/');
+    }
+
+    private boolean exists(Path path) {
+        return !path.startsWith("..") && (texts.containsKey(path) || loader.getResource(resourceName(path)) != null);
+    }
+
+    @Override
+    public char[] read(Path path) throws IOException {
+        char[] text = texts.get(path);
+        if (text != null) {
+            return text;
+        }
+        try (InputStream in = loader.getResourceAsStream(resourceName(path))) {
+            if (in == null) {
+                throw new NoSuchFileException(resourceName(path));
+            }
+            text = IncludeCache.decode(in.readAllBytes());
+        }
+        texts.put(path, text);
+        return text;
+    }
+}
@@ -0,0 +1,154 @@
+package com.unyaunya.minic.preprocess;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+/**
+ * Process-wide cache of include resolution and decoded include files, shared
+ * by every {@link Preprocessor} so that library files included by many
+ * sources of a batch or a compile server are read and decoded once.
+ *
+ * A cached file is reused while its size and modification time are
+ * unchanged. Files modified shortly before they were read ("racy" entries,
+ * as the timestamp may not have ticked for a later write) are read again and
+ * compared by content hash instead, which still saves decoding. Resolved
+ * paths are trusted until the file disappears, so a header newly created
+ * earlier on the search path is only seen once the cache is cleared.
+ *
+ * As a {@link SourceProvider} it names sources by normalized absolute paths
+ * and reads the main source without caching it.
+ */
+public class IncludeCache implements SourceProvider {
+    /** Modifications closer than this to the time a file was read are not trusted. */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+    private static final IncludeCache SHARED = new IncludeCache(4096);
+
+    private record ResolveKey(Path dir, String name, List<Path> searchPath) {
+    }
+
+    private record Entry(long size, long modified, long readAt, HashCode hash, char[] text) {
+        boolean isRacy() {
+            return readAt - modified < RACY_NANOS;
+        }
+    }
+
+    private final Cache<ResolveKey, Path> resolved;
+    private final Cache<Path, Entry> files;
+
+    public IncludeCache(long maximumSize) {
+        this.resolved = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+        this.files = CacheBuilder.newBuilder().maximumSize(maximumSize).build();
+    }
+
+    public static IncludeCache shared() {
+        return SHARED;
+    }
+
+    @Override
+    public Path normalize(Path path) {
+        return path.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public Path resolve(Path includer, String name, boolean quoted, List<Path> searchPath) {
+        return resolve(quoted ? includer.getParent() : null, name, searchPath);
+    }
+
+    /**
+     * Resolves {@code name} against {@code dir} first and then each directory
+     * of {@code searchPath}, as the C preprocessor does for quoted includes.
+     * @param dir directory of the including file, or null to use the search path only
+     * @return normalized absolute path, or null if no such file exists
+     */
+    public Path resolve(Path dir, String name, List<Path> searchPath) {
+        ResolveKey key = new ResolveKey(dir, name, searchPath);
+        Path path = resolved.getIfPresent(key);
+        if (path != null && Files.isRegularFile(path)) {
+            return path;
+        }
+        path = lookup(dir, name, searchPath);
+        if (path != null) {
+            resolved.put(key, path);
+        } else {
+            resolved.invalidate(key);
+        }
+        return path;
+    }
+
+    private static Path lookup(Path dir, String name, List<Path> searchPath) {
+        if (dir != null) {
+            Path p = dir.resolve(name).toAbsolutePath().normalize();
+            if (Files.isRegularFile(p)) {
+                return p;
+            }
+        }
+        for (Path d : searchPath) {
+            Path p = d.resolve(name).toAbsolutePath().normalize();
+            if (Files.isRegularFile(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the text of a UTF-8 file.
+     * @param path normalized absolute path
+     * @return the decoded text, shared by all callers and not to be modified
+     */
+    @Override
+    public char[] read(Path path) throws IOException {
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        long size = attrs.size();
+        long modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        Entry entry = files.getIfPresent(path);
+        if (entry != null && entry.size() == size && entry.modified() == modified && !entry.isRacy()) {
+            return entry.text();
+        }
+        long readAt = System.currentTimeMillis() * 1_000_000L;
+        byte[] bytes = Files.readAllBytes(path);
+        HashCode hash = Hashing.murmur3_128().hashBytes(bytes);
+        char[] text = (entry != null && entry.hash().equals(hash)) ? entry.text() : decode(bytes);
+        files.put(path, new Entry(bytes.length, modified, readAt, hash, text));
+        return text;
+    }
+
+    @Override
+    public char[] readSource(Path path) throws IOException {
+        return decode(Files.readAllBytes(path));
+    }
+
+    /**
+     * Decodes UTF-8, failing on malformed input like {@link Files#readAllLines(Path)}.
+     */
+    static char[] decode(byte[] bytes) throws IOException {
+        CharBuffer chars = StandardCharsets.UTF_8.newDecoder().decode(ByteBuffer.wrap(bytes));
+        if (chars.hasArray() && chars.arrayOffset() == 0 && chars.remaining() == chars.array().length) {
+            return chars.array();
+        }
+        char[] text = new char[chars.remaining()];
+        chars.get(text);
+        return text;
+    }
+
+    public void invalidate(Path path) {
+        files.invalidate(path);
+    }
+
+    public void clear() {
+        resolved.invalidateAll();
+        files.invalidateAll();
+    }
+}
@@ -0,0 +1,634 @@
+package com.unyaunya.minic.preprocess;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.unyaunya.minic.Location;
+import com.unyaunya.minic.MinicException;
+
+/**
+ * Macro table of one preprocessing run and the token-level expander that
+ * replaces macros in source lines and evaluates #if expressions.
+ *
+ * Expansion follows the C preprocessor: arguments are expanded before they
+ * are substituted, except next to {@code #} and {@code ##}, and the result is
+ * rescanned with the macro itself disabled, so recursive macros stop.
+ * Unlike C, the rescan doesn't reach into the text after the invocation.
+ *
+ * Expansions of invocations outside other macros only depend on the table,
+ * so they are memoised by their text until the next #define or #undef.
+ */
+class MacroExpander {
+    private record Macro(List<String> params, List<String> body) {   // params is null for object-like macros
+    }
+
+    private final Map<String, Macro> macros = new HashMap<>();
+    private final Map<String, List<String>> memo = new HashMap<>();
+    private final boolean[] firstChars = new boolean[128]; // first chars of macro names, to skip other identifiers quickly
+
+    boolean isEmpty() {
+        return macros.isEmpty();
+    }
+
+    boolean isDefined(String name) {
+        return macros.containsKey(name);
+    }
+
+    /**
+     * @param definition the text after #define: {@code NAME body} or {@code NAME(a, b) body}
+     */
+    void define(String definition, Location loc) throws MinicException {
+        List<String> tokens = tokenize(definition);
+        int i = skipSpace(tokens, 0);
+        if (i >= tokens.size() || !isIdentifier(tokens.get(i))) {
+            throw new MinicException("Macro name missing in #define", loc);
+        }
+        String name = tokens.get(i++);
+        List<String> params = null;
+        if (i < tokens.size() && tokens.get(i).equals("(")) { // no space before '(': function-like
+            params = new ArrayList<>();
+            i = skipSpace(tokens, i + 1);
+            while (i < tokens.size() && !tokens.get(i).equals(")")) {
+                if (!isIdentifier(tokens.get(i))) {
+                    throw new MinicException(loc, "Illegal parameter '%s' of macro %s", tokens.get(i), name);
+                }
+                params.add(tokens.get(i));
+                i = skipSpace(tokens, i + 1);
+                if (i < tokens.size() && tokens.get(i).equals(",")) {
+                    i = skipSpace(tokens, i + 1);
+                }
+            }
+            if (i >= tokens.size()) {
+                throw new MinicException("Missing ')' in parameters of macro " + name, loc);
+            }
+            i++;
+        }
+        List<String> body = new ArrayList<>();
+        for (String t : tokens.subList(i, tokens.size())) {
+            // comments become spaces, leading and trailing space is dropped
+            String token = isSpace(t) ? " " : t;
+            if (!token.equals(" ") || (!body.isEmpty() && !body.get(body.size() - 1).equals(" "))) {
+                body.add(token);
+            }
+        }
+        if (!body.isEmpty() && body.get(body.size() - 1).equals(" ")) {
+            body.remove(body.size() - 1);
+        }
+        macros.put(name, new Macro(params, body));
+        memo.clear();
+        if (name.charAt(0) < firstChars.length) {
+            firstChars[name.charAt(0)] = true;
+        }
+    }
+
+    void undefine(String name) {
+        if (macros.remove(name) != null) {
+            memo.clear();
+        }
+    }
+
+    /**
+     * @return whether {@code text[from, to)} mentions a macro outside of
+     *         strings and comments; a block comment left open is read to the end
+     */
+    boolean mentionsMacro(char[] text, int from, int to) {
+        int i = from;
+        while (i < to) {
+            char c = text[i];
+            if (isIdentifierStart(c)) {
+                int start = i;
+                while (i < to && isIdentifierPart(text[i])) {
+                    i++;
+                }
+                if (c < firstChars.length && firstChars[c] && macros.containsKey(new String(text, start, i - start))) {
+                    return true;
+                }
+            } else if (isDigit(c)) {
+                while (i < to && isIdentifierPart(text[i])) {
+                    i++;
+                }
+            } else if (c == '"' || c == '\'') {
+                i = skipQuoted(text, i, to);
+            } else if (c == '/' && i + 1 < to && text[i + 1] == '/') {
+                return false;
+            } else if (c == '/' && i + 1 < to && text[i + 1] == '*') {
+                i = skipComment(text, i + 2, to);
+            } else {
+                i++;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Expands the macros in {@code text}.
+     * @return the expanded text, or null if an invocation isn't closed before
+     *         the end of the text, so the caller can append the next line
+     */
+    String expand(String text, Location loc) throws MinicException {
+        List<String> out = expand(tokenize(text), Set.of(), true, loc);
+        if (out == null) {
+            return null;
+        }
+        StringBuilder sb = new StringBuilder(text.length() + 16);
+        for (String t : out) {
+            sb.append(t);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @param top whether this is source text rather than a macro body; only
+     *        then may an invocation be left open, and only then are results memoised
+     */
+    private List<String> expand(List<String> in, Set<String> disabled, boolean top, Location loc) throws MinicException {
+        List<String> out = new ArrayList<>(in.size());
+        int i = 0;
+        while (i < in.size()) {
+            String t = in.get(i);
+            Macro m = (isIdentifier(t) && !disabled.contains(t)) ? macros.get(t) : null;
+            if (m == null) {
+                out.add(t);
+                i++;
+                continue;
+            }
+            if (m.params() == null) {
+                List<String> expansion = top ? memo.get(t) : null;
+                if (expansion == null) {
+                    expansion = expand(m.body(), with(disabled, t), false, loc);
+                    if (top) {
+                        memo.put(t, expansion);
+                    }
+                }
+                out.addAll(expansion);
+                i++;
+                continue;
+            }
+            int open = skipSpace(in, i + 1);
+            if (open >= in.size() || !in.get(open).equals("(")) {
+                if (open >= in.size() && top && isOnlySpace(in, i + 1)) {
+                    return null; // the '(' may be on the next line
+                }
+                out.add(t); // a function-like macro name without arguments is left alone
+                i++;
+                continue;
+            }
+            List<List<String>> args = new ArrayList<>();
+            int close = collectArguments(in, open, args);
+            if (close < 0) {
+                if (top) {
+                    return null;
+                }
+                throw new MinicException("Unterminated invocation of macro " + t, loc);
+            }
+            String key = top ? String.join("", in.subList(i, close + 1)) : null;
+            List<String> expansion = top ? memo.get(key) : null;
+            if (expansion == null) {
+                expansion = invoke(t, m, args, disabled, loc);
+                if (top) {
+                    memo.put(key, expansion);
+                }
+            }
+            out.addAll(expansion);
+            i = close + 1;
+        }
+        return out;
+    }
+
+    /**
+     * Splits the arguments at top-level commas.
+     * @param open index of the '('
+     * @return index of the matching ')', or -1 if there is none
+     */
+    private static int collectArguments(List<String> in, int open, List<List<String>> args) {
+        int depth = 0;
+        List<String> arg = new ArrayList<>();
+        for (int j = open + 1; j < in.size(); j++) {
+            String t = in.get(j);
+            if (t.equals(")") && depth == 0) {
+                args.add(trim(arg));
+                return j;
+            } else if (t.equals(",") && depth == 0) {
+                args.add(trim(arg));
+                arg = new ArrayList<>();
+                continue;
+            } else if (t.equals("(")) {
+                depth++;
+            } else if (t.equals(")")) {
+                depth--;
+            }
+            arg.add(isSpace(t) ? " " : t);
+        }
+        return -1;
+    }
+
+    private List<String> invoke(String name, Macro m, List<List<String>> args, Set<String> disabled, Location loc)
+            throws MinicException {
+        List<String> params = m.params();
+        if (params.isEmpty() && args.size() == 1 && args.get(0).isEmpty()) {
+            args = List.of();
+        }
+        if (args.size() != params.size()) {
+            throw new MinicException(loc, "Macro %s expects %d argument(s) but got %d", name, params.size(), args.size());
+        }
+        Map<String, List<String>> expandedArgs = new HashMap<>();
+        List<String> body = m.body();
+        List<String> substituted = new ArrayList<>();
+        for (int k = 0; k < body.size(); k++) {
+            String t = body.get(k);
+            int p = params.indexOf(t);
+            if (t.equals("#") && k + 1 < body.size() && params.contains(nextToken(body, k + 1))) {
+                int q = skipSpace(body, k + 1);
+                substituted.add(stringize(args.get(params.indexOf(body.get(q)))));
+                k = q;
+            } else if (p >= 0 && (isPasted(body, k, -1) || isPasted(body, k, 1))) {
+                substituted.addAll(args.get(p));
+            } else if (p >= 0) {
+                List<String> arg = expandedArgs.get(t);
+                if (arg == null) {
+                    arg = expand(args.get(p), disabled, false, loc);
+                    expandedArgs.put(t, arg);
+                }
+                substituted.addAll(arg);
+            } else {
+                substituted.add(t);
+            }
+        }
+        return expand(paste(substituted), with(disabled, name), false, loc);
+    }
+
+    /**
+     * @return whether the token at {@code k} is an operand of ## on the side {@code dir}
+     */
+    private static boolean isPasted(List<String> body, int k, int dir) {
+        int j = k + dir;
+        while (j >= 0 && j < body.size() && body.get(j).equals(" ")) {
+            j += dir;
+        }
+        return j >= 0 && j < body.size() && body.get(j).equals("##");
+    }
+
+    /**
+     * Joins the tokens on both sides of each ##.
+     */
+    private static List<String> paste(List<String> tokens) {
+        if (!tokens.contains("##")) {
+            return tokens;
+        }
+        List<String> out = new ArrayList<>();
+        for (int k = 0; k < tokens.size(); k++) {
+            String t = tokens.get(k);
+            if (t.equals("##")) {
+                while (!out.isEmpty() && out.get(out.size() - 1).equals(" ")) {
+                    out.remove(out.size() - 1);
+                }
+                int q = skipSpace(tokens, k + 1);
+                String left = out.isEmpty() ? "" : out.remove(out.size() - 1);
+                String right = (q < tokens.size()) ? tokens.get(q) : "";
+                out.addAll(tokenize(left + right));
+                k = q;
+            } else {
+                out.add(t);
+            }
+        }
+        return out;
+    }
+
+    private static String stringize(List<String> arg) {
+        StringBuilder sb = new StringBuilder("\"");
+        for (String t : arg) {
+            if (t.startsWith("\"") || t.startsWith("'")) {
+                sb.append(t.replace("\\", "\\\\").replace("\"", "\\\""));
+            } else {
+                sb.append(t);
+            }
+        }
+        return sb.append('"').toString();
+    }
+
+    private static Set<String> with(Set<String> disabled, String name) {
+        Set<String> s = new HashSet<>(disabled);
+        s.add(name);
+        return s;
+    }
+
+    // ----------------------
+    // #if expressions
+    // ----------------------
+
+    /**
+     * Evaluates the constant expression of #if or #elif. {@code defined NAME}
+     * and {@code defined(NAME)} are replaced first, then macros are expanded
+     * and remaining identifiers count as 0.
+     */
+    boolean evaluate(String expr, Location loc) throws MinicException {
+        List<String> tokens = tokenize(expr);
+        List<String> replaced = new ArrayList<>();
+        for (int i = 0; i < tokens.size(); i++) {
+            if (!tokens.get(i).equals("defined")) {
+                replaced.add(tokens.get(i));
+                continue;
+            }
+            int j = skipSpace(tokens, i + 1);
+            boolean paren = j < tokens.size() && tokens.get(j).equals("(");
+            if (paren) {
+                j = skipSpace(tokens, j + 1);
+            }
+            if (j >= tokens.size() || !isIdentifier(tokens.get(j))) {
+                throw new MinicException("Macro name missing after 'defined'", loc);
+            }
+            replaced.add(isDefined(tokens.get(j)) ? "1" : "0");
+            if (paren) {
+                j = skipSpace(tokens, j + 1);
+                if (j >= tokens.size() || !tokens.get(j).equals(")")) {
+                    throw new MinicException("Missing ')' after 'defined'", loc);
+                }
+            }
+            i = j;
+        }
+        List<String> expanded = expand(replaced, Set.of(), false, loc);
+        List<String> operands = new ArrayList<>();
+        for (String t : expanded) {
+            if (!isSpace(t)) {
+                operands.add(t);
+            }
+        }
+        if (operands.isEmpty()) {
+            throw new MinicException("Missing expression in #if", loc);
+        }
+        ConstantExpression e = new ConstantExpression(operands, loc);
+        long value = e.parse();
+        return value != 0;
+    }
+
+    /**
+     * Precedence-climbing evaluator of C integer constant expressions.
+     */
+    private static class ConstantExpression {
+        private static final List<List<String>> LEVELS = List.of(
+                List.of("||"), List.of("&&"), List.of("|"), List.of("^"), List.of("&"),
+                List.of("==", "!="), List.of("<", "<=", ">", ">="), List.of("<<", ">>"),
+                List.of("+", "-"), List.of("*", "/", "%"));
+
+        private final List<String> tokens;
+        private final Location loc;
+        private int p;
+
+        ConstantExpression(List<String> tokens, Location loc) {
+            this.tokens = tokens;
+            this.loc = loc;
+        }
+
+        long parse() throws MinicException {
+            long v = conditional();
+            if (p < tokens.size()) {
+                throw new MinicException("Unexpected '" + tokens.get(p) + "' in #if", loc);
+            }
+            return v;
+        }
+
+        private long conditional() throws MinicException {
+            long c = binary(0);
+            if (accept("?")) {
+                long a = conditional();
+                expect(":");
+                long b = conditional();
+                return (c != 0) ? a : b;
+            }
+            return c;
+        }
+
+        private long binary(int level) throws MinicException {
+            if (level == LEVELS.size()) {
+                return unary();
+            }
+            long left = binary(level + 1);
+            while (p < tokens.size() && LEVELS.get(level).contains(tokens.get(p))) {
+                String op = tokens.get(p++);
+                long right = binary(level + 1);
+                left = switch (op) {
+                    case "||" -> (left != 0 || right != 0) ? 1 : 0;
+                    case "&&" -> (left != 0 && right != 0) ? 1 : 0;
+                    case "|" -> left | right;
+                    case "^" -> left ^ right;
+                    case "&" -> left & right;
+                    case "==" -> (left == right) ? 1 : 0;
+                    case "!=" -> (left != right) ? 1 : 0;
+                    case "<" -> (left < right) ? 1 : 0;
+                    case "<=" -> (left <= right) ? 1 : 0;
+                    case ">" -> (left > right) ? 1 : 0;
+                    case ">=" -> (left >= right) ? 1 : 0;
+                    case "<<" -> left << right;
+                    case ">>" -> left >> right;
+                    case "+" -> left + right;
+                    case "-" -> left - right;
+                    case "*" -> left * right;
+                    default -> {
+                        if (right == 0) {
+                            throw new MinicException("Division by zero in #if", loc);
+                        }
+                        yield op.equals("/") ? left / right : left % right;
+                    }
+                };
+            }
+            return left;
+        }
+
+        private long unary() throws MinicException {
+            if (accept("-")) {
+                return -unary();
+            } else if (accept("+")) {
+                return unary();
+            } else if (accept("!")) {
+                return (unary() == 0) ? 1 : 0;
+            } else if (accept("~")) {
+                return ~unary();
+            } else if (accept("(")) {
+                long v = conditional();
+                expect(")");
+                return v;
+            }
+            if (p >= tokens.size()) {
+                throw new MinicException("Incomplete expression in #if", loc);
+            }
+            String t = tokens.get(p++);
+            if (isIdentifier(t)) {
+                return 0;
+            } else if (isDigit(t.charAt(0))) {
+                return number(t);
+            } else if (t.startsWith("'") && t.length() >= 3) {
+                return (t.charAt(1) == '\\') ? escape(t.charAt(2)) : t.charAt(1);
+            }
+            throw new MinicException("Unexpected '" + t + "' in #if", loc);
+        }
+
+        private long number(String t) throws MinicException {
+            String digits = t.replaceAll("[uUlL]+$", "");
+            try {
+                if (digits.startsWith("0x") || digits.startsWith("0X")) {
+                    return Long.parseLong(digits.substring(2), 16);
+                } else if (digits.length() > 1 && digits.startsWith("0")) {
+                    return Long.parseLong(digits.substring(1), 8);
+                }
+                return Long.parseLong(digits);
+            } catch (NumberFormatException e) {
+                throw new MinicException("Illegal number '" + t + "' in #if", loc);
+            }
+        }
+
+        private static long escape(char c) {
+            return switch (c) {
+                case 'n' -> '\n';
+                case 't' -> '\t';
+                case 'r' -> '\r';
+                case '0' -> 0;
+                default -> c;
+            };
+        }
+
+        private boolean accept(String op) {
+            if (p < tokens.size() && tokens.get(p).equals(op)) {
+                p++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(String op) throws MinicException {
+            if (!accept(op)) {
+                throw new MinicException("Missing '" + op + "' in #if", loc);
+            }
+        }
+    }
+
+    // ----------------------
+    // Tokens
+    // ----------------------
+    private static final List<String> PUNCTUATORS = List.of("##", "&&", "||", "==", "!=", "<=", ">=", "<<", ">>");
+
+    /**
+     * Splits text into identifiers, numbers, literals, runs of white space
+     * and comments, and punctuators. Concatenating the tokens gives the text.
+     */
+    static List<String> tokenize(String s) {
+        char[] text = s.toCharArray();
+        int n = text.length;
+        List<String> tokens = new ArrayList<>();
+        int i = 0;
+        while (i < n) {
+            char c = text[i];
+            int start = i;
+            if (isIdentifierStart(c) || isDigit(c)) {
+                while (i < n && isIdentifierPart(text[i])) {
+                    i++;
+                }
+            } else if (c == '"' || c == '\'') {
+                i = skipQuoted(text, i, n);
+            } else if (c == '/' && i + 1 < n && text[i + 1] == '/') {
+                while (i < n && text[i] != '\n' && text[i] != '\r') {
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < n && text[i + 1] == '*') {
+                i = skipComment(text, i + 2, n);
+            } else if (c <= ' ') {
+                while (i < n && text[i] <= ' ') {
+                    i++;
+                }
+            } else if (i + 1 < n && PUNCTUATORS.contains(s.substring(i, i + 2))) {
+                i += 2;
+            } else {
+                i++;
+            }
+            tokens.add(s.substring(start, i));
+        }
+        return tokens;
+    }
+
+    /**
+     * Removes the // comments from text that is about to be joined into one line.
+     */
+    static String stripLineComments(String s) {
+        if (s.indexOf("//") < 0) {
+            return s;
+        }
+        StringBuilder sb = new StringBuilder(s.length());
+        for (String t : tokenize(s)) {
+            if (!t.startsWith("//")) {
+                sb.append(t);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int skipQuoted(char[] text, int i, int to) {
+        char quote = text[i++];
+        while (i < to && text[i] != quote) {
+            i += (text[i] == '\\') ? 2 : 1;
+        }
+        return Math.min(i + 1, to);
+    }
+
+    /**
+     * @param i index after the opening "/*"
+     * @return index after the closing "*&#47;", or {@code to} if it is missing
+     */
+    private static int skipComment(char[] text, int i, int to) {
+        while (i + 1 < to && !(text[i] == '*' && text[i + 1] == '/')) {
+            i++;
+        }
+        return Math.min(i + 2, to);
+    }
+
+    private static int skipSpace(List<String> tokens, int i) {
+        while (i < tokens.size() && isSpace(tokens.get(i))) {
+            i++;
+        }
+        return i;
+    }
+
+    private static String nextToken(List<String> tokens, int i) {
+        int j = skipSpace(tokens, i);
+        return (j < tokens.size()) ? tokens.get(j) : null;
+    }
+
+    private static boolean isOnlySpace(List<String> tokens, int from) {
+        return skipSpace(tokens, from) == tokens.size();
+    }
+
+    private static List<String> trim(List<String> tokens) {
+        int from = 0;
+        int to = tokens.size();
+        while (from < to && tokens.get(from).equals(" ")) {
+            from++;
+        }
+        while (to > from && tokens.get(to - 1).equals(" ")) {
+            to--;
+        }
+        return tokens.subList(from, to);
+    }
+
+    private static boolean isSpace(String t) {
+        char c = t.charAt(0);
+        return c <= ' ' || t.startsWith("//") || t.startsWith("/*");
+    }
+
+    static boolean isIdentifier(String t) {
+        return isIdentifierStart(t.charAt(0));
+    }
+
+    private static boolean isIdentifierStart(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || c == '_';
+    }
+
+    private static boolean isIdentifierPart(char c) {
+        return isIdentifierStart(c) || isDigit(c);
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+}
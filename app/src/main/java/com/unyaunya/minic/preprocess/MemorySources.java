@@ -0,0 +1,87 @@
+package com.unyaunya.minic.preprocess;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Sources held in memory, named by relative paths like {@code "lib/io.h"}.
+ * Nothing is read from or written to disk.
+ *
+ * A quoted include is looked up relative to the directory of the including
+ * name, then relative to each directory of the include path; names are
+ * normalized, so {@code "../lib/io.h"} works as it would on disk.
+ */
+public class MemorySources implements SourceProvider {
+    private final Map<Path, char[]> texts = new HashMap<>();
+
+    /**
+     * @param sources text of each source by name
+     */
+    public MemorySources(Map<String, String> sources) {
+        sources.forEach((name, text) -> texts.put(Path.of(name).normalize(), text.toCharArray()));
+    }
+
+    /**
+     * Reads every file of a zip archive, e.g. an uploaded submission.
+     * Entries are named by their path within the archive and decoded as UTF-8.
+     */
+    public static MemorySources fromZip(InputStream zip) throws IOException {
+        MemorySources sources = new MemorySources(Map.of());
+        try (ZipInputStream in = new ZipInputStream(zip)) {
+            ZipEntry entry;
+            while ((entry = in.getNextEntry()) != null) {
+                if (!entry.isDirectory()) {
+                    sources.texts.put(Path.of(entry.getName()).normalize(), IncludeCache.decode(in.readAllBytes()));
+                }
+            }
+        }
+        return sources;
+    }
+
+    @Override
+    public Path normalize(Path path) {
+        return path.normalize();
+    }
+
+    @Override
+    public Path resolve(Path includer, String name, boolean quoted, List<Path> searchPath) {
+        return lookup(includer, name, quoted, searchPath, texts::containsKey);
+    }
+
+    /**
+     * Looks {@code name} up like {@link #resolve} among relative names for which {@code exists} holds.
+     */
+    static Path lookup(Path includer, String name, boolean quoted, List<Path> searchPath, Predicate<Path> exists) {
+        if (quoted) {
+            Path dir = includer.getParent();
+            Path p = ((dir == null) ? Path.of(name) : dir.resolve(name)).normalize();
+            if (exists.test(p)) {
+                return p;
+            }
+        }
+        for (Path d : searchPath) {
+            Path p = d.resolve(name).normalize();
+            if (exists.test(p)) {
+                return p;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public char[] read(Path path) throws IOException {
+        char[] text = texts.get(path);
+        if (text == null) {
+            throw new NoSuchFileException(path.toString());
+        }
+        return text;
+    }
+}
@@ -1,111 +1,574 @@
 package com.unyaunya.minic.preprocess;
 
 import java.io.IOException;
-import java.nio.file.Files;
+import java.nio.CharBuffer;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
+import org.antlr.v4.runtime.CharStream;
+
+import com.google.common.hash.PrimitiveSink;
 import com.unyaunya.minic.Location;
 import com.unyaunya.minic.MinicException;
 
+/**
+ * Expands #include directives and macros into one text and remembers where each line came from.
+ * The working state is reset by every {@link #preprocess} call; an instance
+ * must not be used by several threads at once.
+ *
+ * {@code #include "file"} is looked up next to the including file and then in
+ * each directory of the include path, {@code #include <file>} in the include
+ * path only. Sources are read through a {@link SourceProvider}, by default
+ * the file system through the shared {@link IncludeCache}.
+ *
+ * #define and #undef maintain a {@link MacroExpander}; #if, #ifdef, #ifndef,
+ * #elif, #else and #endif select lines. Every file is included at most once
+ * per compilation, so #pragma once is accepted but changes nothing.
+ * Directives and skipped lines are replaced by empty lines, and a macro
+ * invocation spanning lines is followed by as many empty lines as it spanned,
+ * so lines keep their numbers within each file region.
+ *
+ * The result is not copied into one string: it is a list of slices of the
+ * (cached) file buffers between the #include lines and the lines that mention
+ * a macro, which the lexer reads through {@link Result#getCharStream()}.
+ */
 public class Preprocessor {
+    private static final char[] NEWLINE = {'\n'};
+
     public static class FileRegion {
         public final String filename;
-        public final int startLine; // 1-based
-        public final int endLine;   // inclusive
+        public final int startLine;      // 1-based
+        public final int endLine;        // inclusive
+        public final int firstLocalLine; // line within the file that startLine came from
 
-        public FileRegion(String filename, int startLine, int endLine) {
+        public FileRegion(String filename, int startLine, int endLine, int firstLocalLine) {
             this.filename = filename;
             this.startLine = startLine;
             this.endLine = endLine;
+            this.firstLocalLine = firstLocalLine;
         }
     }
 
     public static class Result {
-        public final String content;
+        private final String sourceName;
+        private final char[][] buffers;
+        private final int[] offsets;
+        private final int[] lengths;
         private final List<FileRegion> regions;
+        private final List<Path> files;
+        private final Map<Path, List<Path>> includes;
+        // region index: sorted by startLine, searched by getPackedLocation
+        private final int[] regionStarts;
+        private final int[] regionEnds;
+        private final int[] regionFirstLocalLines;
+        private final int[] regionFileIds;
+        private final Location.FileTable fileTable;
+        private String content;
 
-        public Result(String content, List<FileRegion> regions) {
-            this.content = content;
+        Result(String sourceName, char[][] buffers, int[] offsets, int[] lengths, List<FileRegion> regions, List<Path> files,
+                Map<Path, List<Path>> includes) {
+            this.sourceName = sourceName;
+            this.files = files;
+            this.includes = includes;
+            this.buffers = buffers;
+            this.offsets = offsets;
+            this.lengths = lengths;
             this.regions = regions;
+            int n = regions.size();
+            this.regionStarts = new int[n];
+            this.regionEnds = new int[n];
+            this.regionFirstLocalLines = new int[n];
+            this.regionFileIds = new int[n];
+            Map<String, Integer> fileIds = new LinkedHashMap<>();
+            for (int i = 0; i < n; i++) {
+                FileRegion r = regions.get(i);
+                regionStarts[i] = r.startLine;
+                regionEnds[i] = r.endLine;
+                regionFirstLocalLines[i] = r.firstLocalLine;
+                regionFileIds[i] = fileIds.computeIfAbsent(r.filename, f -> fileIds.size());
+            }
+            this.fileTable = new Location.FileTable(new ArrayList<>(fileIds.keySet()));
         }
 
-        public Location getLocation(int combinedLine) {
+        /**
+         * @return the names of the files the packed locations of this result refer to
+         */
+        public Location.FileTable getFileTable() {
+            return fileTable;
+        }
+
+        /**
+         * @return a new stream over the preprocessed text
+         */
+        public CharStream getCharStream() {
+            return new SegmentedCharStream(sourceName, buffers, offsets, lengths);
+        }
+
+        /**
+         * @return the files that were read, normalized by the source provider, the main source first
+         */
+        public List<Path> getFiles() {
+            return files;
+        }
+
+        /**
+         * @return the include graph: for each file that has #include
+         *         directives, the files they resolved to, in directive order,
+         *         including those skipped as already included
+         */
+        public Map<Path, List<Path>> getIncludes() {
+            return includes;
+        }
+
+        /**
+         * The preprocessed text as one string, built on first use.
+         */
+        public String getContent() {
+            if (content == null) {
+                content = getCharStream().toString();
+            }
+            return content;
+        }
+
+        /**
+         * Feeds the preprocessed text and the files its lines came from into
+         * {@code sink}, so equal hashes mean equal compilations, diagnostics included.
+         */
+        public void hashTo(PrimitiveSink sink) {
+            sink.putUnencodedChars(sourceName);
+            for (int i = 0; i < buffers.length; i++) {
+                sink.putInt(lengths[i]);
+                sink.putUnencodedChars(CharBuffer.wrap(buffers[i], offsets[i], lengths[i]));
+            }
+            sink.putInt(-1);
             for (FileRegion r : regions) {
-                if (combinedLine >= r.startLine && combinedLine <= r.endLine) {
-                    int local = combinedLine - r.startLine + 1;
-                    return new Location(r.filename, local);
-                }
+                sink.putUnencodedChars(r.filename);
+                sink.putInt(r.startLine).putInt(r.endLine).putInt(r.firstLocalLine);
+            }
+        }
+
+        public Location getLocation(int combinedLine) {
+            return Location.unpack(getPackedLocation(combinedLine));
+        }
+
+        /**
+         * Maps a line of the preprocessed text to its file and line, see {@link Location.FileTable#pack}.
+         */
+        public long getPackedLocation(int combinedLine) {
+            // regions are added in output order and don't overlap
+            int i = Arrays.binarySearch(regionStarts, combinedLine);
+            if (i < 0) {
+                i = -i - 2;
             }
-            return new Location(null, combinedLine);
+            if (i >= 0 && combinedLine <= regionEnds[i]) {
+                int local = combinedLine - regionStarts[i] + regionFirstLocalLines[i];
+                return fileTable.pack(regionFileIds[i], local);
+            }
+            return Location.pack(combinedLine);
+        }
+    }
+
+    /** State of an #if, #ifdef or #ifndef and its #elif and #else branches. */
+    private static class Conditional {
+        final Location location;
+        final boolean parentActive;
+        boolean active; // whether the current branch is compiled
+        boolean taken;  // whether a branch has been compiled
+        boolean sawElse;
+
+        Conditional(Location location, boolean parentActive, boolean active) {
+            this.location = location;
+            this.parentActive = parentActive;
+            this.active = active;
+            this.taken = active;
         }
     }
 
-    private final Set<Path> visited = new HashSet<>();
+    private final List<Path> includePath;
+    private final SourceProvider sources;
+    private final Map<String, String> defines;
+    private final Deque<Conditional> conditionals = new ArrayDeque<>();
+    private MacroExpander macros;
+    private final Set<Path> visited = new LinkedHashSet<>();
+    private final Map<Path, List<Path>> includes = new LinkedHashMap<>(); // includer -> included, in directive order
     private final List<FileRegion> regions = new ArrayList<>();
-    private final StringBuilder out = new StringBuilder();
+    private char[][] buffers = new char[16][];
+    private int[] offsets = new int[16];
+    private int[] lengths = new int[16];
+    private int slices;
     private int currentLine = 1; // 1-based
 
+    public Preprocessor() {
+        this(List.of());
+    }
+
+    public Preprocessor(List<Path> includePath) {
+        this(includePath, IncludeCache.shared());
+    }
+
+    public Preprocessor(List<Path> includePath, SourceProvider sources) {
+        this(includePath, sources, Map.of());
+    }
+
+    /**
+     * @param defines macros defined before the source, like -D of a C compiler
+     */
+    public Preprocessor(List<Path> includePath, SourceProvider sources, Map<String, String> defines) {
+        this.includePath = includePath.stream().map(sources::normalize).toList();
+        this.sources = sources;
+        this.defines = defines;
+    }
+
     public Result preprocess(Path path) throws MinicException {
+        return preprocess(path, null);
+    }
+
+    /**
+     * Preprocesses the given text as if it were the content of {@code path}.
+     * Includes are resolved relative to the directory of {@code path}.
+     * @param content source text, or null to read {@code path} from the source provider
+     */
+    public Result preprocess(Path path, String content) throws MinicException {
         visited.clear();
+        includes.clear();
         regions.clear();
-        out.setLength(0);
+        slices = 0;
         currentLine = 1;
-        includeFile(path);
-        return new Result(out.toString(), new ArrayList<>(regions));
+        conditionals.clear();
+        macros = new MacroExpander();
+        for (Map.Entry<String, String> d : defines.entrySet()) {
+            macros.define(d.getKey() + " " + d.getValue(), null);
+        }
+        char[] text;
+        if (content != null) {
+            text = content.toCharArray();
+        } else {
+            try {
+                text = sources.readSource(sources.normalize(path));
+            } catch (IOException e) {
+                throw new MinicException("Error reading file: " + path, new Location(path.toString(), 1), e);
+            }
+        }
+        includeFile(path, text);
+        Result res = new Result(path.toString(), Arrays.copyOf(buffers, slices),
+                Arrays.copyOf(offsets, slices), Arrays.copyOf(lengths, slices), new ArrayList<>(regions),
+                List.copyOf(visited), copyOf(includes));
+        Arrays.fill(buffers, 0, slices, null); // don't keep the main source alive
+        return res;
+    }
+
+    private static Map<Path, List<Path>> copyOf(Map<Path, List<Path>> graph) {
+        Map<Path, List<Path>> copy = new LinkedHashMap<>();
+        graph.forEach((includer, included) -> copy.put(includer, List.copyOf(included)));
+        return Collections.unmodifiableMap(copy);
     }
 
-    private void includeFile(Path path) throws MinicException {
-        Path abs = path.toAbsolutePath().normalize();
+    private void includeFile(Path path, char[] text) throws MinicException {
+        Path abs = sources.normalize(path);
         if (visited.contains(abs)) return; // prevent cycles
         visited.add(abs);
 
-        List<String> lines;
-        try {
-            lines = Files.readAllLines(abs);
-        } catch (IOException e) {
-            throw new MinicException("Error reading file: " + path, new Location(path.toString(), 1), e);
-        }
-        if (lines.isEmpty()) {
-            return;
-        }
+        String filename = abs.toString();
         int start = currentLine;
-        for (int i = 0; i < lines.size(); i++) {
-            String line = lines.get(i);
-            String trimmed = line.trim();
-            if (trimmed.startsWith("#include")) {
+        int firstLocalLine = 1;
+        int sliceStart = 0; // first char not yet added to the output
+        int localLine = 1;
+        int pos = 0;
+        int depth = conditionals.size();
+        boolean inComment = false; // whether a block comment is open at the start of the line
+        while (pos < text.length) {
+            int eol = pos;
+            while (eol < text.length && text[eol] != '\n') {
+                eol++;
+            }
+            int next = Math.min(eol + 1, text.length);
+            boolean commentAtStart = inComment;
+            inComment = endsInComment(text, pos, eol, inComment);
+            int hash = commentAtStart ? -1 : directiveStart(text, pos, eol);
+            if (hash >= 0 && isActive() && isInclude(text, hash, eol)) {
                 // flush previous region up to previous line if needed
+                addSlice(text, sliceStart, pos);
                 if (currentLine > start) {
-                    regions.add(new FileRegion(abs.toString(), start, currentLine - 1));
-                    start = currentLine;
+                    regions.add(new FileRegion(filename, start, currentLine - 1, firstLocalLine));
                 }
-                String inc = extractIncludePath(trimmed);
-                if (inc == null) {
-                    throw new MinicException("Include directive does not specify a valid file path", new Location(abs.toString(), i + 1));
-                }
-                Path included = abs.getParent().resolve(inc).normalize();
-                includeFile(included);
+                Location loc = new Location(filename, localLine);
+                Path included = resolveInclude(abs, new String(text, pos, eol - pos).trim(), loc);
+                includes.computeIfAbsent(abs, k -> new ArrayList<>()).add(included);
+                includeFile(included, loc);
                 // after include, continue
-            } else {
-                out.append(line).append('\n');
+                start = currentLine;
+                firstLocalLine = localLine + 1;
+                sliceStart = next;
+            } else if (hash >= 0 || !isActive()) {
+                // directives and skipped lines become empty lines, so line numbers stay the same
+                if (hash >= 0) {
+                    directive(new String(text, hash + 1, eol - hash - 1), new Location(filename, localLine));
+                }
+                addSlice(text, sliceStart, pos);
+                addSlice(NEWLINE, 0, 1);
+                sliceStart = next;
                 currentLine++;
+            } else {
+                int code = commentAtStart ? commentEnd(text, pos, eol) : pos;
+                if (code >= 0 && !macros.isEmpty() && macros.mentionsMacro(text, code, eol)) {
+                    // an invocation may continue on the following lines, which are joined
+                    Location loc = new Location(filename, localLine);
+                    int end = eol;
+                    int lines = 1;
+                    String expanded;
+                    while ((expanded = macros.expand(new String(text, code, end - code), loc)) == null) {
+                        if (end >= text.length) {
+                            throw new MinicException("Unterminated macro invocation", loc);
+                        }
+                        int from = end + 1;
+                        end = from;
+                        while (end < text.length && text[end] != '\n') {
+                            end++;
+                        }
+                        inComment = endsInComment(text, from, end, inComment);
+                        lines++;
+                    }
+                    if (lines > 1) {
+                        // a // comment would hide the rest of the joined line
+                        expanded = MacroExpander.stripLineComments(expanded);
+                    }
+                    addSlice(text, sliceStart, code);
+                    char[] line = (expanded.replace('\r', ' ').replace('\n', ' ') + "\n".repeat(lines)).toCharArray();
+                    addSlice(line, 0, line.length);
+                    next = Math.min(end + 1, text.length);
+                    sliceStart = next;
+                    currentLine += lines;
+                    localLine += lines - 1;
+                } else {
+                    currentLine++;
+                }
             }
+            pos = next;
+            localLine++;
+        }
+        if (conditionals.size() > depth) {
+            throw new MinicException("Unterminated conditional directive", conditionals.peek().location);
+        }
+        addSlice(text, sliceStart, text.length);
+        if (sliceStart < text.length && text[text.length - 1] != '\n') {
+            addSlice(NEWLINE, 0, 1); // every line of a file ends with a newline
         }
         // finalize region for this file
         if (currentLine > start) {
-            regions.add(new FileRegion(abs.toString(), start, currentLine - 1));
+            regions.add(new FileRegion(filename, start, currentLine - 1, firstLocalLine));
+        }
+    }
+
+    /**
+     * @return the index of the '#' if the line is a directive, else -1
+     */
+    private static int directiveStart(char[] text, int from, int to) {
+        int i = from;
+        while (i < to && text[i] <= ' ') {
+            i++;
+        }
+        return (i < to && text[i] == '#') ? i : -1;
+    }
+
+    private static boolean isInclude(char[] text, int hash, int to) {
+        int i = hash + 1;
+        while (i < to && (text[i] == ' ' || text[i] == '\t')) {
+            i++;
+        }
+        String directive = "include";
+        if (to - i < directive.length()) {
+            return false;
+        }
+        for (int j = 0; j < directive.length(); j++) {
+            if (text[i + j] != directive.charAt(j)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return whether a block comment is open at the end of the line
+     */
+    private static boolean endsInComment(char[] text, int from, int to, boolean inComment) {
+        int i = from;
+        while (i < to) {
+            char c = text[i];
+            if (inComment) {
+                if (c == '*' && i + 1 < to && text[i + 1] == '/') {
+                    inComment = false;
+                    i++;
+                }
+            } else if (c == '/' && i + 1 < to && text[i + 1] == '/') {
+                return false;
+            } else if (c == '/' && i + 1 < to && text[i + 1] == '*') {
+                inComment = true;
+                i++;
+            } else if (c == '"' || c == '\'') {
+                i++;
+                while (i < to && text[i] != c) {
+                    i += (text[i] == '\\') ? 2 : 1;
+                }
+            }
+            i++;
+        }
+        return inComment;
+    }
+
+    /**
+     * @return the index after the "*&#47;" that closes the comment open at {@code from}, or -1
+     */
+    private static int commentEnd(char[] text, int from, int to) {
+        for (int i = from; i + 1 < to; i++) {
+            if (text[i] == '*' && text[i + 1] == '/') {
+                return i + 2;
+            }
+        }
+        return -1;
+    }
+
+    // ----------------------
+    // Directives
+    // ----------------------
+    private boolean isActive() {
+        Conditional c = conditionals.peek();
+        return c == null || c.active;
+    }
+
+    /**
+     * @param line the directive without its '#'
+     */
+    private void directive(String line, Location loc) throws MinicException {
+        List<String> tokens = MacroExpander.tokenize(line.strip());
+        String name = tokens.isEmpty() ? "" : tokens.get(0);
+        String rest = line.strip().substring(name.length()).strip();
+        switch (name) {
+            case "ifdef", "ifndef" -> {
+                boolean parentActive = isActive();
+                boolean defined = parentActive && macros.isDefined(macroName(tokens, name, loc));
+                conditionals.push(new Conditional(loc, parentActive, parentActive && defined == name.equals("ifdef")));
+            }
+            case "if" -> {
+                boolean parentActive = isActive();
+                conditionals.push(new Conditional(loc, parentActive, parentActive && macros.evaluate(rest, loc)));
+            }
+            case "elif" -> {
+                Conditional c = conditional(name, loc);
+                c.active = c.parentActive && !c.taken && macros.evaluate(rest, loc);
+                c.taken |= c.active;
+            }
+            case "else" -> {
+                Conditional c = conditional(name, loc);
+                c.active = c.parentActive && !c.taken;
+                c.taken = true;
+                c.sawElse = true;
+            }
+            case "endif" -> {
+                if (conditionals.isEmpty()) {
+                    throw new MinicException("#endif without #if", loc);
+                }
+                conditionals.pop();
+            }
+            default -> {
+                if (!isActive()) {
+                    return;
+                }
+                switch (name) {
+                    case "define" -> macros.define(rest, loc);
+                    case "undef" -> macros.undefine(macroName(tokens, name, loc));
+                    case "pragma", "" -> {
+                        // #pragma once is what every include does anyway; others are ignored
+                    }
+                    case "error" -> throw new MinicException("#error " + rest, loc);
+                    default -> throw new MinicException("Unknown directive: #" + name, loc);
+                }
+            }
+        }
+    }
+
+    private static String macroName(List<String> tokens, String directive, Location loc) throws MinicException {
+        for (String t : tokens.subList(1, tokens.size())) {
+            if (MacroExpander.isIdentifier(t)) {
+                return t;
+            } else if (!t.isBlank()) {
+                break;
+            }
+        }
+        throw new MinicException("Macro name missing in #" + directive, loc);
+    }
+
+    /**
+     * @return the innermost conditional, which {@code directive} continues
+     */
+    private Conditional conditional(String directive, Location loc) throws MinicException {
+        Conditional c = conditionals.peek();
+        if (c == null) {
+            throw new MinicException("#" + directive + " without #if", loc);
+        }
+        if (c.sawElse) {
+            throw new MinicException("#" + directive + " after #else", loc);
+        }
+        return c;
+    }
+
+    private void addSlice(char[] buffer, int from, int to) {
+        if (to <= from) {
+            return;
+        }
+        if (slices == buffers.length) {
+            buffers = Arrays.copyOf(buffers, slices * 2);
+            offsets = Arrays.copyOf(offsets, slices * 2);
+            lengths = Arrays.copyOf(lengths, slices * 2);
+        }
+        buffers[slices] = buffer;
+        offsets[slices] = from;
+        lengths[slices] = to - from;
+        slices++;
+    }
+
+    private void includeFile(Path path, Location from) throws MinicException {
+        if (visited.contains(path)) return; // skip the read as well
+        char[] text;
+        try {
+            text = sources.read(path);
+        } catch (IOException e) {
+            throw new MinicException("Error reading file: " + path, from, e);
+        }
+        includeFile(path, text);
+    }
+
+    private Path resolveInclude(Path includer, String directive, Location loc) throws MinicException {
+        String inc = extractIncludePath(directive, '"', '"');
+        boolean quoted = true;
+        if (inc == null) {
+            inc = extractIncludePath(directive, '<', '>');
+            quoted = false;
+        }
+        if (inc == null) {
+            throw new MinicException("Include directive does not specify a valid file path", loc);
+        }
+        Path resolved = sources.resolve(includer, inc, quoted, includePath);
+        if (resolved == null) {
+            throw new MinicException("Include file not found: " + inc, loc);
         }
+        return resolved;
     }
 
-    private String extractIncludePath(String line) {
-        // accept #include "file"
-        int firstQuote = line.indexOf('"');
-        int lastQuote = line.lastIndexOf('"');
-        if (firstQuote >= 0 && lastQuote > firstQuote) {
-            return line.substring(firstQuote + 1, lastQuote);
+    private String extractIncludePath(String line, char open, char close) {
+        // accept #include "file" and #include <file>
+        int first = line.indexOf(open);
+        int last = line.lastIndexOf(close);
+        if (first >= 0 && last > first) {
+            return line.substring(first + 1, last);
         }
         return null;
     }
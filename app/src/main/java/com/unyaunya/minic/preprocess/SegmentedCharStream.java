@@ -0,0 +1,151 @@
+package com.unyaunya.minic.preprocess;
+
+import java.util.Arrays;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.IntStream;
+import org.antlr.v4.runtime.misc.Interval;
+
+/**
+ * A {@link CharStream} over a sequence of slices of shared character buffers,
+ * so the preprocessed program is lexed straight from the cached text of each
+ * file without being copied into one string first.
+ *
+ * Symbols are UTF-16 code units, as with ANTLR's former ANTLRInputStream.
+ * The whole input is in memory, so marks are free and seeking is unrestricted.
+ */
+public class SegmentedCharStream implements CharStream {
+    private final String sourceName;
+    private final char[][] buffers;
+    private final int[] offsets;   // start of each slice within its buffer
+    private final int[] starts;    // stream index of each slice's first char; starts[n] == size
+    private final int size;
+    private int p;                 // current index
+    private int segment;           // slice containing p, or the last slice when p == size
+
+    /**
+     * @param lengths length of each slice, none of which may be empty
+     */
+    SegmentedCharStream(String sourceName, char[][] buffers, int[] offsets, int[] lengths) {
+        this.sourceName = sourceName;
+        this.buffers = buffers;
+        this.offsets = offsets;
+        this.starts = new int[buffers.length + 1];
+        for (int i = 0; i < buffers.length; i++) {
+            starts[i + 1] = starts[i] + lengths[i];
+        }
+        this.size = starts[buffers.length];
+    }
+
+    private int segmentOf(int index) {
+        if (index >= starts[segment] && index < starts[segment + 1]) {
+            return segment;
+        }
+        int i = Arrays.binarySearch(starts, 0, buffers.length, index);
+        return (i < 0) ? -i - 2 : i;
+    }
+
+    private char charAt(int index) {
+        int s = segmentOf(index);
+        return buffers[s][offsets[s] + index - starts[s]];
+    }
+
+    @Override
+    public void consume() {
+        if (p >= size) {
+            throw new IllegalStateException("cannot consume EOF");
+        }
+        p++;
+        while (segment < buffers.length - 1 && p >= starts[segment + 1]) {
+            segment++;
+        }
+    }
+
+    @Override
+    public int LA(int i) {
+        if (i == 0) {
+            return 0; // undefined
+        }
+        int index = (i > 0) ? p + i - 1 : p + i;
+        if (index < 0 || index >= size) {
+            return IntStream.EOF;
+        }
+        int s = segment;
+        if (index >= starts[s] && index < starts[s + 1]) {
+            return buffers[s][offsets[s] + index - starts[s]];
+        }
+        return charAt(index);
+    }
+
+    @Override
+    public int mark() {
+        return -1;
+    }
+
+    @Override
+    public void release(int marker) {
+    }
+
+    @Override
+    public int index() {
+        return p;
+    }
+
+    @Override
+    public void seek(int index) {
+        p = Math.max(0, Math.min(index, size));
+        segment = (buffers.length == 0) ? 0 : segmentOf(Math.min(p, size - 1));
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public String getSourceName() {
+        return (sourceName == null || sourceName.isEmpty()) ? UNKNOWN_SOURCE_NAME : sourceName;
+    }
+
+    @Override
+    public String getText(Interval interval) {
+        int start = Math.max(0, interval.a);
+        int stop = Math.min(interval.b, size - 1);
+        if (start > stop) {
+            return "";
+        }
+        StringBuilder sb = new StringBuilder(stop - start + 1);
+        int s = segmentOf(start);
+        int index = start;
+        while (index <= stop) {
+            int end = Math.min(stop + 1, starts[s + 1]);
+            sb.append(buffers[s], offsets[s] + index - starts[s], end - index);
+            index = end;
+            s++;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Copies the chars from {@code start} (inclusive) to {@code end} (exclusive)
+     * into {@code dst}, like {@link String#getChars}.
+     */
+    public void getChars(int start, int end, char[] dst, int dstBegin) {
+        if (start >= end) {
+            return;
+        }
+        int s = segmentOf(start);
+        int index = start;
+        while (index < end) {
+            int stop = Math.min(end, starts[s + 1]);
+            System.arraycopy(buffers[s], offsets[s] + index - starts[s], dst, dstBegin + index - start, stop - index);
+            index = stop;
+            s++;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return getText(Interval.of(0, size - 1));
+    }
+}
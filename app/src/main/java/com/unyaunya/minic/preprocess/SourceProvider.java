@@ -0,0 +1,54 @@
+package com.unyaunya.minic.preprocess;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Where the {@link Preprocessor} reads the main source and its includes from.
+ *
+ * Sources are named by paths, which only have to be meaningful to the
+ * provider: {@link IncludeCache} reads the file system, {@link MemorySources}
+ * a map of names to texts and {@link ClasspathSources} class path resources.
+ * The names appear in diagnostics.
+ */
+public interface SourceProvider {
+    /**
+     * @return the name under which {@code path} is read and reported, so that
+     *         one source has one name however it was reached
+     */
+    Path normalize(Path path);
+
+    /**
+     * Resolves an include directive.
+     * @param includer normalized name of the including source
+     * @param name the name between the quotes or angle brackets
+     * @param quoted true for {@code #include "name"}, which is looked up next to
+     *        {@code includer} before {@code searchPath}
+     * @param searchPath normalized include path
+     * @return normalized name of the included source, or null if there is none
+     */
+    Path resolve(Path includer, String name, boolean quoted, List<Path> searchPath);
+
+    /**
+     * Returns the text of an included source.
+     * @param path normalized name
+     * @return the text, which may be shared and must not be modified
+     */
+    char[] read(Path path) throws IOException;
+
+    /**
+     * Returns the text of the source being compiled.
+     */
+    default char[] readSource(Path path) throws IOException {
+        return read(path);
+    }
+
+    /**
+     * @return a provider of the given texts, see {@link MemorySources}
+     */
+    static SourceProvider of(Map<String, String> sources) {
+        return new MemorySources(sources);
+    }
+}
@@ -1,24 +1,40 @@
 
 package com.unyaunya.minic.semantics;
 
+import com.unyaunya.minic.Diagnostics;
 import com.unyaunya.minic.Location;
 import com.unyaunya.minic.MinicException;
 import com.unyaunya.minic.ast.*;
 import com.unyaunya.minic.ast.Binary.Op;
+import com.unyaunya.minic.backend.Casl2Builder;
 
 import java.util.*;
+import java.util.function.Predicate;
 
 /**
  * SemanticAnalyzer performs scope management, type checking,
  * and semantic validation of the AST produced by AstBuilder.
+ * It keeps its tables in instance fields, so use a new instance per program.
+ *
+ * Errors go to a {@link Diagnostics} and analysis goes on: an undeclared
+ * name is declared as an int in the current function, so it is reported
+ * only once there, and a call to an unknown function yields int.
+ *
+ * Once the functions and globals are declared, the function bodies can be
+ * analyzed in parallel on the common fork-join pool, each by an analyzer of
+ * its own with a copy of the global scope. Their diagnostics, symbols and
+ * strings are then added in source order, so the result, including where the
+ * error limit stops, is the same as that of a sequential analysis.
  */
 public class SemanticAnalyzer {
+    private final Diagnostics diagnostics;
+    private final boolean parallel;
 
-    // Stack of scopes: each scope is a map of name -> Symbol
-    private final Deque<Map<String, Symbol>> scopes = new ArrayDeque<>();
+    // Names in scope; every resolved name is also bound into its AST node
+    private final SymbolTable symbols;
 
     // Global function table
-    private final Map<String, FunctionDecl> functions = new HashMap<>();
+    private final Map<String, FunctionDecl> functions;
 
     // New structures for SemanticInfo
     private final Map<String, Map<String, Symbol>> functionSymbols = new HashMap<>();
@@ -27,27 +43,87 @@ public class SemanticAnalyzer {
 
     private int localVarOffset;
 
+    /**
+     * Creates an analyzer that throws on the first error.
+     */
+    public SemanticAnalyzer() {
+        this(new Diagnostics(1));
+    }
+
+    public SemanticAnalyzer(Diagnostics diagnostics) {
+        this(diagnostics, false);
+    }
+
+    /**
+     * @param parallel whether to analyze the function bodies in parallel
+     */
+    public SemanticAnalyzer(Diagnostics diagnostics, boolean parallel) {
+        this.diagnostics = diagnostics;
+        this.parallel = parallel;
+        this.symbols = new SymbolTable();
+        this.functions = new HashMap<>();
+    }
+
+    /**
+     * Creates an analyzer for one function body of the program {@code parent}
+     * analyzes, which collects its diagnostics without a limit.
+     */
+    private SemanticAnalyzer(SemanticAnalyzer parent) {
+        this.diagnostics = new Diagnostics(0);
+        this.parallel = false;
+        this.symbols = parent.symbols.copy();
+        this.functions = parent.functions;
+    }
+
     public SemanticInfo analyze(Program program) throws MinicException {
+        return analyze(program, f -> true);
+    }
+
+    /**
+     * Analyzes the program, but only the bodies of the functions accepted by
+     * {@code analyzeBody}; the others are only declared, so the returned info
+     * has no locals or strings of them, e.g. because their code is cached.
+     */
+    public SemanticInfo analyze(Program program, Predicate<FunctionDecl> analyzeBody) throws MinicException {
+        if (!functionSymbols.isEmpty()) {
+            throw new IllegalStateException("SemanticAnalyzer can analyze only one program");
+        }
         // Collect function signatures
         for (FunctionDecl f : program.getFunctions()) {
             if (functions.containsKey(f.getName())) {
                 error(f.getLocation(), "Duplicate function: " + f.getName());
             }
             functions.put(f.getName(), f);
+            checkLabelLength(f.getName(), f);
         }
 
         // Global scope
         enterScope();
         for (GlobalDecl g : program.getGlobals()) {
-            declare(g.getName(), new Symbol(g.getType(), StorageClass.GLOBAL, 0), g.getLocation());
+            declare(g.getName(), new Symbol(g.getType(), StorageClass.GLOBAL, 0, g.getName()), g);
+            checkLabelLength(g.getName(), g);
         }
 
         // Analyze each function
-        for (FunctionDecl f : program.getFunctions()) {
-            analyzeFunction(f);
+        List<FunctionDecl> bodies = program.getFunctions().stream().filter(analyzeBody).toList();
+        if (parallel && bodies.size() > 1) {
+            List<SemanticAnalyzer> analyzed = bodies.parallelStream().map(f -> {
+                SemanticAnalyzer a = new SemanticAnalyzer(this);
+                a.analyzeFunction(f);
+                return a;
+            }).toList();
+            for (SemanticAnalyzer a : analyzed) {
+                diagnostics.report(a.diagnostics.getDiagnostics());
+                functionSymbols.putAll(a.functionSymbols);
+                localSizes.putAll(a.localSizes);
+                strings.addAll(a.strings);
+            }
+        } else {
+            for (FunctionDecl f : bodies) {
+                analyzeFunction(f);
+            }
         }
-        functionSymbols.put("_GLOBAL", scopes.peek());
-        exitScope();
+        functionSymbols.put("_GLOBAL", exitScope());
 
         return new SemanticInfo(functionSymbols, localSizes, this.strings);
     }
@@ -60,17 +136,15 @@ public class SemanticAnalyzer {
         int paramOffset = 0;
         for (Param p : f.getParams()) {
             Symbol sym = new Symbol(p.getType(), StorageClass.PARAM, ++paramOffset);
-            declare(p.getName(), sym, p.getLocation());
+            declare(p.getName(), sym, p);
         }
 
         // Analyze body and collect locals
         analyzeBlock(f.getBody(), f.getReturnType());
 
         // Save function-level info
-        functionSymbols.put(f.getName(), scopes.peek());
+        functionSymbols.put(f.getName(), exitScope());
         localSizes.put(f.getName(), localVarOffset);
-
-        exitScope();
     }
 
     private void analyzeBlock(Block b, TypeSpec expectedReturn) throws MinicException {
@@ -83,7 +157,8 @@ public class SemanticAnalyzer {
         if (s instanceof VarDecl v) {
             localVarOffset += v.getType().getSize(); // assume getSize() returns word count
             Symbol sym = new Symbol(v.getType(), StorageClass.LOCAL, localVarOffset);
-            declare(v.getName(), sym, v.getLocation());
+            declare(v.getName(), sym, v);
+            v.setSymbol(sym);
 
             if (v.getInit() != null) {
                 TypeSpec rhs = checkExpr(v.getInit());
@@ -112,14 +187,17 @@ public class SemanticAnalyzer {
                     error(r.getLocation(), "Can't return value in void function");
                 }
             }
-        } else if (s instanceof IfStmt i) {
-            TypeSpec condType = checkExpr(i.getCond());
-            if (condType.getBaseType() != BaseType.INT) {
-                error(i.getLocation(), "Condition in if must be int");
-            }
-            analyzeBlock(i.getThenBlock(), expectedReturn);
-            if (i.getElseBlock() != null) {
-                analyzeBlock(i.getElseBlock(), expectedReturn);
+        } else if (s instanceof IfStmt first) {
+            // else-if chains are followed in a loop
+            for (IfStmt i = first; i != null; i = i.getElseIf()) {
+                TypeSpec condType = checkExpr(i.getCond());
+                if (condType.getBaseType() != BaseType.INT) {
+                    error(i.getLocation(), "Condition in if must be int");
+                }
+                analyzeBlock(i.getThenBlock(), expectedReturn);
+                if (i.getElseBlock() != null && i.getElseIf() == null) {
+                    analyzeBlock(i.getElseBlock(), expectedReturn);
+                }
             }
         } else if (s instanceof WhileStmt w) {
             TypeSpec condType = checkExpr(w.getCond());
@@ -153,7 +231,9 @@ public class SemanticAnalyzer {
             this.strings.add(s.getValue());
             return new TypeSpec(BaseType.INT, 1);
         } else if (e instanceof VarRef v) {
-            return lookup(v.getName(), v.getLocation()).getType();
+            Symbol sym = lookup(v.getName(), v);
+            v.setSymbol(sym);
+            return sym.getType();
         } else if (e instanceof Binary b) {
             return checkBinary(b);
         } else if (e instanceof UnaryNeg u) {
@@ -169,7 +249,8 @@ public class SemanticAnalyzer {
             }
             return new TypeSpec(BaseType.INT);
         } else if (e instanceof AddressOf a) {
-            Symbol sym = lookup(a.getName(), a.getLocation());
+            Symbol sym = lookup(a.getName(), a);
+            a.setSymbol(sym);
             return sym.getType().getAddressType();
         } else if (e instanceof PtrDeref d) {
             TypeSpec t = checkExpr(d.getExpr());
@@ -180,7 +261,8 @@ public class SemanticAnalyzer {
         } else if (e instanceof Cast d) {
             return d.getType();
         } else if (e instanceof ArrayElem arr) {
-            Symbol sym = lookup(arr.getName(), arr.getLocation());
+            Symbol sym = lookup(arr.getName(), arr);
+            arr.setSymbol(sym);
             TypeSpec idxType = checkExpr(arr.getExpr());
             if (idxType.getBaseType() != BaseType.INT) {
                 error(arr.getLocation(), "Array index must be int");
@@ -190,12 +272,20 @@ public class SemanticAnalyzer {
             FunctionDecl f = functions.get(c.getName());
             if (f == null) {
                 error(c.getLocation(), "Call to undeclared function: " + c.getName());
+                for (Expr arg : c.getArgs()) {
+                    checkExpr(arg);
+                }
+                return new TypeSpec(BaseType.INT);
             }
+            c.setFunction(f);
             if (c.getArgs().size() != f.getParams().size()) {
                 error(c.getLocation(), "Argument count mismatch in call to " + c.getName());
             }
             for (int i = 0; i < c.getArgs().size(); i++) {
                 TypeSpec argType = checkExpr(c.getArgs().get(i));
+                if (i >= f.getParams().size()) {
+                    continue;
+                }
                 TypeSpec paramType = f.getParams().get(i).getType();
                 if (!argType.isCompatible(paramType)) {
                     error(c.getLocation(), "Argument type mismatch in call to " + c.getName());
@@ -207,12 +297,28 @@ public class SemanticAnalyzer {
         return new TypeSpec(BaseType.INT); // fallback
     }
 
-    private TypeSpec checkBinary(Binary b) throws MinicException {
-        TypeSpec lt = checkExpr(b.getLeft());
-        TypeSpec rt = checkExpr(b.getRight());
+    /**
+     * Checks a chain of left-associative operators like a+b+c+... in a loop,
+     * innermost operator first, as a recursive walk would.
+     */
+    private TypeSpec checkBinary(Binary top) throws MinicException {
+        Deque<Binary> chain = new ArrayDeque<>();
+        Expr e = top;
+        while (e instanceof Binary b) {
+            chain.push(b);
+            e = b.getLeft();
+        }
+        TypeSpec lt = checkExpr(e);
+        for (Binary b : chain) {
+            lt = checkBinary(b, lt, checkExpr(b.getRight()));
+        }
+        return lt;
+    }
+
+    private TypeSpec checkBinary(Binary b, TypeSpec lt, TypeSpec rt) throws MinicException {
         switch (b.getOp()) {
-            case Op.ADD -> { return checkAdd(lt, rt, b.getLocation()); }
-            case Op.SUB -> { return checkSub(lt, rt, b.getLocation()); }
+            case Op.ADD -> { return checkAdd(lt, rt, b); }
+            case Op.SUB -> { return checkSub(lt, rt, b); }
             case Op.AND, Op.OR -> {
                 if (lt.getBaseType() != BaseType.INT || rt.getBaseType() != BaseType.INT) {
                     error(b.getLocation(), "Logical &&/|| operands must be int");
@@ -230,27 +336,27 @@ public class SemanticAnalyzer {
         return lt;
     }
 
-     private TypeSpec checkAdd(TypeSpec lt, TypeSpec rt, Location loc) throws MinicException {
+     private TypeSpec checkAdd(TypeSpec lt, TypeSpec rt, Node node) throws MinicException {
         if(lt.isSimpleInt()) {
             return rt;
         } else {
             if(rt.isSimpleInt()) {
                 return lt;
             } else {
-                error(loc, "Type mismatch in binary expression");
+                error(node.getLocation(), "Type mismatch in binary expression");
                 return new TypeSpec(BaseType.INT);
             }
         }
     }
 
-     private TypeSpec checkSub(TypeSpec lt, TypeSpec rt, Location loc) throws MinicException {
+     private TypeSpec checkSub(TypeSpec lt, TypeSpec rt, Node node) throws MinicException {
         if(rt.isSimpleInt()) {
             return lt;
         } else {
             if (lt.isCompatible(rt)) {
                 return new TypeSpec(BaseType.INT);
             } else {
-                error(loc, "Type mismatch in binary expression");
+                error(node.getLocation(), "Type mismatch in binary expression");
                 return new TypeSpec(BaseType.INT);
             }
         }
@@ -258,9 +364,13 @@ public class SemanticAnalyzer {
     
     private TypeSpec checkLValue(LValue lv) throws MinicException {
         if (lv instanceof LvVar v) {
-            return lookup(v.getName(), v.getLocation()).getType();
+            Symbol sym = lookup(v.getName(), v);
+            v.setSymbol(sym);
+            return sym.getType();
         } else if (lv instanceof LvArrayElem arr) {
-            Symbol sym = lookup(arr.getName(), arr.getLocation());
+            Symbol sym = lookup(arr.getName(), arr);
+            arr.setSymbol(sym);
+            checkExpr(arr.getExpr()); // binds the names in the index
             if (sym.getType().getEffectivePointerDepth() == 0) {
                 error(lv.getLocation(), "Cannot dereference non-pointer");
             }
@@ -279,30 +389,40 @@ public class SemanticAnalyzer {
     // ----------------------
     // Scope helpers
     // ----------------------
-    private void enterScope() { scopes.push(new HashMap<>()); }
-    private void exitScope() { scopes.pop(); }
+    private void enterScope() { symbols.enterScope(); }
+    private Map<String, Symbol> exitScope() { return symbols.exitScope(); }
+
+    private void declare(String name, Symbol sym, Node node) throws MinicException {
+        if (!symbols.declare(name, sym)) {
+            error(node.getLocation(), "Redeclaration: " + name);
+        }
+    }
 
-    private void declare(String name, Symbol sym, Location loc) throws MinicException {
-        Map<String, Symbol> current = scopes.peek();
-        if (current.containsKey(name)) {
-            error(loc, "Redeclaration: " + name);
+    private Symbol lookup(String name, Node node) throws MinicException {
+        Symbol sym = symbols.lookup(name);
+        if (sym == null) {
+            error(node.getLocation(), "Undeclared identifier: " + name);
+            sym = new Symbol(new TypeSpec(BaseType.INT), StorageClass.LOCAL, 0);
+            symbols.declare(name, sym);
         }
-        current.put(name, sym);
+        return sym;
     }
 
-    private Symbol lookup(String name, Location loc) throws MinicException {
-        for (Map<String, Symbol> scope : scopes) {
-            if (scope.containsKey(name)) return scope.get(name);
+    /**
+     * Global names become CASL2 labels, which are cut to their first characters.
+     */
+    private void checkLabelLength(String name, Node node) {
+        if (name.length() > Casl2Builder.MAX_LABEL_LEN) {
+            diagnostics.warning(node.getLocation(), String.format("Name '%s' is longer than %d characters and is shortened to label %s",
+                    name, Casl2Builder.MAX_LABEL_LEN, name.substring(0, Casl2Builder.MAX_LABEL_LEN).toUpperCase()));
         }
-        error(loc, "Undeclared identifier: " + name);
-        return null;
     }
 
     private void error(Location location, String msg) throws MinicException {
-        throw new MinicException(location, msg);
+        diagnostics.error(location, msg);
     }
 
     private void error(Location location, String fmt, Object... args) throws MinicException {
-        throw new MinicException(location, fmt, args);
+        diagnostics.error(location, fmt, args);
     }
 }
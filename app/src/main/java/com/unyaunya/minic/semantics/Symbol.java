@@ -6,13 +6,35 @@ import lombok.Value;
 
 /**
  * Represents a symbol in the symbol table.
- * Stores type information and can be extended for offsets, etc.
+ * Stores type information and where the emitter finds the symbol, computed
+ * once when it is declared.
  */
 @Value
 public class Symbol {
     TypeSpec type;
     StorageClass storageClass;
     int offset; // For PARAM and LOCAL: offset from GR7
+    String label; // For GLOBAL: the CASL2 label
+    int displacement; // For PARAM and LOCAL: the 16-bit displacement from GR6
+
+    public Symbol(TypeSpec type, StorageClass storageClass, int offset) {
+        this(type, storageClass, offset, null);
+    }
+
+    /**
+     * @param name the name of the symbol, required for GLOBAL
+     */
+    public Symbol(TypeSpec type, StorageClass storageClass, int offset, String name) {
+        this.type = type;
+        this.storageClass = storageClass;
+        this.offset = offset;
+        this.label = (storageClass == StorageClass.GLOBAL) ? name.toUpperCase() : null;
+        this.displacement = switch (storageClass) {
+            case LOCAL -> 65536 - offset; // locals are below GR6
+            case PARAM -> offset;
+            case GLOBAL -> 0;
+        };
+    }
 
     public boolean isArray() {
         return this.getType().getArraySize() != null;
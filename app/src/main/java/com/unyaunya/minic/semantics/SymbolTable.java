@@ -0,0 +1,88 @@
+package com.unyaunya.minic.semantics;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names visible at the current point of the analysis.
+ *
+ * Instead of a stack of maps searched from the innermost scope outwards, one
+ * map holds the innermost symbol of each name, and an undo log remembers the
+ * binding every declaration shadowed, so leaving a scope restores them.
+ * A lookup is therefore a single hash lookup however deep the scopes are.
+ */
+class SymbolTable {
+    private record Binding(Symbol symbol, int depth) {
+    }
+
+    private record Undo(String name, Binding shadowed) {
+    }
+
+    private final Map<String, Binding> bindings = new HashMap<>();
+    private final List<Undo> log = new ArrayList<>();
+    private int[] marks = new int[8]; // log size when each open scope was entered
+    private int depth;
+
+    void enterScope() {
+        if (depth == marks.length) {
+            marks = Arrays.copyOf(marks, depth * 2);
+        }
+        marks[depth++] = log.size();
+    }
+
+    /**
+     * Leaves the innermost scope.
+     * @return the symbols declared in it
+     */
+    Map<String, Symbol> exitScope() {
+        int mark = marks[--depth];
+        Map<String, Symbol> scope = new HashMap<>();
+        for (int i = log.size() - 1; i >= mark; i--) {
+            Undo undo = log.remove(i);
+            scope.put(undo.name(), bindings.get(undo.name()).symbol());
+            if (undo.shadowed() == null) {
+                bindings.remove(undo.name());
+            } else {
+                bindings.put(undo.name(), undo.shadowed());
+            }
+        }
+        return scope;
+    }
+
+    /**
+     * @return a table with the same names in scope that can be changed
+     *         independently of this one
+     */
+    SymbolTable copy() {
+        SymbolTable copy = new SymbolTable();
+        copy.bindings.putAll(bindings);
+        copy.log.addAll(log);
+        copy.marks = marks.clone();
+        copy.depth = depth;
+        return copy;
+    }
+
+    /**
+     * @return false if {@code name} is already declared in the innermost scope
+     */
+    boolean declare(String name, Symbol symbol) {
+        Binding shadowed = bindings.get(name);
+        if (shadowed != null && shadowed.depth() == depth) {
+            return false;
+        }
+        bindings.put(name, new Binding(symbol, depth));
+        log.add(new Undo(name, shadowed));
+        return true;
+    }
+
+    /**
+     * @return the innermost symbol named {@code name}, or null
+     */
+    Symbol lookup(String name) {
+        Binding binding = bindings.get(name);
+        return (binding == null) ? null : binding.symbol();
+    }
+}
@@ -0,0 +1,302 @@
+package com.unyaunya.minic.server;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.ConnectException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import com.unyaunya.minic.CompileResult;
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.Diagnostic;
+import com.unyaunya.minic.Prewarm;
+import com.unyaunya.minic.stats.CompileStats;
+
+/**
+ * Resident compiler that answers compile requests over stdin/stdout or a
+ * Unix-domain socket. The JVM, the loaded classes and the ANTLR ATN/DFA caches
+ * of MiniCParser stay warm between requests.
+ *
+ * <pre>
+ * request:   COMPILE &lt;id&gt;
+ *            path: &lt;file&gt;         name used for includes and diagnostics
+ *            length: &lt;n&gt;          optional, n bytes of source follow; else path is read
+ *            stats: true          optional, adds the phase table to the diagnostics
+ *            (empty line)
+ *            &lt;source bytes&gt;
+ *
+ * response:  RESULT &lt;id&gt; ok|error
+ *            asm-length: &lt;n&gt;
+ *            diagnostics-length: &lt;m&gt;
+ *            (empty line)
+ *            &lt;asm bytes&gt;&lt;diagnostics bytes&gt;
+ * </pre>
+ *
+ * Lengths are in bytes of UTF-8. Every request runs on its own virtual thread,
+ * so responses on one connection may come back in a different order; match
+ * them by id. {@code SHUTDOWN} or end of input closes the connection after all
+ * pending responses are written. A length that isn't a non-negative number
+ * gets an error response, and then the connection is closed, as the end of
+ * the source is unknown.
+ *
+ * A socket path is only taken over from a server that is gone: if a server
+ * still accepts connections there, or the path is not a socket, the server
+ * doesn't start.
+ */
+public class CompileServer {
+    private final Logger logger = Logger.getLogger(getClass().getName());
+    private final CompilerMain compiler;
+
+    public CompileServer() {
+        this(new CompilerMain());
+    }
+
+    public CompileServer(CompilerMain compiler) {
+        this.compiler = compiler;
+    }
+
+    /**
+     * Compiles a small program so the first real request doesn't pay for
+     * class loading and ATN deserialization.
+     */
+    public void warmUp() {
+        Prewarm.compile(compiler);
+    }
+
+    public void serveStdio() throws IOException {
+        warmUp();
+        serve(System.in, System.out);
+    }
+
+    public void serveSocket(Path socketPath) throws IOException {
+        removeStaleSocket(socketPath);
+        warmUp();
+        try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+             ExecutorService connections = Executors.newVirtualThreadPerTaskExecutor()) {
+            server.bind(UnixDomainSocketAddress.of(socketPath));
+            logger.info("Listening on " + socketPath);
+            while (true) {
+                SocketChannel channel = server.accept();
+                connections.submit(() -> {
+                    try (channel) {
+                        serve(new ChannelInput(channel), new ChannelOutput(channel));
+                    } catch (IOException e) {
+                        logger.warning("Connection closed: " + e.getMessage());
+                    }
+                });
+            }
+        } finally {
+            Files.deleteIfExists(socketPath);
+        }
+    }
+
+    /**
+     * Deletes the socket a server that has stopped left behind at {@code socketPath}.
+     * @throws IOException if something else is there, or a server is listening on it
+     */
+    private static void removeStaleSocket(Path socketPath) throws IOException {
+        BasicFileAttributes attributes;
+        try {
+            attributes = Files.readAttributes(socketPath, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+        } catch (IOException e) {
+            return; // nothing there
+        }
+        if (!attributes.isOther()) {
+            throw new IOException("Not a socket: " + socketPath);
+        }
+        try (SocketChannel probe = SocketChannel.open(UnixDomainSocketAddress.of(socketPath))) {
+            throw new IOException("Another server is listening on " + socketPath);
+        } catch (ConnectException e) {
+            // nobody accepts connections, so the socket is stale
+        }
+        Files.delete(socketPath);
+    }
+
+    /**
+     * Serves one connection until SHUTDOWN or end of input.
+     */
+    public void serve(InputStream rawIn, OutputStream out) throws IOException {
+        InputStream in = new BufferedInputStream(rawIn);
+        try (ExecutorService requests = Executors.newVirtualThreadPerTaskExecutor()) {
+            String line;
+            while ((line = readLine(in)) != null) {
+                if (line.isEmpty()) {
+                    continue;
+                }
+                if (line.equals("SHUTDOWN")) {
+                    break;
+                }
+                if (!line.startsWith("COMPILE ")) {
+                    throw new IOException("Unexpected request: " + line);
+                }
+                String id = line.substring("COMPILE ".length()).trim();
+                Map<String, String> headers = readHeaders(in);
+                String source = null;
+                if (headers.containsKey("length")) {
+                    int length = parseLength(headers.get("length"));
+                    if (length < 0) {
+                        // where the source ends is unknown, so the connection can't go on
+                        send(out, id, false, "", "Malformed length: " + headers.get("length") + "\n");
+                        throw new IOException("Malformed length in request " + id + ": " + headers.get("length"));
+                    }
+                    source = new String(readBytes(in, length), StandardCharsets.UTF_8);
+                }
+                String body = source;
+                requests.submit(() -> respond(out, id, headers, body));
+            }
+        }
+        out.flush();
+    }
+
+    private void respond(OutputStream out, String id, Map<String, String> headers, String source) {
+        String path = headers.getOrDefault("path", "stdin.c");
+        CompileStats stats = new CompileStats(path, Boolean.parseBoolean(headers.get("stats")));
+        String asm = "";
+        StringBuilder diagnostics = new StringBuilder();
+        boolean ok;
+        try {
+            CompileResult result = compiler.compileWithDiagnostics(Path.of(path), source, stats);
+            for (Diagnostic d : result.getDiagnostics()) {
+                diagnostics.append(d).append('\n');
+            }
+            ok = result.isSuccess();
+            if (ok) {
+                asm = result.getOutput();
+            }
+        } catch (RuntimeException | StackOverflowError e) {
+            diagnostics.append(e.getMessage()).append('\n');
+            ok = false;
+        }
+        if (stats.isEnabled()) {
+            diagnostics.append(stats.report());
+        }
+        send(out, id, ok, asm, diagnostics.toString());
+    }
+
+    private void send(OutputStream out, String id, boolean ok, String asm, String diagnostics) {
+        byte[] asmBytes = asm.getBytes(StandardCharsets.UTF_8);
+        byte[] diagBytes = diagnostics.getBytes(StandardCharsets.UTF_8);
+        String header = String.format("RESULT %s %s\nasm-length: %d\ndiagnostics-length: %d\n\n",
+                id, ok ? "ok" : "error", asmBytes.length, diagBytes.length);
+        try {
+            synchronized (out) {
+                out.write(header.getBytes(StandardCharsets.UTF_8));
+                out.write(asmBytes);
+                out.write(diagBytes);
+                out.flush();
+            }
+        } catch (IOException e) {
+            logger.warning("Failed to send result " + id + ": " + e.getMessage());
+        }
+    }
+
+    // ----------------------
+    // Framing helpers
+    // ----------------------
+    private static Map<String, String> readHeaders(InputStream in) throws IOException {
+        Map<String, String> headers = new HashMap<>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon < 0) {
+                throw new IOException("Malformed header: " + line);
+            }
+            headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+        }
+        return headers;
+    }
+
+    /**
+     * @return the value of a length header, or -1 if it isn't a non-negative int
+     */
+    private static int parseLength(String value) {
+        try {
+            return Math.max(-1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            buf.write(b);
+        }
+        if (b == -1 && buf.size() == 0) {
+            return null;
+        }
+        String line = buf.toString(StandardCharsets.UTF_8);
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        byte[] data = in.readNBytes(length);
+        if (data.length != length) {
+            throw new EOFException("Source truncated: expected " + length + " bytes, got " + data.length);
+        }
+        return data;
+    }
+
+    /*
+     * Channels.newInputStream/newOutputStream serialize reads and writes on
+     * the channel's blocking lock; these adapters let a response be written
+     * while the connection thread waits for the next request.
+     */
+    private static class ChannelInput extends InputStream {
+        private final SocketChannel channel;
+
+        ChannelInput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public int read() throws IOException {
+            byte[] b = new byte[1];
+            return (read(b, 0, 1) == -1) ? -1 : (b[0] & 0xFF);
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return (len == 0) ? 0 : channel.read(ByteBuffer.wrap(b, off, len));
+        }
+    }
+
+    private static class ChannelOutput extends OutputStream {
+        private final SocketChannel channel;
+
+        ChannelOutput(SocketChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            ByteBuffer buf = ByteBuffer.wrap(b, off, len);
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+        }
+    }
+}
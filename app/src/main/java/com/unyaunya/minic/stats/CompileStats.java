@@ -0,0 +1,150 @@
+package com.unyaunya.minic.stats;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+import jdk.jfr.FlightRecorder;
+
+/**
+ * Wall time and allocated bytes per compiler phase of one compilation.
+ *
+ * Every measured phase is also committed as a {@link PhaseEvent} when Flight
+ * Recorder is recording, whether or not this instance collects statistics.
+ * Allocation is read from the current thread, so a phase must run on the
+ * thread that calls {@link #measure}; what the parallel analysis and
+ * emission of a large program allocate on other threads isn't counted.
+ *
+ * Neither the event class nor the thread MXBean is touched until statistics
+ * are collected or Flight Recorder is initialized: registering the event type
+ * and starting the management classes take longer than compiling a small
+ * program.
+ */
+public class CompileStats {
+    private static final class Threads {
+        static final com.sun.management.ThreadMXBean BEAN = threadMXBean();
+    }
+
+    private final String source;
+    private final boolean enabled;
+    private final Map<Phase, long[]> data = new EnumMap<>(Phase.class); // phase -> {nanos, bytes}
+    private boolean profileParser;
+    private String parserProfile;
+
+    public CompileStats(String source, boolean enabled) {
+        this.source = source;
+        this.enabled = enabled;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * True when the parser should run with ANTLR decision profiling, which is
+     * much slower than a normal parse.
+     */
+    public boolean isProfileParser() {
+        return profileParser;
+    }
+
+    public void setProfileParser(boolean profileParser) {
+        this.profileParser = profileParser;
+    }
+
+    public void setParserProfile(String parserProfile) {
+        this.parserProfile = parserProfile;
+    }
+
+    public void measure(Phase phase, Runnable action) {
+        measure(phase, () -> {
+            action.run();
+            return null;
+        });
+    }
+
+    public <T> T measure(Phase phase, Supplier<T> action) {
+        if (!enabled && !FlightRecorder.isInitialized()) {
+            return action.get();
+        }
+        PhaseEvent event = new PhaseEvent();
+        if (!enabled && !event.isEnabled()) {
+            return action.get();
+        }
+        long bytes = allocatedBytes();
+        long start = System.nanoTime();
+        event.begin();
+        T result = action.get();
+        event.end();
+        long nanos = System.nanoTime() - start;
+        bytes = (bytes < 0) ? -1 : allocatedBytes() - bytes;
+        if (enabled) {
+            long[] d = data.computeIfAbsent(phase, p -> new long[2]);
+            d[0] += nanos;
+            d[1] = (bytes < 0 || d[1] < 0) ? -1 : d[1] + bytes;
+        }
+        if (event.shouldCommit()) {
+            event.phase = phase.toString();
+            event.source = source;
+            event.allocated = bytes;
+            event.commit();
+        }
+        return result;
+    }
+
+    public long getNanos(Phase phase) {
+        long[] d = data.get(phase);
+        return (d == null) ? 0 : d[0];
+    }
+
+    /**
+     * @return bytes allocated during the phase, or -1 if the JVM can't tell
+     */
+    public long getAllocatedBytes(Phase phase) {
+        long[] d = data.get(phase);
+        return (d == null) ? 0 : d[1];
+    }
+
+    public String report() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%s%n", source));
+        if (enabled) {
+            reportPhases(sb);
+        }
+        if (parserProfile != null) {
+            sb.append(parserProfile);
+        }
+        return sb.toString();
+    }
+
+    private void reportPhases(StringBuilder sb) {
+        sb.append(String.format("  %-12s %12s %14s%n", "phase", "time(ms)", "alloc(KiB)"));
+        long totalNanos = 0;
+        long totalBytes = 0;
+        for (Map.Entry<Phase, long[]> e : data.entrySet()) {
+            long[] d = e.getValue();
+            sb.append(String.format("  %-12s %12.3f %14s%n", e.getKey(), d[0] / 1e6, kib(d[1])));
+            totalNanos += d[0];
+            totalBytes = (totalBytes < 0 || d[1] < 0) ? -1 : totalBytes + d[1];
+        }
+        sb.append(String.format("  %-12s %12.3f %14s%n", "total", totalNanos / 1e6, kib(totalBytes)));
+    }
+
+    private static String kib(long bytes) {
+        return (bytes < 0) ? "n/a" : String.format("%.1f", bytes / 1024.0);
+    }
+
+    private static long allocatedBytes() {
+        return (Threads.BEAN == null) ? -1 : Threads.BEAN.getCurrentThreadAllocatedBytes();
+    }
+
+    private static com.sun.management.ThreadMXBean threadMXBean() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean bean
+                && bean.isThreadAllocatedMemorySupported()) {
+            bean.setThreadAllocatedMemoryEnabled(true);
+            return bean;
+        }
+        return null;
+    }
+}
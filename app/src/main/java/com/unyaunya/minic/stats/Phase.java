@@ -0,0 +1,24 @@
+package com.unyaunya.minic.stats;
+
+/**
+ * Compiler phases measured by {@link CompileStats}.
+ */
+public enum Phase {
+    PREPROCESS("preprocess"),
+    CACHE("cache"),
+    LEX("lex"),
+    PARSE("parse"),
+    AST("ast build"),
+    SEMANTICS("semantics"),
+    EMIT("emit"),
+    WRITE("write");
+
+    private final String label;
+    Phase(String label) {
+        this.label = label;
+    }
+    @Override
+    public String toString() {
+        return label;
+    }
+}
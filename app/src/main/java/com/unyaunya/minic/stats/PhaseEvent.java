@@ -0,0 +1,28 @@
+package com.unyaunya.minic.stats;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+/**
+ * Flight Recorder event committed for every compiler phase.
+ * Record with e.g. {@code -XX:StartFlightRecording=filename=minic.jfr}.
+ */
+@Name("com.unyaunya.minic.Phase")
+@Label("MiniC Compiler Phase")
+@Category("MiniC")
+@Description("One phase of compiling a MiniC source file")
+class PhaseEvent extends Event {
+    @Label("Phase")
+    String phase;
+
+    @Label("Source")
+    String source;
+
+    @Label("Allocated")
+    @DataAmount
+    long allocated;
+}
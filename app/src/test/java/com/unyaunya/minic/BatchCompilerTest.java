@@ -0,0 +1,55 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class BatchCompilerTest {
+
+    @Test
+    void testFailuresDoNotAbortBatch(@TempDir Path out) throws Exception {
+        Map<Path, Path> targets = BatchCompiler.collectTargets(
+                List.of("sample/fib.c", "sample/error_test.c", "sample/str.c"), out);
+        List<BatchCompiler.Result> results = new BatchCompiler(3, false).compile(targets);
+
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).isSuccess());
+        assertFalse(results.get(1).isSuccess());
+        assertTrue(results.get(2).isSuccess());
+        assertEquals(new CompilerMain().compile("sample/fib.c"), Files.readString(out.resolve("fib.cas")));
+        assertTrue(Files.exists(out.resolve("str.cas")));
+        assertFalse(Files.exists(out.resolve("error_test.cas")));
+    }
+
+    @Test
+    void testSameOutputIsRejected(@TempDir Path dir) throws Exception {
+        Files.createDirectories(dir.resolve("x"));
+        Files.createDirectories(dir.resolve("y"));
+        for (String name : List.of("a.c", "a.mc", "x/main.c", "y/main.c")) {
+            Files.writeString(dir.resolve(name), "int main() {\n    return 0;\n}\n");
+        }
+        MinicException e = assertThrows(MinicException.class,
+                () -> BatchCompiler.collectTargets(List.of(dir.resolve("a.c").toString(), dir.resolve("a.mc").toString()), null));
+        assertTrue(e.getMessage().contains("a.cas"), e.getMessage());
+        assertThrows(MinicException.class,
+                () -> BatchCompiler.collectTargets(List.of(dir.resolve("x/main.c").toString(), dir.resolve("y/main.c").toString()), dir.resolve("out")));
+        // a directory keeps its subdirectories in the output directory
+        assertEquals(2, BatchCompiler.collectTargets(List.of(dir.resolve("x").toString(), dir.resolve("y").toString()), null).size());
+    }
+
+    @Test
+    void testDirectoryInput(@TempDir Path out) {
+        Map<Path, Path> targets = BatchCompiler.collectTargets(List.of("sample"), out);
+        assertEquals(out.resolve("fib.cas"), targets.get(Path.of("sample", "fib.c")));
+        assertEquals(out.resolve("puts.cas"), targets.get(Path.of("sample", "puts.mc")));
+    }
+}
@@ -0,0 +1,116 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.google.common.hash.HashCode;
+import com.unyaunya.minic.stats.CompileStats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompileCacheTest {
+    private static final String MAIN = "#include \"lib.h\"\nint main() {\n    return twice(3);\n}\n";
+    private static final String LIB = "int twice(int a) {\n    return a + a;\n}\n";
+
+    @TempDir
+    Path dir;
+
+    private CompilerMain compiler(String... args) {
+        String[] all = Stream.concat(Stream.of("--cache-dir", dir.resolve("cache").toString()), Stream.of(args)).toArray(String[]::new);
+        return new CompilerMain(CompilerOptions.parse(all));
+    }
+
+    private CompileResult compile(CompilerMain compiler, String source) {
+        return compiler.compileWithDiagnostics(dir.resolve("main.c"), source, new CompileStats("main.c", false));
+    }
+
+    private List<Path> entries() throws Exception {
+        try (Stream<Path> files = Files.walk(dir.resolve("cache"))) {
+            return files.filter(Files::isRegularFile).filter(p -> !p.getFileName().toString().equals("lock")).sorted().toList();
+        }
+    }
+
+    private static HashCode key(Path entry) {
+        return HashCode.fromString(entry.getParent().getFileName().toString() + entry.getFileName());
+    }
+
+    @Test
+    void testHitSkipsCompilation() throws Exception {
+        Files.writeString(dir.resolve("lib.h"), LIB);
+        String expected = new CompilerMain().compile(dir.resolve("main.c"), MAIN, new CompileStats("main.c", false));
+        assertEquals(expected, compile(compiler(), MAIN).getOutput());
+        assertEquals(1, entries().size());
+
+        // a hit returns what is cached without compiling
+        Path entry = entries().get(0);
+        new CompileCache(dir.resolve("cache")).put(key(entry), new CompileCache.Entry("cached", List.of(), false));
+        assertEquals("cached", compile(compiler(), MAIN).getOutput());
+
+        // an explicit default option hits; another comment level or a changed include misses
+        assertEquals("cached", compile(compiler("--comments", "full"), MAIN).getOutput());
+        assertEquals(1, entries().size());
+        compile(compiler("--comments", "none"), MAIN);
+        Files.writeString(dir.resolve("lib.h"), LIB.replace("a + a", "a * 2"));
+        compile(compiler(), MAIN);
+        assertEquals(3, entries().size());
+    }
+
+    @Test
+    void testDiagnosticsAreReplayed() throws Exception {
+        Files.writeString(dir.resolve("lib.h"), LIB);
+        String bad = MAIN.replace("twice(3)", "twice(x) + y");
+        CompileResult first = compile(compiler("--max-errors", "2"), bad);
+        CompileResult second = compile(compiler("--max-errors", "2"), bad);
+        assertNull(second.getOutput());
+        assertEquals(2, second.getErrors().size());
+        assertEquals(first.getDiagnostics(), second.getDiagnostics());
+        assertEquals(1, entries().size());
+    }
+
+    @Test
+    void testUnreadableEntryIsDropped() throws Exception {
+        Files.writeString(dir.resolve("lib.h"), LIB);
+        String expected = compile(compiler(), MAIN).getOutput();
+        Path entry = entries().get(0);
+        Files.write(entry, new byte[] {1, 2, 3});
+        assertNull(new CompileCache(dir.resolve("cache")).get(key(entry)));
+        assertFalse(Files.exists(entry));
+        assertEquals(expected, compile(compiler(), MAIN).getOutput());
+    }
+
+    @Test
+    void testEvictsLeastRecentlyUsed() throws Exception {
+        Path cacheDir = dir.resolve("cache");
+        CompileCache cache = new CompileCache(cacheDir, 1000);
+        String output = "x".repeat(200);
+        HashCode[] keys = new HashCode[4];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = HashCode.fromInt(i);
+            cache.put(keys[i], new CompileCache.Entry(output, List.of(), false));
+            for (Path p : entries()) {
+                if (key(p).equals(keys[i])) {
+                    Files.setLastModifiedTime(p, FileTime.fromMillis(1_000_000L * (i + 1)));
+                }
+            }
+        }
+        // a hit makes the oldest entry the most recently used
+        assertEquals(output, cache.get(keys[0]).getOutput());
+        cache.put(HashCode.fromInt(4), new CompileCache.Entry(output, List.of(), false));
+        assertNull(cache.get(keys[1]));
+        assertTrue(cache.get(keys[0]) != null && cache.get(keys[3]) != null);
+        long total = 0;
+        for (Path p : entries()) {
+            total += Files.size(p);
+        }
+        assertTrue(total <= 1000, "size " + total);
+    }
+}
@@ -0,0 +1,147 @@
+package com.unyaunya.minic;
+
+import org.antlr.v4.runtime.CommonTokenStream;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.unyaunya.minic.ast.FunctionDecl;
+import com.unyaunya.minic.ast.IfStmt;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.preprocess.Preprocessor;
+import com.unyaunya.minic.semantics.SemanticAnalyzer;
+import com.unyaunya.minic.stats.CompileStats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Machine-generated programs must not overflow the stack, so these compile
+ * long operator chains and else-if chains on a thread with a small stack.
+ */
+class DeepNestingTest {
+    private static final long STACK_SIZE = 256 * 1024;
+
+    @Test
+    void testLongSum() throws Throwable {
+        int terms = 100_000;
+        StringBuilder sb = new StringBuilder("int main() {\n    int a = 1;\n    return a");
+        for (int i = 1; i < terms; i++) {
+            sb.append(i % 2 == 0 ? " + a" : " - 1");
+        }
+        sb.append(";\n}\n");
+        String asm = compileOnSmallStack(sb.toString(), "--comments", "source");
+
+        assertEquals(terms / 2 - 1, count(asm, "ADDA   GR1,GR2"));
+        assertEquals(terms / 2, count(asm, "SUBA   GR1,GR2"));
+        assertTrue(asm.contains("; return a-1+a-1+a"), "statement comment");
+
+        // every expression comment is bounded, so the default level stays linear too
+        String full = compileOnSmallStack(sb.toString());
+        assertEquals(terms / 2 - 1, count(full, "ADDA   GR1,GR2"));
+        assertTrue(full.length() < 3 * asm.length(), "length " + full.length());
+    }
+
+    @Test
+    void testNestedOperandsHaveBoundedComments() throws Throwable {
+        int depth = 300;
+        String source = "int f(int x) {\n    return x;\n}\nint main() {\n    int a = 1;\n    return "
+                + "-f(a - ".repeat(depth) + "a" + ")".repeat(depth) + ";\n}\n";
+        // nested operands are compiled recursively, so not on a small stack
+        String asm = new CompilerMain().compile(Path.of("deep.c"), source, new CompileStats("deep.c", false));
+        assertEquals(depth, count(asm, "SUBA   GR1,GR2"));
+        for (String line : asm.split("\n")) {
+            // every operand is commented, but the cost of a comment doesn't grow with the operand
+            if (line.startsWith("; ") && !line.startsWith("; return")) {
+                assertTrue(line.length() <= 2 + 60, line);
+            }
+        }
+        assertTrue(asm.contains("\n; Push " + "a--f(".repeat(10) + "a-...\n"), "cut comment");
+    }
+
+    @Test
+    void testLongLogicalChain() throws Throwable {
+        int terms = 20_000;
+        StringBuilder sb = new StringBuilder("int main() {\n    int a = 1;\n    return a");
+        for (int i = 1; i < terms; i++) {
+            sb.append(i % 2 == 0 ? " && a < 1" : " || a");
+        }
+        sb.append(";\n}\n");
+        String asm = compileOnSmallStack(sb.toString(), "--comments", "none");
+
+        assertEquals(2 * (terms / 2 - 1), count(asm, "JZE"));   // two per &&
+        assertEquals(2 * (terms / 2), count(asm, "JNZ"));       // two per ||
+    }
+
+    @Test
+    void testLongElseIfChain() throws Throwable {
+        // the emitter's IFELS labels allow 999 per program, the front end is tested deeper
+        String deep = elseIfChain(10_000);
+        onSmallStack(() -> {
+            Preprocessor.Result res = new Preprocessor().preprocess(Path.of("deep.c"), deep);
+            MiniCParser parser = new MiniCParser(new CommonTokenStream(new MiniCLexer(res.getCharStream())));
+            Program program = (Program) new AstBuilder(res).visit(parser.program());
+            new SemanticAnalyzer().analyze(program);
+
+            FunctionDecl f = program.getFunctions().get(0);
+            IfStmt i = (IfStmt) f.getBody().getStatements().get(1);
+            int depth = 1;
+            while (i.getElseIf() != null) {
+                i = i.getElseIf();
+                depth++;
+            }
+            assertEquals(10_000, depth);
+            assertEquals(3 + 2 * 9_999, i.getLocation().getLineNumber());
+            return null;
+        });
+
+        String asm = compileOnSmallStack(elseIfChain(999), "--comments", "source");
+        assertEquals(999, count(asm, "\nENDIF"));
+        assertTrue(asm.contains("IFELS999"));
+    }
+
+    private static String elseIfChain(int length) {
+        StringBuilder sb = new StringBuilder("int main() {\n    int a = 1;\n    if (a == 0) {\n        a = 1;\n");
+        for (int i = 1; i < length; i++) {
+            sb.append("    } else if (a == ").append(i).append(") {\n        a = ").append(i + 1).append(";\n");
+        }
+        sb.append("    } else {\n        a = 0;\n    }\n    return a;\n}\n");
+        return sb.toString();
+    }
+
+    private static String compileOnSmallStack(String source, String... args) throws Throwable {
+        CompilerOptions options = CompilerOptions.parse(args);
+        return onSmallStack(() -> new CompilerMain(options).compile(Path.of("deep.c"), source,
+                new CompileStats("deep.c", false)));
+    }
+
+    private static <T> T onSmallStack(java.util.concurrent.Callable<T> task) throws Throwable {
+        AtomicReference<T> result = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread thread = new Thread(null, () -> {
+            try {
+                result.set(task.call());
+            } catch (Throwable t) {
+                failure.set(t);
+            }
+        }, "small-stack", STACK_SIZE);
+        thread.start();
+        thread.join();
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        return result.get();
+    }
+
+    private static int count(String text, String s) {
+        int n = 0;
+        for (int i = text.indexOf(s); i >= 0; i = text.indexOf(s, i + s.length())) {
+            n++;
+        }
+        return n;
+    }
+}
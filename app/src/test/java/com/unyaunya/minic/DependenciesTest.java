@@ -0,0 +1,103 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DependenciesTest {
+    private static final String MAIN = "#include \"inc/lib.h\"\nint main() {\n    return twice(3);\n}\n";
+    private static final String LIB = "#include \"zero.h\"\nint twice(int a) {\n    return a + a + zero;\n}\n";
+
+    @TempDir
+    Path dir;
+
+    private List<BatchCompiler.Result> make(Path source, Path output, String... args) {
+        CompilerOptions options = CompilerOptions.parse(args);
+        return new BatchCompiler(new CompilerMain(options), options).compile(Map.of(source, output));
+    }
+
+    private static void setTime(Path file, long seconds) throws Exception {
+        Files.setLastModifiedTime(file, FileTime.fromMillis(seconds * 1000));
+    }
+
+    @Test
+    void testWriteAndRead() throws Exception {
+        Path output = dir.resolve("a b$#.cas");
+        List<Path> files = List.of(dir.resolve("main.c"), dir.resolve("my lib.h"));
+        Dependencies.write(output, files);
+        String text = Files.readString(dir.resolve("a b$#.d"));
+        assertTrue(text.contains("a\\ b$$\\#.cas: \\\n"), text);
+        assertTrue(text.endsWith("\n" + dir.resolve("my\\ lib.h") + ":\n"), text);
+        assertEquals(files, Dependencies.read(output));
+    }
+
+    @Test
+    void testSkipsUpToDateOutputs() throws Exception {
+        Path source = dir.resolve("main.c");
+        Path lib = dir.resolve("inc/lib.h");
+        Path zero = dir.resolve("inc/zero.h");
+        Path output = dir.resolve("out/main.cas");
+        Files.createDirectories(lib.getParent());
+        Files.createDirectories(output.getParent());
+        Files.writeString(source, MAIN);
+        Files.writeString(lib, LIB);
+        Files.writeString(zero, "int zero;\n");
+
+        BatchCompiler.Result first = make(source, output, "--make").get(0);
+        assertTrue(first.isSuccess());
+        assertFalse(first.isUpToDate());
+        List<Path> expected = List.of(source, lib, zero).stream().map(p -> p.toAbsolutePath().normalize()).toList();
+        assertEquals(expected, first.getDependencies());
+        assertEquals(expected, Dependencies.read(output));
+
+        for (Path p : expected) {
+            setTime(p, 1000);
+        }
+        setTime(output, 2000);
+        assertTrue(make(source, output, "--make").get(0).isUpToDate());
+        // without --make everything is compiled
+        assertFalse(make(source, output, "--deps").get(0).isUpToDate());
+
+        // a change of a nested include makes it out of date
+        setTime(output, 2000);
+        setTime(zero, 3000);
+        BatchCompiler.Result again = make(source, output, "--make").get(0);
+        assertTrue(again.isSuccess());
+        assertFalse(again.isUpToDate());
+
+        // a deleted .d file too
+        setTime(output, 4000);
+        Files.delete(Dependencies.depFile(output));
+        assertFalse(make(source, output, "--make").get(0).isUpToDate());
+    }
+
+    @Test
+    void testManifest() throws Exception {
+        Path source = dir.resolve("main.c");
+        Path output = dir.resolve("main.cas");
+        Files.createDirectories(dir.resolve("inc"));
+        Files.writeString(source, MAIN);
+        Files.writeString(dir.resolve("inc/lib.h"), LIB);
+        Files.writeString(dir.resolve("inc/zero.h"), "int zero;\n");
+        make(source, output, "--make");
+        setTime(output, System.currentTimeMillis() / 1000 + 60);
+
+        BatchCompiler.Result result = make(source, output, "--make", "--manifest", "x.json").get(0);
+        assertTrue(result.isUpToDate());
+        Path main = source.toAbsolutePath().normalize();
+        Path lib = main.resolveSibling("inc/lib.h");
+        assertEquals(Map.of(main, List.of(lib), lib, List.of(lib.resolveSibling("zero.h"))), result.getIncludes());
+        String json = Dependencies.manifest(List.of(result));
+        assertTrue(json.contains("\"status\": \"up-to-date\""), json);
+        assertTrue(json.contains("\"" + lib + "\": [\"" + lib.resolveSibling("zero.h") + "\"]"), json);
+    }
+}
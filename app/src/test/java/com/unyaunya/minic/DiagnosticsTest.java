@@ -0,0 +1,86 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.unyaunya.minic.stats.CompileStats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DiagnosticsTest {
+    private static final String FILE = Path.of("t.c").toAbsolutePath().toString();
+    private static final String SEMANTIC_ERRORS = String.join("\n",
+            "int x;",
+            "void f() {",
+            "    y = 1;",
+            "    y = 2;",
+            "    x = g(y, z);",
+            "    return 1;",
+            "}",
+            "");
+
+    private static CompileResult compile(String source, String... args) {
+        return new CompilerMain(CompilerOptions.parse(args))
+                .compileWithDiagnostics(Path.of("t.c"), source, new CompileStats("t.c", false));
+    }
+
+    private static List<String> messages(CompileResult result) {
+        return result.getDiagnostics().stream().map(d -> d.toString().replace(FILE, "t.c")).toList();
+    }
+
+    @Test
+    void testAllSemanticErrors() {
+        CompileResult result = compile(SEMANTIC_ERRORS);
+        assertNull(result.getOutput());
+        // y is reported once, g's arguments are still checked
+        assertEquals(List.of(
+                "t.c:3: Undeclared identifier: y",
+                "t.c:5: Call to undeclared function: g",
+                "t.c:5: Undeclared identifier: z",
+                "t.c:6: Can't return value in void function"), messages(result));
+    }
+
+    @Test
+    void testErrorLimit() {
+        CompileResult result = compile(SEMANTIC_ERRORS, "--max-errors", "2");
+        assertEquals(List.of(
+                "t.c:3: Undeclared identifier: y",
+                "t.c:5: Call to undeclared function: g"), messages(result));
+
+        MinicException e = assertThrows(MinicException.class,
+                () -> new CompilerMain().compile(Path.of("t.c"), SEMANTIC_ERRORS, new CompileStats("t.c", false)));
+        assertEquals(String.join("\n", messages(compile(SEMANTIC_ERRORS))), e.getMessage().replace(FILE, "t.c"));
+    }
+
+    @Test
+    void testSyntaxErrors() {
+        String source = "int f() {\n    int a = 1\n    return a;\n}\nint g() {\n    return (1;\n}\n";
+        for (String frontEnd : List.of("tree", "stream")) {
+            CompileResult result = compile(source, "--frontend", frontEnd);
+            assertNull(result.getOutput());
+            List<Diagnostic> errors = result.getErrors();
+            assertEquals(2, errors.size(), frontEnd);
+            assertEquals(new Location(FILE, 3), errors.get(0).getLocation());
+            assertEquals(new Location(FILE, 6), errors.get(1).getLocation());
+        }
+        CompileResult result = compile("int f() {\n    return 1 # 2;\n}\n", "--lexer", "scanner");
+        assertEquals("t.c:2: token recognition error at: '#'", messages(result).get(0));
+    }
+
+    @Test
+    void testWarning() {
+        CompileResult result = compile("int counterAlpha;\nint counterBeta;\nint main() {\n    return counterAlpha;\n}\n");
+        assertNotNull(result.getOutput());
+        assertTrue(result.getErrors().isEmpty());
+        assertEquals(List.of(
+                "t.c:1: warning: Name 'counterAlpha' is longer than 8 characters and is shortened to label COUNTERA",
+                "t.c:2: warning: Name 'counterBeta' is longer than 8 characters and is shortened to label COUNTERB"),
+                messages(result));
+    }
+}
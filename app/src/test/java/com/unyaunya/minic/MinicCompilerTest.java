@@ -0,0 +1,89 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import com.unyaunya.minic.preprocess.ClasspathSources;
+import com.unyaunya.minic.preprocess.MemorySources;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class MinicCompilerTest {
+    private static final String MAIN = "#include \"lib/twice.h\"\nint main() {\n    return twice(x);\n}\n";
+    private static final String TWICE = "#include <const.h>\nint twice(int a) {\n    return a + a;\n}\n";
+    private static final String CONST = "int x;\n";
+
+    @Test
+    void testSameAsFromDisk() throws Exception {
+        Map<String, String> sources = new HashMap<>();
+        try (Stream<Path> files = Files.list(Path.of("sample"))) {
+            for (Path f : files.toList()) {
+                sources.put(f.getFileName().toString(), Files.readString(f));
+            }
+        }
+        CompileResult result = new MinicCompiler().compile(sources, "puts.mc");
+        assertEquals(List.of(), result.getDiagnostics());
+        assertEquals(new CompilerMain().compile("sample/puts.mc"), result.getOutput());
+    }
+
+    @Test
+    void testIncludesAndDiagnostics() {
+        CompilerOptions options = CompilerOptions.parse(new String[] {"-I", "include"});
+        Map<String, String> sources = Map.of("src/main.c", MAIN, "src/lib/twice.h", TWICE, "include/const.h", CONST);
+        CompileResult ok = new MinicCompiler(options).compile(sources, "src/main.c");
+        assertEquals(List.of(), ok.getDiagnostics());
+
+        CompileResult missing = new MinicCompiler().compile(sources, "src/main.c");
+        assertNull(missing.getOutput());
+        assertEquals("src/lib/twice.h:1: Include file not found: const.h", missing.getErrors().get(0).toString());
+
+        CompileResult bad = new MinicCompiler(options).compile(Map.of(
+                "src/main.c", MAIN.replace("twice(x)", "twice(y)"), "src/lib/twice.h", TWICE, "include/const.h", CONST),
+                "src/main.c");
+        assertEquals("src/main.c:3: Undeclared identifier: y", bad.getErrors().get(0).toString());
+    }
+
+    @Test
+    void testZip() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+            for (Map.Entry<String, String> e : Map.of("main.c", MAIN, "lib/twice.h", TWICE.replace("<const.h>", "\"../const.h\""),
+                    "const.h", CONST).entrySet()) {
+                zip.putNextEntry(new ZipEntry(e.getKey()));
+                zip.write(e.getValue().getBytes(StandardCharsets.UTF_8));
+                zip.closeEntry();
+            }
+        }
+        MemorySources sources = MemorySources.fromZip(new ByteArrayInputStream(bytes.toByteArray()));
+        CompileResult result = new MinicCompiler().compile(sources, "main.c");
+        assertEquals(List.of(), result.getDiagnostics());
+    }
+
+    @Test
+    void testClasspath(@TempDir Path dir) throws Exception {
+        Path base = Files.createDirectories(dir.resolve("minic/src/lib"));
+        Files.writeString(base.resolve("twice.h"), TWICE);
+        Files.writeString(base.getParent().resolve("main.c"), MAIN);
+        Files.writeString(base.resolve("const.h"), CONST);
+        CompilerOptions options = CompilerOptions.parse(new String[] {"-I", "lib"});
+        try (URLClassLoader loader = new URLClassLoader(new URL[] {dir.toUri().toURL()}, null)) {
+            CompileResult result = new MinicCompiler(options).compile(new ClasspathSources(loader, "minic/src"), "main.c");
+            assertEquals(List.of(), result.getDiagnostics());
+        }
+    }
+}
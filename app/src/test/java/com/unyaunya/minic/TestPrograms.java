@@ -0,0 +1,28 @@
+package com.unyaunya.minic;
+
+import java.nio.file.Path;
+
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+/**
+ * Builds ASTs for tests of the phases after parsing.
+ */
+public final class TestPrograms {
+    private TestPrograms() {
+    }
+
+    /**
+     * @return the AST of {@code source}, preprocessed as main.c
+     */
+    public static Program parse(String source) {
+        Preprocessor.Result res = new Preprocessor().preprocess(Path.of("main.c"), source);
+        MiniCParser parser = new MiniCParser(new CommonTokenStream(new MiniCLexer(res.getCharStream())));
+        return (Program) new AstBuilder(res).visit(parser.program());
+    }
+}
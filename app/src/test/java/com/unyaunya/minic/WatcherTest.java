@@ -0,0 +1,87 @@
+package com.unyaunya.minic;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class WatcherTest {
+    private static final String MAIN = "#include \"inc/lib.h\"\nint main() {\n    return twice(3);\n}\n";
+    private static final String LIB = "int twice(int a) {\n    return a + a;\n}\n";
+
+    @TempDir
+    Path dir;
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + 10_000_000_000L;
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "timed out");
+            Thread.sleep(20);
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (Exception e) {
+            return "";
+        }
+    }
+
+    @Test
+    void testRecompilesWhenAnIncludeChanges() throws Exception {
+        Path source = dir.resolve("main.c");
+        Path lib = dir.resolve("inc/lib.h");
+        Path output = dir.resolve("main.cas");
+        Files.createDirectories(lib.getParent());
+        Files.writeString(lib, LIB);
+        Files.writeString(source, MAIN);
+        CompilerOptions options = CompilerOptions.parse(new String[] {"--watch", source.toString(), output.toString()});
+        Watcher watcher = new Watcher(new CompilerMain(options), options, 20);
+        Thread thread = new Thread(() -> {
+            try {
+                watcher.run();
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        thread.start();
+        try {
+            await(() -> read(output).contains("TWICE"));
+            Files.delete(output);
+
+            // files that weren't read don't count
+            Files.writeString(dir.resolve("inc/notes.txt"), "x");
+            Thread.sleep(500);
+            assertFalse(Files.exists(output));
+
+            Files.writeString(lib, LIB.replace("a + a", "a + a + 0"));
+            await(() -> read(output).contains("TWICE"));
+            Files.delete(output);
+
+            // after a failure any change of a source or header in the watched
+            // directories counts, as the missing include isn't known by name
+            Files.writeString(source, "#include \"inc/more.h\"\n" + MAIN);
+            Thread.sleep(500);
+            assertFalse(Files.exists(output));
+            // but not one of a log, say, which would compile in a loop
+            int compilations = watcher.getCompilations();
+            Files.writeString(dir.resolve("watch.log"), "x");
+            Files.writeString(dir.resolve("inc/.more.h.swp"), "x");
+            Thread.sleep(500);
+            assertEquals(compilations, watcher.getCompilations());
+            Files.writeString(dir.resolve("inc/more.h"), "int zero;\n");
+            await(() -> read(output).contains("ZERO"));
+        } finally {
+            watcher.stop();
+            thread.join(10_000);
+        }
+        assertFalse(thread.isAlive());
+    }
+}
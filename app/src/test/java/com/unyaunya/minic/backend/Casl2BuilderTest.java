@@ -3,7 +3,11 @@ package com.unyaunya.minic.backend;
 
 import org.junit.jupiter.api.Test;
 
+import java.io.StringWriter;
+
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
 class Casl2BuilderTest {
 
@@ -80,4 +84,99 @@ class Casl2BuilderTest {
 
         assertEquals(expected, builder.build());
     }
+
+    @Test
+    void testCommentLevels() {
+        String[] rendered = new String[1];
+        for (CommentLevel level : CommentLevel.values()) {
+            Casl2Builder builder = new Casl2Builder(level)
+                    .source(() -> "x=1;")
+                    .comment(() -> {
+                        rendered[0] = level.toString();
+                        return "1";
+                    })
+                    .lad("GR1", "1").c("Load 1")
+                    .ret();
+            assertTrue(builder.lastIsRet());
+            builder.comment("after return");
+            assertFalse(builder.lastIsRet());
+
+            String asm = builder.build();
+            switch (level) {
+                case NONE -> assertEquals(
+                        "         LAD    GR1,1                   \n" +
+                        "         RET                            \n", asm);
+                case SOURCE -> assertEquals(
+                        "; x=1;\n" +
+                        "         LAD    GR1,1                   \n" +
+                        "         RET                            \n", asm);
+                case FULL -> assertEquals(
+                        "; x=1;\n" +
+                        "; 1\n" +
+                        "         LAD    GR1,1                   ; Load 1\n" +
+                        "         RET                            \n" +
+                        "; after return\n", asm);
+            }
+        }
+        // the supplier only ran when the comment was kept
+        assertEquals("FULL", rendered[0]);
+    }
+
+    @Test
+    void testCompactLayout() throws Exception {
+        Casl2Builder builder = new Casl2Builder(CommentLevel.FULL, true)
+                .start().l("MAIN")
+                .comment("Initialize registers")
+                .lad("GR1", "10").c("Load 10")
+                .ret()
+                .end();
+
+        String expected =
+                "MAIN\tSTART\n" +
+                "; Initialize registers\n" +
+                "\tLAD\tGR1,10\t; Load 10\n" +
+                "\tRET\n" +
+                "\tEND\n";
+
+        assertEquals(expected, builder.build());
+        StringWriter out = new StringWriter();
+        builder.writeTo(out);
+        assertEquals(expected, out.toString());
+    }
+
+    @Test
+    void testEncodedOperands() {
+        Casl2Builder builder = new Casl2Builder()
+                .ld("GR1", 65535, "GR6").l("loop")
+                .adda("GR7", 2)
+                .lad("GR2", "007")
+                .jump("LOOP");
+
+        assertEquals(4, builder.size());
+        assertEquals(Casl2Op.LD, builder.getOp(0));
+        assertEquals("LOOP", builder.getLabel(0));
+        assertEquals(3, builder.getOperandCount(0));
+        assertOperand(builder, Casl2Builder.REGISTER, 1, builder.getOperand(0, 0));
+        assertOperand(builder, Casl2Builder.IMMEDIATE, 65535, builder.getOperand(0, 1));
+        assertOperand(builder, Casl2Builder.REGISTER, 6, builder.getOperand(0, 2));
+        assertOperand(builder, Casl2Builder.LITERAL, 2, builder.getOperand(1, 1));
+        // not a canonical number, kept as written
+        long adr = builder.getOperand(2, 1);
+        assertEquals(Casl2Builder.SYMBOL, Casl2Builder.operandKind(adr));
+        assertEquals("007", builder.getSymbol(Casl2Builder.operandValue(adr)));
+        // the label and the jump target share one symbol
+        assertEquals(builder.getSymbol(Casl2Builder.operandValue(builder.getOperand(3, 0))), builder.getLabel(0));
+
+        String expected =
+                "LOOP     LD     GR1,65535,GR6           \n" +
+                "         ADDA   GR7,=2                  \n" +
+                "         LAD    GR2,007                 \n" +
+                "         JUMP   LOOP                    \n";
+        assertEquals(expected, builder.build());
+    }
+
+    private static void assertOperand(Casl2Builder builder, int kind, int value, long operand) {
+        assertEquals(kind, Casl2Builder.operandKind(operand));
+        assertEquals(value, Casl2Builder.operandValue(operand));
+    }
 }
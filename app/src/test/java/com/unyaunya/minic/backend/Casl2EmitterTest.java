@@ -0,0 +1,72 @@
+package com.unyaunya.minic.backend;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.CompilerOptions;
+import com.unyaunya.minic.Diagnostics;
+import com.unyaunya.minic.TestPrograms;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.comet2.Casl2Assembler;
+import com.unyaunya.minic.comet2.Comet2Program;
+import com.unyaunya.minic.semantics.SemanticAnalyzer;
+import com.unyaunya.minic.semantics.SemanticInfo;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Casl2EmitterTest {
+
+    private static String compile(String source, boolean parallel) {
+        Program program = TestPrograms.parse(source);
+        SemanticInfo info = new SemanticAnalyzer(new Diagnostics(1), parallel).analyze(program);
+        return new Casl2Emitter(CommentLevel.FULL, false, parallel).emit(program, info, 1024);
+    }
+
+    @Test
+    void testParallelEmissionIsSameAsSequential() {
+        StringBuilder source = new StringBuilder("int g[4];\nint len(int *s) {\n    int n = 0;\n    while (s[n] != 0) {\n        n = n + 1;\n    }\n    return n;\n}\n");
+        for (int i = 1; i <= 40; i++) {
+            source.append(String.format("int f%d(int a) {\n    int b = a + %d;\n", i, i));
+            source.append(String.format("    if (a < %d && b != 0) {\n        b = len(\"s%d\");\n    } else if (a == 0) {\n        b = len(\"shared\");\n    }\n", i, i % 7));
+            source.append("    for (a = 0; a < 3; a = a + 1) {\n        g[a] = b;\n    }\n");
+            source.append((i > 1) ? String.format("    return f%d(b - 1);\n}\n", i - 1) : "    return b;\n}\n");
+        }
+        source.append("int main() {\n    return f40(2);\n}\n");
+        String sequential = compile(source.toString(), false);
+        assertEquals(sequential, compile(source.toString(), true));
+        assertTrue(sequential.contains("WHIL0001") && sequential.contains("NXT00040") && sequential.contains("STR00008"), sequential);
+    }
+
+    @Test
+    void testCompactLayoutAssemblesToSameCode() {
+        for (String sample : List.of("sample/fib.c", "sample/puts.mc")) {
+            Comet2Program expected = new Casl2Assembler().assemble(new CompilerMain().compile(sample));
+            CompilerOptions options = CompilerOptions.parse(new String[] {"--compact", sample});
+            Comet2Program actual = new Casl2Assembler().assemble(new CompilerMain(options).compile(sample));
+            assertArrayEquals(expected.getWords(), actual.getWords(), sample);
+        }
+    }
+
+    @Test
+    void testCommentLevelsDoNotChangeCode() {
+        for (String sample : List.of("sample/fib.c", "sample/str.c", "sample/puts.mc")) {
+            String full = new CompilerMain().compile(sample);
+            Comet2Program expected = new Casl2Assembler().assemble(full);
+            for (String level : List.of("none", "source", "full")) {
+                CompilerOptions options = CompilerOptions.parse(new String[] {"--comments", level, sample});
+                String asm = new CompilerMain(options).compile(sample);
+                Comet2Program actual = new Casl2Assembler().assemble(asm);
+                assertArrayEquals(expected.getWords(), actual.getWords(), sample + " " + level);
+                assertEquals(expected.getLabels(), actual.getLabels(), sample + " " + level);
+                if (level.equals("none")) {
+                    assertFalse(asm.contains(";"), sample);
+                }
+            }
+        }
+    }
+}
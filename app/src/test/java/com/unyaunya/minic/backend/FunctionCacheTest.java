@@ -0,0 +1,65 @@
+package com.unyaunya.minic.backend;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import com.google.common.cache.CacheStats;
+import com.unyaunya.minic.CompileResult;
+import com.unyaunya.minic.CompilerOptions;
+import com.unyaunya.minic.MinicCompiler;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FunctionCacheTest {
+    private static final String GLOBAL = "int total;\n";
+    private static final String ADD = "int add(int a) {\n    total = total + a;\n    if (total > 100) {\n        total = 0;\n    }\n    return total;\n}\n";
+    private static final String COUNT = "int count(int *s) {\n    int n;\n    n = 0;\n    while (s[n] != 0) {\n        n = n + 1;\n    }\n    return n;\n}\n";
+    private static final String FIRST = "int first() {\n    return buf[0];\n}\n";
+    private static final String MAIN = "int main() {\n    int i;\n    for (i = 0; i < 3; i = i + 1) {\n        add(count(\"abc\"));\n    }\n    return add(i == 3);\n}\n";
+
+    private final MinicCompiler incremental = new MinicCompiler(CompilerOptions.parse(new String[] {"--incremental"}));
+
+    @BeforeEach
+    void clear() {
+        FunctionCache.shared().clear();
+    }
+
+    /**
+     * Compiles incrementally, checks the output against a full compilation
+     * and returns the number of functions found in the cache.
+     */
+    private long compile(String source) {
+        CacheStats before = FunctionCache.shared().stats();
+        CompileResult result = incremental.compile("main.c", source);
+        long hits = FunctionCache.shared().stats().minus(before).hitCount();
+        assertEquals(new MinicCompiler().compile("main.c", source).getOutput(), result.getOutput());
+        return hits;
+    }
+
+    @Test
+    void testReusesUnchangedFunctions() {
+        assertEquals(0, compile(GLOBAL + ADD + COUNT + MAIN));
+        assertEquals(3, compile(GLOBAL + ADD + COUNT + MAIN));
+        // labels of the functions after the changed one are renumbered
+        assertEquals(2, compile(GLOBAL + ADD.replace("total = 0;", "while (total > 0) { total = total - 7; }") + COUNT + MAIN));
+        // moving a function only changes the order its code is linked in
+        assertEquals(3, compile("\n\n" + GLOBAL + COUNT + ADD + MAIN));
+    }
+
+    @Test
+    void testChangedDependencies() {
+        // first() is unchanged but buf is now an array instead of a pointer
+        assertEquals(0, compile(GLOBAL + "int *buf;\n" + FIRST + ADD + COUNT + MAIN));
+        assertEquals(3, compile(GLOBAL + "int buf[4];\n" + FIRST + ADD + COUNT + MAIN));
+        // add() is unchanged but total is no longer a global
+        CompileResult undeclared = incremental.compile("main.c", ADD + COUNT + MAIN);
+        assertEquals("main.c:2: Undeclared identifier: total", undeclared.getErrors().get(0).toString());
+    }
+
+    @Test
+    void testErrorsAreNotCached() {
+        CompileResult bad = incremental.compile("main.c", GLOBAL + ADD + COUNT + MAIN.replace("add(i == 3)", "add(j)"));
+        assertEquals(1, bad.getErrors().size());
+        assertEquals(0, compile(GLOBAL + ADD + COUNT + MAIN));
+    }
+}
@@ -0,0 +1,95 @@
+package com.unyaunya.minic.comet2;
+
+import org.junit.jupiter.api.Test;
+
+import com.unyaunya.minic.CompilerMain;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class Comet2MachineTest {
+
+    private static Comet2Machine run(String asm, BufferedIo io) {
+        Comet2Machine machine = new Comet2Machine(new Casl2Assembler().assemble(asm), io);
+        machine.run();
+        return machine;
+    }
+
+    @Test
+    void testArithmeticAndFlags() {
+        String asm =
+                "PRG      START\n" +
+                "         LAD    GR1,32767\n" +
+                "         ADDA   GR1,=1                  ; overflow\n" +
+                "         JOV    OVF\n" +
+                "         LAD    GR2,0\n" +
+                "         RET\n" +
+                "OVF      LAD    GR2,1\n" +
+                "         LD     GR3,=#00FF\n" +
+                "         SLL    GR3,4\n" +
+                "         RET\n" +
+                "         END\n";
+        Comet2Machine m = run(asm, new BufferedIo());
+        assertEquals(0x8000, m.getRegister(1));
+        assertEquals(1, m.getRegister(2));
+        assertEquals(0x0FF0, m.getRegister(3));
+        assertEquals(7, m.getInstructionCount());
+        assertEquals(2, m.getMemoryReads()); // the two literals
+    }
+
+    @Test
+    void testArithmeticShiftsKeepTheSign() {
+        String asm =
+                "PRG      START\n" +
+                "         LAD    GR1,-2\n" +
+                "         SRA    GR1,1\n" +
+                "         LAD    GR2,-16384\n" +
+                "         SRA    GR2,3\n" +
+                "         LAD    GR3,100\n" +
+                "         SRA    GR3,2\n" +
+                "         LAD    GR4,-3\n" +
+                "         SLA    GR4,2\n" +
+                "         LAD    GR5,-32767\n" +
+                "         SLA    GR5,1\n" +
+                "         RET\n" +
+                "         END\n";
+        Comet2Machine m = run(asm, new BufferedIo());
+        assertEquals(0xFFFF, m.getRegister(1)); // -1
+        assertEquals(0xF800, m.getRegister(2)); // -2048
+        assertEquals(25, m.getRegister(3));
+        assertEquals(0xFFF4, m.getRegister(4)); // -12
+        assertEquals(0x8002, m.getRegister(5)); // the sign stays, bit 14 is shifted out
+    }
+
+    @Test
+    void testInOutMacros() {
+        String asm =
+                "PRG      START  BEGIN\n" +
+                "LEN      DS     1\n" +
+                "BUF      DS     256\n" +
+                "MSG      DC     'Hi, '\n" +
+                "BEGIN    OUT    MSG,=4\n" +
+                "         IN     BUF,LEN\n" +
+                "         OUT    BUF,LEN\n" +
+                "         RET\n" +
+                "         END\n";
+        BufferedIo io = new BufferedIo("COMET2");
+        Comet2Machine m = run(asm, io);
+        assertEquals(List.of("Hi, ", "COMET2"), io.getOutput());
+        assertTrue(m.getMaxCallDepth() >= 2);
+    }
+
+    @Test
+    void testCompiledFibonacci() {
+        String asm = new CompilerMain().compile("sample/fib.c");
+        BufferedIo io = new BufferedIo("10");
+        Comet2Machine m = run(asm, io);
+        assertEquals(List.of("Enter a number:", "10", "0", "1", "1", "2", "3", "5", "8", "13", "21", "34"),
+                io.getOutput());
+        assertTrue(m.getMaxStackDepth() > 80, "main() reserves an 80 word buffer on the stack");
+        assertTrue(m.getInstructionCount() > 0);
+        assertTrue(m.getMemoryWrites() > 0);
+    }
+}
@@ -0,0 +1,96 @@
+package com.unyaunya.minic.frontend;
+
+import org.antlr.v4.runtime.BaseErrorListener;
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.RecognitionException;
+import org.antlr.v4.runtime.Recognizer;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.TokenSource;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class MiniCScannerTest {
+
+    @Test
+    void testSamplesLexLikeGeneratedLexer() throws IOException {
+        List<Path> samples;
+        try (Stream<Path> files = Files.list(Path.of("sample"))) {
+            samples = files.filter(f -> f.toString().endsWith(".c") || f.toString().endsWith(".mc")).sorted().toList();
+        }
+        assertFalse(samples.isEmpty());
+        for (Path sample : samples) {
+            // the raw file still has its #include lines, which exercise error recovery
+            assertSameTokens(CharStreams.fromPath(sample));
+            Preprocessor.Result res = new Preprocessor().preprocess(sample);
+            assertSameTokens(res.getCharStream());
+        }
+    }
+
+    @Test
+    void testEdgeCases() {
+        List<String> inputs = List.of(
+                "if else while for return void char short int iff int0 _abc _ _1 x_y",
+                "a<=b>=c==d!=e<f>g=h!i&&j&k||l|m",
+                "\"a\\\"b\" \"\\\\\" \"unterminated\n\"\\",
+                "'a' '\\'' '' 'ab' '\n' '",
+                "1/2 // line\r\n/* block\n */ /**/ /*/ x */ / * /* open",
+                "@ # $ \t\f 12ab \"",
+                "");
+        for (String input : inputs) {
+            assertSameTokens(CharStreams.fromString(input, "edge"));
+        }
+    }
+
+    private static void assertSameTokens(CharStream input) {
+        List<String> expectedErrors = new ArrayList<>();
+        MiniCLexer lexer = new MiniCLexer(input);
+        lexer.removeErrorListeners();
+        lexer.addErrorListener(collect(expectedErrors));
+        List<String> expected = tokens(lexer);
+
+        input.seek(0);
+        List<String> actualErrors = new ArrayList<>();
+        MiniCScanner scanner = new MiniCScanner(input);
+        scanner.removeErrorListeners();
+        scanner.addErrorListener(collect(actualErrors));
+        List<String> actual = tokens(scanner);
+
+        String name = input.getSourceName();
+        assertEquals(expected, actual, name);
+        assertEquals(expectedErrors, actualErrors, name);
+    }
+
+    private static List<String> tokens(TokenSource source) {
+        List<String> tokens = new ArrayList<>();
+        Token t;
+        do {
+            t = source.nextToken();
+            tokens.add(String.format("%d %d:%d [%d,%d] %s", t.getType(), t.getLine(), t.getCharPositionInLine(),
+                    t.getStartIndex(), t.getStopIndex(), t.getText()));
+        } while (t.getType() != Token.EOF);
+        return tokens;
+    }
+
+    private static BaseErrorListener collect(List<String> errors) {
+        return new BaseErrorListener() {
+            @Override
+            public void syntaxError(Recognizer<?, ?> recognizer, Object offendingSymbol, int line,
+                    int charPositionInLine, String msg, RecognitionException e) {
+                errors.add(line + ":" + charPositionInLine + " " + msg);
+            }
+        };
+    }
+}
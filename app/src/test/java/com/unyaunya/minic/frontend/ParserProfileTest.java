@@ -0,0 +1,28 @@
+package com.unyaunya.minic.frontend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.stats.CompileStats;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ParserProfileTest {
+
+    @Test
+    void testProfiledParseMatchesTwoStageParse() {
+        Path fib = Path.of("sample/fib.c");
+        CompileStats stats = new CompileStats(fib.toString(), false);
+        stats.setProfileParser(true);
+
+        String profiled = new CompilerMain().compile(fib, stats);
+
+        assertEquals(new CompilerMain().compile(fib), profiled);
+        String report = stats.report();
+        assertTrue(report.contains("simpleStatement"), report);
+        assertTrue(report.contains("total prediction time"), report);
+    }
+}
@@ -0,0 +1,44 @@
+package com.unyaunya.minic.frontend;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.List;
+
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.CompilerOptions;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.ast.ReturnStmt;
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class StreamingFrontEndTest {
+
+    @Test
+    void testSameOutputAsParseTree() {
+        for (String sample : List.of("sample/fib.c", "sample/str.c", "sample/puts.mc")) {
+            CompilerOptions options = CompilerOptions.parse(new String[] {"--frontend", "stream", sample});
+            assertEquals(new CompilerMain().compile(sample),
+                    new CompilerMain(options).compile(sample), sample);
+        }
+    }
+
+    @Test
+    void testGlobalsAndFunctionsInterleaved() {
+        String source = String.join("\n",
+                "int a;",
+                "int f() { return a; }",
+                "int b[3];",
+                "int main() { return f() + b[0]; }",
+                "");
+        Preprocessor.Result res = new Preprocessor().preprocess(Path.of("interleaved.c"), source);
+        Program program = StreamingFrontEnd.parse(res, new MiniCLexer(res.getCharStream()));
+
+        assertEquals(List.of("a", "b"), program.getGlobals().stream().map(g -> g.getName()).toList());
+        assertEquals(List.of("f", "main"), program.getFunctions().stream().map(f -> f.getName()).toList());
+        ReturnStmt ret = (ReturnStmt) program.getFunctions().get(1).getBody().getStatements().get(0);
+        assertEquals(4, ret.getLocation().getLineNumber());
+    }
+}
@@ -0,0 +1,88 @@
+package com.unyaunya.minic.preprocess;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.List;
+
+import com.unyaunya.minic.MinicException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IncludeCacheTest {
+
+    @Test
+    void testSearchPath(@TempDir Path dir) throws Exception {
+        Path lib = Files.createDirectories(dir.resolve("lib"));
+        Path src = Files.createDirectories(dir.resolve("src"));
+        Files.writeString(lib.resolve("io.c"), "int lib_io;\n");
+        Files.writeString(lib.resolve("local.c"), "int lib_local;\n");
+        Files.writeString(src.resolve("local.c"), "int src_local;\n");
+        Path main = src.resolve("main.c");
+        Files.writeString(main, "#include <io.c>\n#include \"local.c\"\nint x;\n");
+
+        IncludeCache cache = new IncludeCache(16);
+        Preprocessor.Result res = new Preprocessor(List.of(lib), cache).preprocess(main);
+        assertEquals("int lib_io;\nint src_local;\nint x;\n", res.getContent());
+
+        Files.writeString(main, "#include <missing.c>\n");
+        MinicException e = assertThrows(MinicException.class,
+                () -> new Preprocessor(List.of(lib), cache).preprocess(main));
+        assertTrue(e.getMessage().contains("Include file not found: missing.c"), e.getMessage());
+    }
+
+    @Test
+    void testUnchangedFileIsNotDecodedAgain(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("io.c");
+        Files.writeString(file, "int a;\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(60)));
+
+        IncludeCache cache = new IncludeCache(16);
+        char[] first = cache.read(file);
+        assertSame(first, cache.read(file));
+
+        Files.writeString(file, "int bb;\n");
+        Files.setLastModifiedTime(file, FileTime.from(Instant.now().minusSeconds(30)));
+        assertEquals("int bb;\n", new String(cache.read(file)));
+    }
+
+    @Test
+    void testRacyFileIsCheckedByContent(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("io.c");
+        FileTime now = FileTime.from(Instant.now());
+        Files.writeString(file, "int a;\n");
+        Files.setLastModifiedTime(file, now);
+
+        IncludeCache cache = new IncludeCache(16);
+        char[] first = cache.read(file);
+        assertSame(first, cache.read(file));
+
+        // same size and timestamp, different content
+        Files.writeString(file, "int b;\n");
+        Files.setLastModifiedTime(file, now);
+        assertEquals("int b;\n", new String(cache.read(file)));
+    }
+
+    @Test
+    void testResolvedPathIsDroppedWhenFileDisappears(@TempDir Path dir) throws Exception {
+        Path a = Files.createDirectories(dir.resolve("a"));
+        Path b = Files.createDirectories(dir.resolve("b"));
+        Files.writeString(a.resolve("io.c"), "");
+        Files.writeString(b.resolve("io.c"), "");
+
+        IncludeCache cache = new IncludeCache(16);
+        assertEquals(a.resolve("io.c"), cache.resolve(null, "io.c", List.of(a, b)));
+        Files.delete(a.resolve("io.c"));
+        assertEquals(b.resolve("io.c"), cache.resolve(null, "io.c", List.of(a, b)));
+        Files.delete(b.resolve("io.c"));
+        assertNull(cache.resolve(null, "io.c", List.of(a, b)));
+    }
+}
@@ -0,0 +1,223 @@
+package com.unyaunya.minic.preprocess;
+
+import org.antlr.v4.runtime.CharStream;
+import org.antlr.v4.runtime.CharStreams;
+import org.antlr.v4.runtime.Token;
+import org.antlr.v4.runtime.misc.Interval;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import com.unyaunya.minic.CompilerMain;
+import com.unyaunya.minic.Location;
+import com.unyaunya.minic.MinicException;
+import com.unyaunya.minic.parser.MiniCLexer;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class PreprocessorTest {
+
+    @Test
+    void testLocationsAfterInclude(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("lib.c"), "int a;\nint b;"); // no trailing newline
+        Path main = dir.resolve("main.c");
+        Files.writeString(main, "int x;\n#include \"lib.c\"\nint y;\nint z;\n");
+
+        Preprocessor.Result res = new Preprocessor(List.of(), new IncludeCache(16)).preprocess(main);
+
+        assertEquals("int x;\nint a;\nint b;\nint y;\nint z;\n", res.getContent());
+        assertEquals(main.toAbsolutePath() + ":1", res.getLocation(1).toString());
+        assertEquals(dir.resolve("lib.c").toAbsolutePath() + ":2", res.getLocation(3).toString());
+        assertEquals(main.toAbsolutePath() + ":3", res.getLocation(4).toString());
+        assertEquals(main.toAbsolutePath() + ":4", res.getLocation(5).toString());
+    }
+
+    @Test
+    void testErrorInIncludedFileIsReportedAtItsLine(@TempDir Path dir) throws Exception {
+        Files.writeString(dir.resolve("lib.c"), "int f() {\n  return 0;\n}\nint g() {\n  return y;\n}\n");
+        Path main = dir.resolve("main.c");
+        Files.writeString(main, "#include \"lib.c\"\nvoid main() {\n}\n");
+
+        MinicException e = assertThrows(MinicException.class, () -> new CompilerMain().compile(main));
+        assertEquals(new Location(dir.resolve("lib.c").toAbsolutePath().toString(), 5), e.getLocation());
+    }
+
+    @Test
+    void testPackedLocation() {
+        Location.FileTable files = new Location.FileTable(List.of("a.c", "b.h"));
+        Location.FileTable other = new Location.FileTable(List.of("c.c"));
+        assertEquals(new Location("a.c", 42), Location.unpack(files.pack(0, 42)));
+        assertEquals(new Location("b.h", 1), Location.unpack(files.pack(1, 1)));
+        assertEquals(new Location("c.c", 42), Location.unpack(other.pack(0, 42)));
+        assertEquals(new Location(null, 7), Location.unpack(Location.pack(7)));
+        assertEquals(new Location(null, 1 << 30), Location.unpack(Location.pack(1 << 30)));
+        assertNull(Location.unpack(Location.UNKNOWN));
+    }
+
+    @Test
+    void testFileTablesAreReleased() throws Exception {
+        long packed = new Location.FileTable(List.of("gone.c")).pack(0, 3);
+        for (int i = 0; i < 100 && Location.unpack(packed).getFilename() != null; i++) {
+            System.gc();
+            Thread.sleep(10);
+        }
+        assertEquals(new Location(null, 3), Location.unpack(packed));
+    }
+
+    @Test
+    void testCharStreamLexesLikeString() {
+        for (String sample : List.of("sample/fib.c", "sample/str.c", "sample/puts.mc")) {
+            Preprocessor.Result res = new Preprocessor().preprocess(Path.of(sample));
+            CharStream stream = res.getCharStream();
+            List<? extends Token> expected = new MiniCLexer(CharStreams.fromString(res.getContent())).getAllTokens();
+            List<? extends Token> actual = new MiniCLexer(stream).getAllTokens();
+
+            assertEquals(expected.size(), actual.size(), sample);
+            for (int i = 0; i < expected.size(); i++) {
+                Token e = expected.get(i);
+                Token a = actual.get(i);
+                assertEquals(e.getType(), a.getType(), sample);
+                assertEquals(e.getText(), a.getText(), sample);
+                assertEquals(e.getLine(), a.getLine(), sample);
+                assertEquals(e.getCharPositionInLine(), a.getCharPositionInLine(), sample);
+            }
+            assertEquals(res.getContent().substring(5, 40), stream.getText(Interval.of(5, 39)));
+        }
+    }
+
+    private static Preprocessor.Result preprocess(Map<String, String> files, Map<String, String> defines) {
+        return new Preprocessor(List.of(), SourceProvider.of(files), defines).preprocess(Path.of("main.c"));
+    }
+
+    @Test
+    void testMacros() {
+        String main = String.join("\n",
+                "#define N 10",
+                "#define TWICE(x) ((x) + (x))",
+                "#define MAX(a, b) ((a) > (b) ? (a) : (b))",
+                "#define STR(s) #s",
+                "#define GLUE(a, b) a ## b",
+                "#define SELF SELF + N",
+                "int a[N];",
+                "int v = TWICE(N - 1); // TWICE(N) in a comment",
+                "char *s = \"N\"; int w = MAX(1,",
+                "    N);",
+                "char *t = STR(a  \"b\");",
+                "int GLUE(x, N) = SELF;",
+                "int TWICE;",
+                "#undef N",
+                "int b[N];",
+                "");
+        Preprocessor.Result res = preprocess(Map.of("main.c", main), Map.of());
+        assertEquals(String.join("\n",
+                "", "", "", "", "", "",
+                "int a[10];",
+                "int v = ((10 - 1) + (10 - 1)); // TWICE(N) in a comment",
+                "char *s = \"N\"; int w = ((1) > (10) ? (1) : (10));",
+                "",
+                "char *t = \"a \\\"b\\\"\";",
+                "int xN = SELF + 10;",
+                "int TWICE;",
+                "",
+                "int b[N];",
+                ""), res.getContent());
+        assertEquals(new Location("main.c", 11), res.getLocation(11));
+        assertEquals(new Location("main.c", 15), res.getLocation(15));
+    }
+
+    @Test
+    void testLineCommentsInJoinedInvocation() {
+        String main = String.join("\n",
+                "#define ADD(a, b) ((a) + (b))",
+                "int x = ADD(1, // first",
+                "    2); // done",
+                "int y = ADD // name",
+                "(\"//\", 3);",
+                "int z;",
+                "");
+        Preprocessor.Result res = preprocess(Map.of("main.c", main), Map.of());
+        assertEquals(String.join("\n",
+                "",
+                "int x = ((1) + (2)); ",
+                "",
+                "int y = ((\"//\") + (3));",
+                "",
+                "int z;",
+                ""), res.getContent());
+        assertEquals(new Location("main.c", 6), res.getLocation(6));
+    }
+
+    @Test
+    void testConditionals() {
+        String lib = "#pragma once\n#ifndef LIB\n#define LIB\nint lib;\n#endif\n";
+        String main = String.join("\n",
+                "#include \"lib.h\"",
+                "#ifdef DEBUG",
+                "int trace;",
+                "#if LEVEL > 1 && defined(VERBOSE)",
+                "int verbose;",
+                "#elif LEVEL == 1",
+                "int one;",
+                "#else",
+                "int other;",
+                "#endif",
+                "#endif",
+                "/*",
+                "#error in a comment",
+                "*/",
+                "#if 0",
+                "#error skipped",
+                "#include \"missing.h\"",
+                "#endif",
+                "int x;",
+                "");
+        Map<String, String> files = Map.of("main.c", main, "lib.h", lib);
+        String comment = "/*\n#error in a comment\n*/\n";
+        assertEquals("int lib;\n" + comment, strip(preprocess(files, Map.of()).getContent()));
+        assertEquals("int lib;\nint trace;\nint one;\n" + comment,
+                strip(preprocess(files, Map.of("DEBUG", "1", "LEVEL", "1")).getContent()));
+        assertEquals("int lib;\nint trace;\nint verbose;\n" + comment,
+                strip(preprocess(files, Map.of("DEBUG", "1", "LEVEL", "2", "VERBOSE", "")).getContent()));
+
+        Preprocessor.Result res = preprocess(files, Map.of());
+        String[] lines = res.getContent().split("\n", -1);
+        // the 5 lines of lib.h replace the #include line
+        assertEquals("int x;", lines[5 + 18 - 1]);
+        assertEquals(new Location("main.c", 19), res.getLocation(5 + 18));
+    }
+
+    /**
+     * @return the non-empty lines, without the last one
+     */
+    private static String strip(String content) {
+        StringBuilder sb = new StringBuilder();
+        String[] lines = content.split("\n");
+        for (int i = 0; i < lines.length - 1; i++) {
+            if (!lines[i].isBlank()) {
+                sb.append(lines[i]).append('\n');
+            }
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testDirectiveErrors() {
+        for (String[] c : new String[][] {
+                {"#if 1\nint x;\n", "main.c:1: Unterminated conditional directive"},
+                {"#endif\n", "main.c:1: #endif without #if"},
+                {"#if 1\n#else\n#else\n#endif\n", "main.c:3: #else after #else"},
+                {"#if 1 / 0\n#endif\n", "main.c:1: Division by zero in #if"},
+                {"#define F(a) a\nint x = F(1, 2);\n", "main.c:2: Macro F expects 1 argument(s) but got 2"},
+                {"#warning x\n", "main.c:1: Unknown directive: #warning"},
+                {"\n#error stop here\n", "main.c:2: #error stop here"}}) {
+            MinicException e = assertThrows(MinicException.class, () -> preprocess(Map.of("main.c", c[0]), Map.of()));
+            assertEquals(c[1], e.getMessage());
+        }
+    }
+}
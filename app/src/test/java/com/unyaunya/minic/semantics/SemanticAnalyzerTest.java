@@ -0,0 +1,46 @@
+package com.unyaunya.minic.semantics;
+
+import org.junit.jupiter.api.Test;
+
+import com.unyaunya.minic.Diagnostics;
+import com.unyaunya.minic.MinicException;
+import com.unyaunya.minic.TestPrograms;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class SemanticAnalyzerTest {
+
+    private static String source(int functions) {
+        StringBuilder sb = new StringBuilder("int g;\n");
+        for (int i = 0; i < functions; i++) {
+            sb.append(String.format("int averylongname%d(int a) {\n    return a + x%d + x%d;\n}\n", i, i, i % 3));
+        }
+        return sb.toString();
+    }
+
+    @Test
+    void testParallelAnalysisReportsInSourceOrder() {
+        String source = source(12);
+        Diagnostics sequential = new Diagnostics(0);
+        SemanticInfo expected = new SemanticAnalyzer(sequential, false).analyze(TestPrograms.parse(source));
+        Diagnostics parallel = new Diagnostics(0);
+        SemanticInfo actual = new SemanticAnalyzer(parallel, true).analyze(TestPrograms.parse(source));
+        assertEquals(12 + 21, sequential.getDiagnostics().size()); // a warning per function, one error per undeclared name
+        assertEquals(sequential.getDiagnostics(), parallel.getDiagnostics());
+        assertEquals(expected.getLocalSizes(), actual.getLocalSizes());
+        assertEquals(expected.getFunctionSymbols().keySet(), actual.getFunctionSymbols().keySet());
+    }
+
+    @Test
+    void testParallelAnalysisStopsAtTheSameError() {
+        String source = source(12);
+        Diagnostics sequential = new Diagnostics(5);
+        MinicException expected = assertThrows(MinicException.class, () -> new SemanticAnalyzer(sequential, false).analyze(TestPrograms.parse(source)));
+        Diagnostics parallel = new Diagnostics(5);
+        MinicException actual = assertThrows(MinicException.class, () -> new SemanticAnalyzer(parallel, true).analyze(TestPrograms.parse(source)));
+        assertEquals(expected.getMessage(), actual.getMessage());
+        assertEquals(sequential.getDiagnostics(), parallel.getDiagnostics());
+        assertEquals(5, parallel.getErrorCount());
+    }
+}
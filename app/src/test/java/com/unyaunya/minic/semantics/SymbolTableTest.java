@@ -0,0 +1,68 @@
+package com.unyaunya.minic.semantics;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Path;
+import java.util.Map;
+
+import org.antlr.v4.runtime.CommonTokenStream;
+
+import com.unyaunya.minic.ast.BaseType;
+import com.unyaunya.minic.ast.Binary;
+import com.unyaunya.minic.ast.Program;
+import com.unyaunya.minic.ast.ReturnStmt;
+import com.unyaunya.minic.ast.TypeSpec;
+import com.unyaunya.minic.ast.VarRef;
+import com.unyaunya.minic.backend.AstBuilder;
+import com.unyaunya.minic.parser.MiniCLexer;
+import com.unyaunya.minic.parser.MiniCParser;
+import com.unyaunya.minic.preprocess.Preprocessor;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SymbolTableTest {
+    private static final TypeSpec INT = new TypeSpec(BaseType.INT);
+
+    @Test
+    void testShadowingIsUndoneOnExit() {
+        SymbolTable table = new SymbolTable();
+        Symbol global = new Symbol(INT, StorageClass.GLOBAL, 0, "x");
+        Symbol local = new Symbol(INT, StorageClass.LOCAL, 1);
+        table.enterScope();
+        assertTrue(table.declare("x", global));
+        table.enterScope();
+        assertTrue(table.declare("x", local));
+        assertFalse(table.declare("x", local));
+        assertTrue(table.declare("y", local));
+        assertSame(local, table.lookup("x"));
+
+        assertEquals(Map.of("x", local, "y", local), table.exitScope());
+        assertSame(global, table.lookup("x"));
+        assertNull(table.lookup("y"));
+        assertEquals(Map.of("x", global), table.exitScope());
+        assertNull(table.lookup("x"));
+    }
+
+    @Test
+    void testNamesAreBoundIntoTheAst() {
+        String source = "int g;\nint f(int p) {\n    int l = p;\n    return g + l;\n}\n";
+        Preprocessor.Result res = new Preprocessor().preprocess(Path.of("bind.c"), source);
+        MiniCParser parser = new MiniCParser(new CommonTokenStream(new MiniCLexer(res.getCharStream())));
+        Program program = (Program) new AstBuilder(res).visit(parser.program());
+        SemanticInfo info = new SemanticAnalyzer().analyze(program);
+
+        ReturnStmt ret = (ReturnStmt) program.getFunctions().get(0).getBody().getStatements().get(1);
+        Binary sum = (Binary) ret.getValue();
+        Symbol g = ((VarRef) sum.getLeft()).getSymbol();
+        Symbol l = ((VarRef) sum.getRight()).getSymbol();
+        assertSame(info.getSymbol("f", "g"), g);
+        assertSame(info.getSymbol("f", "l"), l);
+        assertEquals("G", g.getLabel());
+        assertEquals(65535, l.getDisplacement());
+        assertEquals(1, info.getSymbol("f", "p").getDisplacement());
+    }
+}
@@ -0,0 +1,103 @@
+package com.unyaunya.minic.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.unyaunya.minic.CompilerMain;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CompileServerTest {
+
+    @Test
+    void testCompileRequests() throws Exception {
+        String bad = "void f() {\n    y = 1;\n}\n";
+        String requests =
+                "COMPILE a\npath: sample/fib.c\n\n" +
+                "COMPILE b\npath: sample/bad.c\nlength: " + bad.length() + "\n\n" + bad +
+                "SHUTDOWN\n";
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        new CompileServer().serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), out);
+        String response = out.toString(StandardCharsets.UTF_8);
+
+        String asm = new CompilerMain().compile("sample/fib.c");
+        assertTrue(response.contains("RESULT a ok\nasm-length: " + asm.getBytes(StandardCharsets.UTF_8).length
+                + "\ndiagnostics-length: 0\n\n" + asm));
+        assertTrue(response.contains("RESULT b error\nasm-length: 0\n"));
+        assertTrue(response.contains("bad.c:2: Undeclared identifier: y"));
+        assertEquals(2, response.split("RESULT ", -1).length - 1);
+    }
+
+    @Test
+    void testMalformedLengthGetsAnErrorAndEndsTheConnection() {
+        for (String length : List.of("-5", "x")) {
+            String requests = "COMPILE c\npath: c.c\nlength: " + length + "\n\nint main() {}\nCOMPILE d\npath: sample/fib.c\n\n";
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            IOException e = assertThrows(IOException.class,
+                    () -> new CompileServer().serve(new ByteArrayInputStream(requests.getBytes(StandardCharsets.UTF_8)), out));
+            assertTrue(e.getMessage().contains("Malformed length"), e.getMessage());
+            String response = out.toString(StandardCharsets.UTF_8);
+            assertTrue(response.startsWith("RESULT c error\n"), response);
+            assertTrue(response.endsWith("Malformed length: " + length + "\n"), response);
+        }
+    }
+
+    @Test
+    void testSocketIsOnlyTakenOverFromAStoppedServer(@TempDir Path dir) throws Exception {
+        Path file = dir.resolve("typo.c");
+        Files.writeString(file, "int main() {}\n");
+        IOException e = assertThrows(IOException.class, () -> new CompileServer().serveSocket(file));
+        assertTrue(e.getMessage().startsWith("Not a socket"), e.getMessage());
+        assertEquals("int main() {}\n", Files.readString(file));
+
+        Path socket = dir.resolve("minic.sock");
+        ServerSocketChannel running = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        running.bind(UnixDomainSocketAddress.of(socket));
+        e = assertThrows(IOException.class, () -> new CompileServer().serveSocket(socket));
+        assertTrue(e.getMessage().startsWith("Another server"), e.getMessage());
+
+        // a socket nobody listens on any more is replaced
+        running.close();
+        Thread server = new Thread(() -> {
+            try {
+                new CompileServer().serveSocket(socket);
+            } catch (IOException ignored) {
+                // closed by the interrupt
+            }
+        });
+        server.start();
+        try {
+            SocketChannel client = null;
+            for (int i = 0; i < 500 && client == null; i++) {
+                try {
+                    client = SocketChannel.open(UnixDomainSocketAddress.of(socket));
+                } catch (IOException notYet) {
+                    Thread.sleep(20);
+                }
+            }
+            assertNotNull(client, "server didn't start");
+            client.close();
+        } finally {
+            server.interrupt();
+            server.join(10_000);
+        }
+        assertFalse(server.isAlive());
+        assertFalse(Files.exists(socket));
+    }
+}